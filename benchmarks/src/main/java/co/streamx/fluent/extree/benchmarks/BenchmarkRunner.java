@@ -0,0 +1,48 @@
+package co.streamx.fluent.extree.benchmarks;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks selected on the command line (same options as the JMH launcher) with the GC profiler, so the
+ * allocation per operation ({@code gc.alloc.rate.norm}) is reported along with the time. Other profilers, e.g.
+ * {@code -prof perfasm}, are added on the command line. {@code -h}, {@code -l} and {@code -lp} print and exit, as with
+ * the JMH launcher.
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws CommandLineOptionException, IOException, RunnerException {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        if (cmd.shouldHelp()) {
+            cmd.showHelp();
+            return;
+        }
+        if (cmd.shouldList()) {
+            new Runner(cmd).list();
+            return;
+        }
+        if (cmd.shouldListWithParams()) {
+            new Runner(cmd).listWithParams(cmd);
+            return;
+        }
+
+        OptionsBuilder options = new OptionsBuilder();
+        options.parent(cmd);
+        if (cmd.getProfilers().stream().noneMatch(p -> isGCProfiler(p.getKlass())))
+            options.addProfiler(GCProfiler.class);
+        new Runner(options.build()).run();
+    }
+
+    private static boolean isGCProfiler(String profiler) {
+        return profiler.equals("gc") || profiler.equals(GCProfiler.class.getName());
+    }
+}
@@ -0,0 +1,67 @@
+package co.streamx.fluent.extree.benchmarks;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import co.streamx.fluent.extree.expression.LambdaExpression;
+
+/**
+ * Cold parsing: every fork is a fresh JVM that parses each lambda once, so the class file is read and cracked. The
+ * result includes the class loading and the JIT warm up of the parser, as the first query build does.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(20)
+@State(Scope.Benchmark)
+public class ColdParseBenchmark {
+
+    private Method senior;
+
+    @Setup
+    public void setup() throws NoSuchMethodException {
+        senior = Customer.class.getMethod("isSenior", Customer.class);
+    }
+
+    @Benchmark
+    public LambdaExpression<?> nonCapturing() {
+        return LambdaExpression.parse(Lambdas.nonCapturing());
+    }
+
+    @Benchmark
+    public LambdaExpression<?> capturing() {
+        return LambdaExpression.parse(Lambdas.capturing(21, "B"));
+    }
+
+    @Benchmark
+    public LambdaExpression<?> methodRef() {
+        return LambdaExpression.parse(Lambdas.methodRef());
+    }
+
+    @Benchmark
+    public LambdaExpression<?> nestedLambda() {
+        return LambdaExpression.parse(Lambdas.nested());
+    }
+
+    @Benchmark
+    public LambdaExpression<?> parseMethodRef() {
+        return LambdaExpression.parse(Lambdas.methodRef()).parseMethodRef();
+    }
+
+    @Benchmark
+    public LambdaExpression<?> parseMethod() {
+        return LambdaExpression.parseMethod(senior, null);
+    }
+}
@@ -0,0 +1,97 @@
+package co.streamx.fluent.extree.benchmarks;
+
+public class Customer {
+    private String name;
+    private int age;
+    private Customer referrer;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public int getAge() {
+        return age;
+    }
+
+    public void setAge(int age) {
+        this.age = age;
+    }
+
+    public Customer getReferrer() {
+        return referrer;
+    }
+
+    public void setReferrer(Customer referrer) {
+        this.referrer = referrer;
+    }
+
+    public boolean isAdult() {
+        return age >= 18;
+    }
+
+    public static boolean isSenior(Customer c) {
+        return c.getAge() >= 65 && c.getReferrer() != null;
+    }
+
+    /**
+     * 104 conditional operators: 52 conditions joined by {@code &&}, half of them {@code ||} and half ternaries.
+     */
+    public static boolean matches(Customer c) {
+        return (c.getAge() != 0 || c.getReferrer() == null)
+                && (c.getName() != null ? c.getAge() > 1 : c.getAge() < 101)
+                && (c.getAge() != 2 || c.getReferrer() == null)
+                && (c.getName() != null ? c.getAge() > 3 : c.getAge() < 103)
+                && (c.getAge() != 4 || c.getReferrer() == null)
+                && (c.getName() != null ? c.getAge() > 5 : c.getAge() < 105)
+                && (c.getAge() != 6 || c.getReferrer() == null)
+                && (c.getName() != null ? c.getAge() > 7 : c.getAge() < 107)
+                && (c.getAge() != 8 || c.getReferrer() == null)
+                && (c.getName() != null ? c.getAge() > 9 : c.getAge() < 109)
+                && (c.getAge() != 10 || c.getReferrer() == null)
+                && (c.getName() != null ? c.getAge() > 11 : c.getAge() < 111)
+                && (c.getAge() != 12 || c.getReferrer() == null)
+                && (c.getName() != null ? c.getAge() > 13 : c.getAge() < 113)
+                && (c.getAge() != 14 || c.getReferrer() == null)
+                && (c.getName() != null ? c.getAge() > 15 : c.getAge() < 115)
+                && (c.getAge() != 16 || c.getReferrer() == null)
+                && (c.getName() != null ? c.getAge() > 17 : c.getAge() < 117)
+                && (c.getAge() != 18 || c.getReferrer() == null)
+                && (c.getName() != null ? c.getAge() > 19 : c.getAge() < 119)
+                && (c.getAge() != 20 || c.getReferrer() == null)
+                && (c.getName() != null ? c.getAge() > 21 : c.getAge() < 121)
+                && (c.getAge() != 22 || c.getReferrer() == null)
+                && (c.getName() != null ? c.getAge() > 23 : c.getAge() < 123)
+                && (c.getAge() != 24 || c.getReferrer() == null)
+                && (c.getName() != null ? c.getAge() > 25 : c.getAge() < 125)
+                && (c.getAge() != 26 || c.getReferrer() == null)
+                && (c.getName() != null ? c.getAge() > 27 : c.getAge() < 127)
+                && (c.getAge() != 28 || c.getReferrer() == null)
+                && (c.getName() != null ? c.getAge() > 29 : c.getAge() < 129)
+                && (c.getAge() != 30 || c.getReferrer() == null)
+                && (c.getName() != null ? c.getAge() > 31 : c.getAge() < 131)
+                && (c.getAge() != 32 || c.getReferrer() == null)
+                && (c.getName() != null ? c.getAge() > 33 : c.getAge() < 133)
+                && (c.getAge() != 34 || c.getReferrer() == null)
+                && (c.getName() != null ? c.getAge() > 35 : c.getAge() < 135)
+                && (c.getAge() != 36 || c.getReferrer() == null)
+                && (c.getName() != null ? c.getAge() > 37 : c.getAge() < 137)
+                && (c.getAge() != 38 || c.getReferrer() == null)
+                && (c.getName() != null ? c.getAge() > 39 : c.getAge() < 139)
+                && (c.getAge() != 40 || c.getReferrer() == null)
+                && (c.getName() != null ? c.getAge() > 41 : c.getAge() < 141)
+                && (c.getAge() != 42 || c.getReferrer() == null)
+                && (c.getName() != null ? c.getAge() > 43 : c.getAge() < 143)
+                && (c.getAge() != 44 || c.getReferrer() == null)
+                && (c.getName() != null ? c.getAge() > 45 : c.getAge() < 145)
+                && (c.getAge() != 46 || c.getReferrer() == null)
+                && (c.getName() != null ? c.getAge() > 47 : c.getAge() < 147)
+                && (c.getAge() != 48 || c.getReferrer() == null)
+                && (c.getName() != null ? c.getAge() > 49 : c.getAge() < 149)
+                && (c.getAge() != 50 || c.getReferrer() == null)
+                && (c.getName() != null ? c.getAge() > 51 : c.getAge() < 151);
+    }
+}
@@ -0,0 +1,135 @@
+package co.streamx.fluent.extree.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import co.streamx.fluent.extree.expression.LambdaExpression;
+
+/**
+ * Evaluation of parsed lambdas compared to calling the original lambda:
+ * <ul>
+ * <li>{@code native} calls the lambda itself</li>
+ * <li>{@code interpreted} evaluates the tree with {@link LambdaExpression#compile(co.streamx.fluent.extree.expression.Expression)}</li>
+ * <li>{@code specialized} evaluates the tree with {@link LambdaExpression#compileSpecialized()}</li>
+ * <li>{@code compiled} calls {@link LambdaExpression#compile()}, which runs the generated bytecode once warmed up</li>
+ * </ul>
+ * The arguments arrays are allocated once, so the allocation per operation is the evaluation's own.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Dco.streamx.fluent.extree.compileThreshold=1000")
+@State(Scope.Benchmark)
+public class EvaluationBenchmark {
+
+    @Param({ "native", "interpreted", "specialized", "compiled" })
+    private String mode;
+
+    private final Operator<Integer> arithmetic = (a, b) -> a * 31 + b - (a >> 2);
+    private final Property<Customer, Boolean> comparison = c -> c.getAge() >= 18 && c.getAge() < 65;
+    private final Property<Customer, String> getterChain = c -> c.getReferrer().getReferrer().getName();
+    private final Property<Customer, String> concat = c -> "Hello, " + c.getName() + " (" + c.getAge() + ")";
+    private final Property<int[], Integer> arrayAccess = a -> a[0] + a[a.length - 1];
+    private final Property<Customer, Integer> nestedInvocation = c -> Math.abs(Math.max(c.getAge(), 18) - 40)
+            + Integer.parseInt(String.valueOf(c.getAge()));
+
+    private Function<Object[], ?> arithmeticF;
+    private Function<Object[], ?> comparisonF;
+    private Function<Object[], ?> getterChainF;
+    private Function<Object[], ?> concatF;
+    private Function<Object[], ?> arrayAccessF;
+    private Function<Object[], ?> nestedInvocationF;
+
+    private Integer x = 12345;
+    private Integer y = 678;
+    private Customer customer;
+    private int[] array = { 3, 1, 4, 1, 5, 9, 2, 6 };
+
+    private Object[] xy;
+    private Object[] customerArgs;
+    private Object[] arrayArgs;
+
+    @Setup
+    public void setup() {
+        Customer root = new Customer();
+        root.setName("Root");
+        Customer referrer = new Customer();
+        referrer.setReferrer(root);
+        customer = new Customer();
+        customer.setName("Alice");
+        customer.setAge(42);
+        customer.setReferrer(referrer);
+
+        xy = new Object[] { x, y };
+        customerArgs = new Object[] { customer };
+        arrayArgs = new Object[] { array };
+
+        arithmeticF = compile(LambdaExpression.parse(arithmetic));
+        comparisonF = compile(LambdaExpression.parse(comparison));
+        getterChainF = compile(LambdaExpression.parse(getterChain));
+        concatF = compile(LambdaExpression.parse(concat));
+        arrayAccessF = compile(LambdaExpression.parse(arrayAccess));
+        nestedInvocationF = compile(LambdaExpression.parse(nestedInvocation));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Function<Object[], ?> compile(LambdaExpression<?> parsed) {
+        switch (mode) {
+            case "native":
+                return null;
+            case "interpreted":
+                return ((Function<Object[], Function<Object[], ?>>) LambdaExpression.compile(parsed))
+                        .apply(new Object[0]);
+            case "specialized":
+                return parsed.compileSpecialized();
+            case "compiled":
+                return parsed.compile();
+            default:
+                throw new IllegalArgumentException(mode);
+        }
+    }
+
+    @Benchmark
+    public Object arithmetic() {
+        return arithmeticF == null ? arithmetic.apply(x, y) : arithmeticF.apply(xy);
+    }
+
+    @Benchmark
+    public Object comparison() {
+        return comparisonF == null ? comparison.apply(customer) : comparisonF.apply(customerArgs);
+    }
+
+    @Benchmark
+    public Object getterChain() {
+        return getterChainF == null ? getterChain.apply(customer) : getterChainF.apply(customerArgs);
+    }
+
+    @Benchmark
+    public Object concat() {
+        return concatF == null ? concat.apply(customer) : concatF.apply(customerArgs);
+    }
+
+    @Benchmark
+    public Object arrayAccess() {
+        return arrayAccessF == null ? arrayAccess.apply(array) : arrayAccessF.apply(arrayArgs);
+    }
+
+    @Benchmark
+    public Object nestedInvocation() {
+        return nestedInvocationF == null ? nestedInvocation.apply(customer)
+                : nestedInvocationF.apply(customerArgs);
+    }
+}
@@ -0,0 +1,30 @@
+package co.streamx.fluent.extree.benchmarks;
+
+import java.util.function.Function;
+
+/**
+ * The lambdas parsed by the benchmarks. Each factory returns a new instance of the same lambda, as a query builder
+ * does on every call.
+ */
+final class Lambdas {
+
+    private Lambdas() {
+    }
+
+    static Property<Customer, Boolean> nonCapturing() {
+        return c -> c.getAge() > 18 && c.getName().startsWith("A");
+    }
+
+    static Property<Customer, Boolean> capturing(int minAge,
+                                                 String prefix) {
+        return c -> c.getAge() > minAge && c.getName().startsWith(prefix);
+    }
+
+    static Property<Customer, String> methodRef() {
+        return Customer::getName;
+    }
+
+    static Property<Customer, Function<Integer, Boolean>> nested() {
+        return c -> min -> c.getAge() > min && c.getReferrer() != null;
+    }
+}
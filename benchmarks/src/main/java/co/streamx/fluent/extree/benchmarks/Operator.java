@@ -0,0 +1,10 @@
+package co.streamx.fluent.extree.benchmarks;
+
+import java.io.Serializable;
+import java.util.function.BinaryOperator;
+
+/**
+ * Serializable binary operator, see {@link Property}.
+ */
+public interface Operator<T> extends BinaryOperator<T>, Serializable {
+}
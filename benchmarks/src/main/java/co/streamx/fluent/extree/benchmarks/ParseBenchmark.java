@@ -0,0 +1,83 @@
+package co.streamx.fluent.extree.benchmarks;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import co.streamx.fluent.extree.expression.LambdaExpression;
+
+/**
+ * Warm parsing: the lambda classes are parsed once in the setup, so the benchmarks measure the cached path, i.e. what
+ * a query build pays per call. Regressions in the parse caches show up here. {@code parseMethod} is not cached, it
+ * parses the method bytecode on every call: {@link #conditionals()} covers the branch merging of a method with over a
+ * hundred conditional operators.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+
+    private Method senior;
+    private Method matches;
+    private int minAge = 21;
+    private String prefix = "B";
+
+    @Setup
+    public void setup() throws NoSuchMethodException {
+        senior = Customer.class.getMethod("isSenior", Customer.class);
+        matches = Customer.class.getMethod("matches", Customer.class);
+
+        LambdaExpression.parse(Lambdas.nonCapturing());
+        LambdaExpression.parse(Lambdas.capturing(minAge, prefix));
+        LambdaExpression.parse(Lambdas.methodRef()).parseMethodRef();
+        LambdaExpression.parse(Lambdas.nested());
+    }
+
+    @Benchmark
+    public LambdaExpression<?> nonCapturing() {
+        return LambdaExpression.parse(Lambdas.nonCapturing());
+    }
+
+    @Benchmark
+    public LambdaExpression<?> capturing() {
+        return LambdaExpression.parse(Lambdas.capturing(minAge, prefix));
+    }
+
+    @Benchmark
+    public LambdaExpression<?> methodRef() {
+        return LambdaExpression.parse(Lambdas.methodRef());
+    }
+
+    @Benchmark
+    public LambdaExpression<?> nestedLambda() {
+        return LambdaExpression.parse(Lambdas.nested());
+    }
+
+    @Benchmark
+    public LambdaExpression<?> parseMethodRef() {
+        return LambdaExpression.parse(Lambdas.methodRef()).parseMethodRef();
+    }
+
+    @Benchmark
+    public LambdaExpression<?> parseMethod() {
+        return LambdaExpression.parseMethod(senior, null);
+    }
+
+    @Benchmark
+    public LambdaExpression<?> conditionals() {
+        return LambdaExpression.parseMethod(matches, null);
+    }
+}
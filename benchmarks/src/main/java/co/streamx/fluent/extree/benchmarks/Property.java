@@ -0,0 +1,10 @@
+package co.streamx.fluent.extree.benchmarks;
+
+import java.io.Serializable;
+import java.util.function.Function;
+
+/**
+ * Serializable function, so the lambdas are parsed without {@code jdk.internal.lambda.dumpProxyClasses}.
+ */
+public interface Property<T, R> extends Function<T, R>, Serializable {
+}
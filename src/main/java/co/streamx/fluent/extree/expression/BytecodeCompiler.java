@@ -0,0 +1,1469 @@
+package co.streamx.fluent.extree.expression;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * Compiles a {@link LambdaExpression} to a JVM class implementing a functional interface.
+ * <p>
+ * Unlike {@link Interpreter}, the generated code calls members directly and keeps primitives unboxed. Values that
+ * cannot be expressed as bytecode literals (captured objects, method handles for inaccessible members) are passed to
+ * the generated class constructor. Arithmetic follows the Java language semantics of the node result type.
+ * </p>
+ * Trees the compiler cannot translate cause {@link UnsupportedOperationException}.
+ */
+
+final class BytecodeCompiler implements ExpressionVisitor<Class<?>>, Opcodes {
+
+    private static final String PACKAGE = "co/streamx/fluent/extree/expression/CompiledLambda$";
+    private static final AtomicInteger counter = new AtomicInteger();
+
+    private static final String OBJECT = Type.getInternalName(Object.class);
+    private static final String CONSTANTS_DESCRIPTOR = "([Ljava/lang/Object;)V";
+
+    private final ClassLoader loader;
+    private final String className;
+    private final ClassWriter writer;
+    private final Map<Class<?>, Boolean> visibility = new HashMap<>();
+
+    private final List<Object> constants = new ArrayList<>();
+    private final List<Class<?>> constantTypes = new ArrayList<>();
+    private final Map<Object, Integer> constantIndices = new IdentityHashMap<>();
+
+    private MethodVisitor mv;
+    private Binding[] scope;
+    private int nextLocal;
+
+    /**
+     * Either a JVM local variable slot, or a constant expression bound at compile time.
+     */
+    private static final class Binding {
+        final int slot;
+        final Class<?> type;
+        final Expression constant;
+
+        Binding(int slot, Class<?> type) {
+            this.slot = slot;
+            this.type = type;
+            this.constant = null;
+        }
+
+        Binding(Expression constant) {
+            this.slot = -1;
+            this.type = null;
+            this.constant = constant;
+        }
+    }
+
+    private static final class GeneratedClassLoader extends ClassLoader {
+        GeneratedClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name,
+                        byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    private BytecodeCompiler(ClassLoader loader) {
+        this.loader = loader;
+        this.className = PACKAGE + counter.incrementAndGet();
+        this.writer = new ClassWriter(ClassWriter.COMPUTE_FRAMES) {
+            @Override
+            protected ClassLoader getClassLoader() {
+                return BytecodeCompiler.this.loader;
+            }
+        };
+    }
+
+    /**
+     * Compiles the lambda expression to an instance of the functional interface.
+     *
+     * @param <F>                 type of the functional interface.
+     * @param lambda              the lambda to compile.
+     * @param functionalInterface the interface the result implements.
+     * @return the functional interface instance evaluating the lambda.
+     * @throws UnsupportedOperationException if the tree cannot be translated to bytecode.
+     */
+    static <F> F compile(LambdaExpression<?> lambda,
+                         Class<F> functionalInterface) {
+        Method sam = getFunctionalMethod(functionalInterface);
+        if (sam.getParameterCount() != lambda.getParameters().size())
+            throw new IllegalArgumentException(functionalInterface.getName() + "." + sam.getName() + " expects "
+                    + sam.getParameterCount() + " parameters, the lambda has " + lambda.getParameters().size());
+
+        BytecodeCompiler compiler = new BytecodeCompiler(chooseLoader(lambda, functionalInterface));
+        if (!compiler.isAccessible(functionalInterface))
+            throw new UnsupportedOperationException(functionalInterface + " is not accessible");
+
+        byte[] bytes;
+        try {
+            bytes = compiler.generate(lambda, functionalInterface, sam);
+        } catch (UnsupportedOperationException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw new UnsupportedOperationException("cannot compile " + lambda, e);
+        }
+
+        try {
+            Class<?> compiled = new GeneratedClassLoader(compiler.loader).define(compiler.className.replace('/', '.'),
+                    bytes);
+            Object instance = compiled.getConstructor(Object[].class).newInstance((Object) compiler.constants.toArray());
+            return functionalInterface.cast(instance);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            throw new UnsupportedOperationException("cannot load compiled " + lambda, e);
+        }
+    }
+
+    static Method getFunctionalMethod(Class<?> functionalInterface) {
+        if (!functionalInterface.isInterface())
+            throw new IllegalArgumentException(functionalInterface + " is not an interface");
+
+        Method sam = null;
+        for (Method m : functionalInterface.getMethods()) {
+            if (!Modifier.isAbstract(m.getModifiers()) || isObjectMethod(m))
+                continue;
+            if (sam == null || sam.getReturnType().isAssignableFrom(m.getReturnType()) && isBridgeable(sam, m))
+                sam = m;
+            else if (!isBridgeable(m, sam))
+                throw new IllegalArgumentException(functionalInterface + " is not a functional interface");
+        }
+
+        if (sam == null)
+            throw new IllegalArgumentException(functionalInterface + " is not a functional interface");
+
+        return sam;
+    }
+
+    private static boolean isBridgeable(Method general,
+                                        Method specific) {
+        if (!general.getName().equals(specific.getName()))
+            return false;
+
+        Class<?>[] generalParams = general.getParameterTypes();
+        Class<?>[] specificParams = specific.getParameterTypes();
+        if (generalParams.length != specificParams.length)
+            return false;
+
+        for (int i = 0; i < generalParams.length; i++)
+            if (!generalParams[i].isAssignableFrom(specificParams[i]))
+                return false;
+
+        return true;
+    }
+
+    private static boolean isObjectMethod(Method m) {
+        try {
+            Object.class.getMethod(m.getName(), m.getParameterTypes());
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static ClassLoader chooseLoader(LambdaExpression<?> lambda,
+                                            Class<?> functionalInterface) {
+        Set<Class<?>> types = new LinkedHashSet<>();
+        types.add(functionalInterface);
+        lambda.accept(new TypeCollector(types));
+
+        Set<ClassLoader> candidates = new LinkedHashSet<>();
+        for (Class<?> type : types) {
+            ClassLoader candidate = type.getClassLoader();
+            if (candidate != null)
+                candidates.add(candidate);
+        }
+        ClassLoader context = Thread.currentThread().getContextClassLoader();
+        if (context != null)
+            candidates.add(context);
+        candidates.add(BytecodeCompiler.class.getClassLoader());
+
+        ClassLoader fallback = null;
+        CANDIDATES: for (ClassLoader candidate : candidates) {
+            if (!isVisible(candidate, functionalInterface))
+                continue;
+            if (fallback == null)
+                fallback = candidate;
+            for (Class<?> type : types)
+                if (!isVisible(candidate, type))
+                    continue CANDIDATES;
+            return candidate;
+        }
+
+        if (fallback == null)
+            throw new UnsupportedOperationException(functionalInterface + " is not visible");
+
+        return fallback;
+    }
+
+    private static boolean isVisible(ClassLoader loader,
+                                     Class<?> type) {
+        while (type.isArray())
+            type = type.getComponentType();
+        if (type.isPrimitive())
+            return true;
+        try {
+            return Class.forName(type.getName(), false, loader) == type;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    private boolean isVisible(Class<?> type) {
+        return visibility.computeIfAbsent(type, t -> isVisible(loader, t));
+    }
+
+    private boolean isAccessible(Class<?> type) {
+        while (type.isArray())
+            type = type.getComponentType();
+        if (type.isPrimitive())
+            return true;
+
+        return Modifier.isPublic(type.getModifiers()) && type.getModule().isExported(type.getPackageName())
+                && isVisible(type);
+    }
+
+    /**
+     * @return the most specific supertype of the type the generated code can refer to.
+     */
+    private Class<?> accessible(Class<?> type) {
+        if (isAccessible(type))
+            return type;
+        if (type.isInterface() || type.isArray())
+            return Object.class;
+        do {
+            type = type.getSuperclass();
+        } while (!isAccessible(type));
+        return type;
+    }
+
+    private byte[] generate(LambdaExpression<?> lambda,
+                            Class<?> functionalInterface,
+                            Method sam) {
+        writer.visit(V11, ACC_PUBLIC | ACC_FINAL | ACC_SUPER | ACC_SYNTHETIC, className, null, OBJECT,
+                new String[] { Type.getInternalName(functionalInterface) });
+
+        generateFunctionalMethod(lambda, sam);
+
+        for (Method m : functionalInterface.getMethods())
+            if (Modifier.isAbstract(m.getModifiers()) && !isObjectMethod(m)
+                    && !Type.getMethodDescriptor(m).equals(Type.getMethodDescriptor(sam))
+                    && isBridgeable(m, sam))
+                generateBridge(m, sam);
+
+        generateConstructor();
+
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    private void generateConstructor() {
+        mv = writer.visitMethod(ACC_PUBLIC, "<init>", CONSTANTS_DESCRIPTOR, null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, OBJECT, "<init>", "()V", false);
+
+        for (int i = 0; i < constants.size(); i++) {
+            Class<?> type = constantTypes.get(i);
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitVarInsn(ALOAD, 1);
+            pushInt(i);
+            mv.visitInsn(AALOAD);
+            if (type != Object.class)
+                mv.visitTypeInsn(CHECKCAST, Type.getInternalName(type));
+            mv.visitFieldInsn(PUTFIELD, className, constantName(i), Type.getDescriptor(type));
+        }
+
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    private void generateFunctionalMethod(LambdaExpression<?> lambda,
+                                          Method sam) {
+        mv = writer.visitMethod(ACC_PUBLIC | ACC_FINAL, sam.getName(), Type.getMethodDescriptor(sam), null, null);
+        mv.visitCode();
+
+        Class<?>[] samParams = sam.getParameterTypes();
+        int[] slots = new int[samParams.length];
+        nextLocal = 1;
+        for (int i = 0; i < samParams.length; i++) {
+            slots[i] = nextLocal;
+            nextLocal += Type.getType(samParams[i]).getSize();
+        }
+
+        List<ParameterExpression> params = lambda.getParameters();
+        scope = new Binding[params.size() + lambda.getLocals().size()];
+        for (ParameterExpression p : params) {
+            int index = p.getIndex();
+            Class<?> from = samParams[index];
+            Class<?> to = p.getResultType();
+            if (from == to || !from.isPrimitive() && !to.isPrimitive() && to.isAssignableFrom(from)) {
+                scope[index] = new Binding(slots[index], from);
+            } else {
+                mv.visitVarInsn(Type.getType(from).getOpcode(ILOAD), slots[index]);
+                scope[index] = store(convert(from, to));
+            }
+        }
+
+        Class<?> result = emitBody(lambda);
+        convert(result, sam.getReturnType());
+        mv.visitInsn(Type.getType(sam.getReturnType()).getOpcode(IRETURN));
+
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    private void generateBridge(Method bridge,
+                                Method sam) {
+        mv = writer.visitMethod(ACC_PUBLIC | ACC_FINAL | ACC_BRIDGE | ACC_SYNTHETIC, bridge.getName(),
+                Type.getMethodDescriptor(bridge), null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+
+        Class<?>[] from = bridge.getParameterTypes();
+        Class<?>[] to = sam.getParameterTypes();
+        int slot = 1;
+        for (int i = 0; i < from.length; i++) {
+            Type t = Type.getType(from[i]);
+            mv.visitVarInsn(t.getOpcode(ILOAD), slot);
+            slot += t.getSize();
+            convert(from[i], to[i]);
+        }
+
+        mv.visitMethodInsn(INVOKEVIRTUAL, className, sam.getName(), Type.getMethodDescriptor(sam), false);
+        convert(sam.getReturnType(), bridge.getReturnType());
+        mv.visitInsn(Type.getType(bridge.getReturnType()).getOpcode(IRETURN));
+
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    private Class<?> emitBody(LambdaExpression<?> lambda) {
+        List<Expression> locals = lambda.getLocals();
+        int base = lambda.getParameters().size();
+        for (int i = 0; i < locals.size(); i++) {
+            Expression local = locals.get(i);
+            if (local != null)
+                scope[base + i] = store(local.accept(this));
+        }
+
+        return lambda.getBody().accept(this);
+    }
+
+    private Binding store(Class<?> type) {
+        if (type == Void.TYPE)
+            throw new UnsupportedOperationException("void local");
+        Type t = Type.getType(type);
+        int slot = nextLocal;
+        nextLocal += t.getSize();
+        mv.visitVarInsn(t.getOpcode(ISTORE), slot);
+        return new Binding(slot, type);
+    }
+
+    // ---------------------------------------------------------------- visitor
+
+    @Override
+    public Class<?> visit(BinaryExpression e) {
+        switch (e.getExpressionType()) {
+        case ExpressionType.LogicalAnd:
+        case ExpressionType.LogicalOr:
+        case ExpressionType.Equal:
+        case ExpressionType.NotEqual:
+        case ExpressionType.GreaterThan:
+        case ExpressionType.GreaterThanOrEqual:
+        case ExpressionType.LessThan:
+        case ExpressionType.LessThanOrEqual:
+        case ExpressionType.InstanceOf:
+            return convert(emitBoolean(e), e.getResultType());
+
+        case ExpressionType.Conditional:
+            return emitConditional(e);
+
+        case ExpressionType.Coalesce: {
+            Class<?> type = accessible(e.getResultType());
+            Label end = new Label();
+            convert(e.getFirst().accept(this), type);
+            mv.visitInsn(DUP);
+            mv.visitJumpInsn(IFNONNULL, end);
+            mv.visitInsn(POP);
+            convert(e.getSecond().accept(this), type);
+            mv.visitLabel(end);
+            return type;
+        }
+
+        case ExpressionType.ArrayIndex: {
+            Class<?> array = e.getFirst().accept(this);
+            if (!array.isArray()) {
+                convert(e.getSecond().accept(this), Integer.TYPE);
+                mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(Array.class), "get",
+                        "(Ljava/lang/Object;I)Ljava/lang/Object;", false);
+                return Object.class;
+            }
+            convert(e.getSecond().accept(this), Integer.TYPE);
+            Class<?> component = array.getComponentType();
+            mv.visitInsn(Type.getType(component).getOpcode(IALOAD));
+            return component;
+        }
+
+        default:
+            return emitArithmetic(e);
+        }
+    }
+
+    @Override
+    public Class<?> visit(ConstantExpression e) {
+        Object value = e.getValue();
+        Class<?> type = e.getResultType();
+
+        if (value == null) {
+            if (type.isPrimitive())
+                throw new UnsupportedOperationException("null " + type);
+            mv.visitInsn(ACONST_NULL);
+            return accessible(type);
+        }
+
+        if (type.isPrimitive()) {
+            pushPrimitive(value, type);
+            return type;
+        }
+
+        if (value instanceof String && type.isAssignableFrom(String.class)) {
+            mv.visitLdcInsn(value);
+            return String.class;
+        }
+
+        if (!type.isInstance(value))
+            throw new UnsupportedOperationException(value + " is not " + type);
+
+        return loadConstant(value, type);
+    }
+
+    @Override
+    public Class<?> visit(InvocationExpression e) {
+        return emitInvocation(e.getTarget(), e.getArguments());
+    }
+
+    @Override
+    public Class<?> visit(LambdaExpression<?> e) {
+        throw new UnsupportedOperationException("lambda as a value: " + e);
+    }
+
+    @Override
+    public Class<?> visit(DelegateExpression e) {
+        throw new UnsupportedOperationException("delegate as a value: " + e);
+    }
+
+    @Override
+    public Class<?> visit(MemberExpression e) {
+        if (e.getExpressionType() != ExpressionType.FieldAccess)
+            throw new UnsupportedOperationException("method reference as a value: " + e);
+
+        Field field = (Field) e.getMember();
+        Expression instance = e.getInstance();
+        Class<?> declaring = field.getDeclaringClass();
+        boolean isStatic = Modifier.isStatic(field.getModifiers());
+
+        if (Modifier.isPublic(field.getModifiers()) && isAccessible(declaring) && isVisible(field.getType())) {
+            if (!isStatic)
+                convert(instance.accept(this), declaring);
+            mv.visitFieldInsn(isStatic ? GETSTATIC : GETFIELD, Type.getInternalName(declaring), field.getName(),
+                    Type.getDescriptor(field.getType()));
+            return accessible(field.getType());
+        }
+
+        MethodHandle getter;
+        try {
+            getter = lookup().unreflectGetter(makeAccessible(field));
+        } catch (IllegalAccessException | RuntimeException ex) {
+            throw new UnsupportedOperationException("cannot access " + field, ex);
+        }
+
+        return invokeHandle(getter, isStatic ? null : instance, new Class<?>[0], null);
+    }
+
+    @Override
+    public Class<?> visit(ParameterExpression e) {
+        Binding binding = e.getIndex() < scope.length ? scope[e.getIndex()] : null;
+        if (binding == null)
+            throw new UnsupportedOperationException("unbound parameter " + e);
+
+        if (binding.constant != null)
+            return binding.constant.accept(this);
+
+        mv.visitVarInsn(Type.getType(binding.type).getOpcode(ILOAD), binding.slot);
+        return binding.type;
+    }
+
+    @Override
+    public Class<?> visit(UnaryExpression e) {
+        switch (e.getExpressionType()) {
+        case ExpressionType.Convert:
+            return convert(e.getFirst().accept(this), e.getResultType());
+
+        case ExpressionType.IsNull:
+        case ExpressionType.IsNonNull:
+        case ExpressionType.LogicalNot:
+            return convert(emitBoolean(e), e.getResultType());
+
+        case ExpressionType.ArrayLength: {
+            Class<?> array = e.getFirst().accept(this);
+            if (array.isArray())
+                mv.visitInsn(ARRAYLENGTH);
+            else
+                mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(Array.class), "getLength",
+                        "(Ljava/lang/Object;)I", false);
+            return Integer.TYPE;
+        }
+
+        case ExpressionType.Negate:
+        case ExpressionType.BitwiseNot: {
+            Class<?> type = e.getResultType();
+            boolean negate = e.getExpressionType() == ExpressionType.Negate;
+            if (type == BigInteger.class || type == BigDecimal.class) {
+                convert(e.getFirst().accept(this), type);
+                String name = Type.getInternalName(type);
+                mv.visitMethodInsn(INVOKEVIRTUAL, name, negate ? "negate" : "not", "()L" + name + ";", false);
+                return type;
+            }
+
+            Class<?> primitive = operationType(type);
+            convert(e.getFirst().accept(this), primitive);
+            if (negate) {
+                mv.visitInsn(Type.getType(primitive).getOpcode(INEG));
+            } else if (primitive == Long.TYPE) {
+                mv.visitLdcInsn(-1L);
+                mv.visitInsn(LXOR);
+            } else {
+                mv.visitInsn(ICONST_M1);
+                mv.visitInsn(IXOR);
+            }
+            return convert(primitive, type);
+        }
+
+        default:
+            throw new UnsupportedOperationException(ExpressionType.toString(e.getExpressionType()));
+        }
+    }
+
+    @Override
+    public Class<?> visit(BlockExpression e) {
+        List<Expression> expressions = e.getExpressions();
+        Class<?> result = Void.TYPE;
+        for (int i = 0; i < expressions.size(); i++) {
+            if (i > 0)
+                pop(result);
+            result = expressions.get(i).accept(this);
+        }
+
+        if (e.getResultType() == Void.TYPE) {
+            pop(result);
+            return Void.TYPE;
+        }
+
+        return result;
+    }
+
+    @Override
+    public Class<?> visit(LoopExpression e) {
+        // the loop variables are frame slots assigned in place
+        throw new UnsupportedOperationException("loop");
+    }
+
+    @Override
+    public Class<?> visit(SwitchExpression e) {
+        Class<?> type = e.getResultType();
+        if (!type.isPrimitive())
+            type = accessible(type);
+
+        convert(e.getSwitchValue().accept(this), Integer.TYPE);
+
+        // cases sharing a label share the code
+        Map<Expression, Label> caseLabels = new IdentityHashMap<>();
+        List<Expression> cases = new ArrayList<>();
+        TreeMap<Integer, Label> targets = new TreeMap<>();
+        for (int i = 0; i < e.getKeys().size(); i++) {
+            Expression c = e.getCases().get(i);
+            Label label = caseLabels.get(c);
+            if (label == null) {
+                label = new Label();
+                caseLabels.put(c, label);
+                cases.add(c);
+            }
+            targets.put(e.getKeys().get(i), label);
+        }
+
+        Label dflt = new Label();
+        Label end = new Label();
+        if (!targets.isEmpty() && Interpreter.isDense(targets.firstKey(), targets.lastKey(), targets.size())) {
+            int min = targets.firstKey();
+            Label[] table = new Label[targets.lastKey() - min + 1];
+            Arrays.fill(table, dflt);
+            for (Map.Entry<Integer, Label> target : targets.entrySet())
+                table[target.getKey() - min] = target.getValue();
+            mv.visitTableSwitchInsn(min, targets.lastKey(), dflt, table);
+        } else {
+            int[] keys = targets.keySet().stream().mapToInt(Integer::intValue).toArray();
+            mv.visitLookupSwitchInsn(dflt, keys, targets.values().toArray(new Label[0]));
+        }
+
+        for (Expression c : cases) {
+            mv.visitLabel(caseLabels.get(c));
+            convert(c.accept(this), type);
+            mv.visitJumpInsn(GOTO, end);
+        }
+        mv.visitLabel(dflt);
+        convert(e.getDefaultCase().accept(this), type);
+        mv.visitLabel(end);
+        return type;
+    }
+
+    @Override
+    public Class<?> visit(NewArrayInitExpression e) {
+        Class<?> component = e.getComponentType();
+        if (!isAccessible(component))
+            throw new UnsupportedOperationException("array of " + component);
+
+        List<Expression> initializers = e.getInitializers();
+        pushInt(initializers.size());
+        if (component.isPrimitive())
+            mv.visitIntInsn(NEWARRAY, newArrayOperand(component));
+        else
+            mv.visitTypeInsn(ANEWARRAY, Type.getInternalName(component));
+
+        for (int i = 0; i < initializers.size(); i++) {
+            Expression initializer = initializers.get(i);
+            if (initializer == null)
+                continue;
+            mv.visitInsn(DUP);
+            pushInt(i);
+            convert(initializer.accept(this), component);
+            mv.visitInsn(Type.getType(component).getOpcode(IASTORE));
+        }
+
+        return e.getResultType();
+    }
+
+    // ------------------------------------------------------------ invocations
+
+    private Class<?> emitInvocation(InvocableExpression target,
+                                    List<Expression> arguments) {
+        switch (target.getExpressionType()) {
+        case ExpressionType.Lambda:
+            return inline((LambdaExpression<?>) target, arguments);
+
+        case ExpressionType.Delegate:
+            return emitInvocation(resolveDelegate((DelegateExpression) target), arguments);
+
+        case ExpressionType.FieldAccess:
+            return target.accept(this);
+
+        case ExpressionType.MethodAccess:
+        case ExpressionType.New:
+            return emitCall((MemberExpression) target, arguments);
+
+        default:
+            throw new UnsupportedOperationException(ExpressionType.toString(target.getExpressionType()));
+        }
+    }
+
+    /**
+     * Delegates are produced for captured functional arguments. They are resolvable at compile time when the delegate
+     * is bound to a constant {@link InvocableExpression}.
+     */
+    private InvocableExpression resolveDelegate(DelegateExpression e) {
+        Expression delegate = e.getDelegate();
+        if (delegate.getExpressionType() == ExpressionType.Parameter) {
+            int index = ((ParameterExpression) delegate).getIndex();
+            Binding binding = index < scope.length ? scope[index] : null;
+            if (binding != null && binding.constant != null)
+                delegate = binding.constant;
+        }
+
+        if (delegate.getExpressionType() == ExpressionType.Constant) {
+            Object value = ((ConstantExpression) delegate).getValue();
+            if (value instanceof InvocableExpression)
+                return (InvocableExpression) value;
+        }
+
+        throw new UnsupportedOperationException("unresolved delegate " + e);
+    }
+
+    private Class<?> inline(LambdaExpression<?> lambda,
+                            List<Expression> arguments) {
+        List<ParameterExpression> params = lambda.getParameters();
+        Binding[] inner = new Binding[params.size() + lambda.getLocals().size()];
+
+        Binding[] bound = new Binding[arguments.size()];
+        Class<?>[] types = new Class<?>[arguments.size()];
+        for (ParameterExpression p : params)
+            types[p.getIndex()] = p.getResultType();
+
+        for (int i = 0; i < bound.length; i++) {
+            Expression argument = arguments.get(i);
+            if (argument.getExpressionType() == ExpressionType.Constant) {
+                bound[i] = new Binding(argument);
+                continue;
+            }
+            Class<?> type = argument.accept(this);
+            if (types[i] == null)
+                pop(type);
+            else
+                bound[i] = store(convert(type, types[i]));
+        }
+
+        for (ParameterExpression p : params)
+            inner[p.getIndex()] = bound[p.getIndex()];
+
+        Binding[] outer = scope;
+        scope = inner;
+        try {
+            return emitBody(lambda);
+        } finally {
+            scope = outer;
+        }
+    }
+
+    private Class<?> emitCall(MemberExpression e,
+                              List<Expression> arguments) {
+        Member member = e.getMember();
+        Expression instance = e.getInstance();
+        boolean isCtor = member instanceof Constructor<?>;
+        boolean isStatic = !isCtor && Modifier.isStatic(member.getModifiers());
+        Class<?>[] parameterTypes = isCtor ? ((Constructor<?>) member).getParameterTypes()
+                : ((Method) member).getParameterTypes();
+        Class<?> returnType = isCtor ? member.getDeclaringClass() : ((Method) member).getReturnType();
+
+        Class<?> owner = member.getDeclaringClass();
+        boolean direct = Modifier.isPublic(member.getModifiers()) && isVisible(returnType);
+        for (Class<?> parameterType : parameterTypes)
+            direct &= isAccessible(parameterType);
+        if (direct && !isAccessible(owner)) {
+            // public method inherited from a non public class
+            direct = !isCtor && !isStatic && isAccessible(instance.getResultType())
+                    && owner.isAssignableFrom(instance.getResultType());
+            if (direct)
+                owner = instance.getResultType();
+        }
+
+        if (!direct) {
+            MethodHandle handle;
+            try {
+                handle = isCtor ? lookup().unreflectConstructor(makeAccessible((Constructor<?>) member))
+                        : lookup().unreflect(makeAccessible((Method) member));
+            } catch (IllegalAccessException | RuntimeException ex) {
+                throw new UnsupportedOperationException("cannot access " + member, ex);
+            }
+            return invokeHandle(handle, isStatic || isCtor ? null : instance, parameterTypes, arguments);
+        }
+
+        String ownerName = Type.getInternalName(owner);
+        if (isCtor) {
+            mv.visitTypeInsn(NEW, ownerName);
+            mv.visitInsn(DUP);
+        } else if (!isStatic) {
+            convert(instance.accept(this), owner);
+        }
+
+        emitArguments(parameterTypes, arguments);
+
+        if (isCtor)
+            mv.visitMethodInsn(INVOKESPECIAL, ownerName, "<init>", Type.getConstructorDescriptor((Constructor<?>) member),
+                    false);
+        else
+            mv.visitMethodInsn(isStatic ? INVOKESTATIC : owner.isInterface() ? INVOKEINTERFACE : INVOKEVIRTUAL,
+                    ownerName, member.getName(), Type.getMethodDescriptor((Method) member), owner.isInterface());
+
+        return returnType.isPrimitive() ? returnType : accessible(returnType);
+    }
+
+    private void emitArguments(Class<?>[] parameterTypes,
+                               List<Expression> arguments) {
+        for (int i = 0; i < parameterTypes.length; i++)
+            convert(arguments.get(i).accept(this), parameterTypes[i]);
+    }
+
+    /**
+     * Invokes a member the generated class cannot link against through a {@link MethodHandle} adapted to accessible
+     * types.
+     */
+    private Class<?> invokeHandle(MethodHandle handle,
+                                  Expression instance,
+                                  Class<?>[] parameterTypes,
+                                  List<Expression> arguments) {
+        MethodType type = handle.type();
+        Class<?>[] erased = new Class<?>[type.parameterCount()];
+        for (int i = 0; i < erased.length; i++)
+            erased[i] = accessible(type.parameterType(i));
+        Class<?> returnType = accessible(type.returnType());
+        MethodType erasedType = MethodType.methodType(returnType, erased);
+
+        loadConstant(handle.asType(erasedType), MethodHandle.class);
+
+        int i = 0;
+        if (instance != null)
+            convert(instance.accept(this), erased[i++]);
+        if (arguments != null)
+            for (int j = 0; j < parameterTypes.length; j++)
+                convert(arguments.get(j).accept(this), erased[i++]);
+
+        mv.visitMethodInsn(INVOKEVIRTUAL, Type.getInternalName(MethodHandle.class), "invokeExact",
+                erasedType.toMethodDescriptorString(), false);
+
+        return returnType;
+    }
+
+    private static MethodHandles.Lookup lookup() {
+        return MethodHandles.lookup();
+    }
+
+    private static <T extends AccessibleObject & Member> T makeAccessible(T member) {
+        if (!Modifier.isPublic(member.getModifiers()) || !Modifier.isPublic(member.getDeclaringClass().getModifiers()))
+            member.setAccessible(true);
+        return member;
+    }
+
+    // ---------------------------------------------------------------- boolean
+
+    private Class<?> emitBoolean(Expression e) {
+        Label isFalse = new Label();
+        Label end = new Label();
+        emitJump(e, false, isFalse);
+        mv.visitInsn(ICONST_1);
+        mv.visitJumpInsn(GOTO, end);
+        mv.visitLabel(isFalse);
+        mv.visitInsn(ICONST_0);
+        mv.visitLabel(end);
+        return Boolean.TYPE;
+    }
+
+    /**
+     * Emits a jump to {@code target} taken when the boolean expression evaluates to {@code when}.
+     */
+    private void emitJump(Expression e,
+                          boolean when,
+                          Label target) {
+        switch (e.getExpressionType()) {
+        case ExpressionType.LogicalAnd:
+        case ExpressionType.LogicalOr: {
+            BinaryExpression be = (BinaryExpression) e;
+            boolean shortCircuit = e.getExpressionType() == ExpressionType.LogicalOr;
+            if (when == shortCircuit) {
+                emitJump(be.getFirst(), when, target);
+                emitJump(be.getSecond(), when, target);
+            } else {
+                Label skip = new Label();
+                emitJump(be.getFirst(), !when, skip);
+                emitJump(be.getSecond(), when, target);
+                mv.visitLabel(skip);
+            }
+            return;
+        }
+
+        case ExpressionType.LogicalNot:
+            emitJump(((UnaryExpression) e).getFirst(), !when, target);
+            return;
+
+        case ExpressionType.IsNull:
+        case ExpressionType.IsNonNull:
+            boolean isNull = e.getExpressionType() == ExpressionType.IsNull;
+            convert(((UnaryExpression) e).getFirst().accept(this), Object.class);
+            mv.visitJumpInsn(isNull == when ? IFNULL : IFNONNULL, target);
+            return;
+
+        case ExpressionType.Equal:
+        case ExpressionType.NotEqual:
+        case ExpressionType.GreaterThan:
+        case ExpressionType.GreaterThanOrEqual:
+        case ExpressionType.LessThan:
+        case ExpressionType.LessThanOrEqual:
+            emitComparison((BinaryExpression) e, when, target);
+            return;
+
+        case ExpressionType.InstanceOf:
+            emitInstanceOf((BinaryExpression) e);
+            break;
+
+        case ExpressionType.Constant:
+            Object value = ((ConstantExpression) e).getValue();
+            if (value instanceof Boolean) {
+                if ((Boolean) value == when)
+                    mv.visitJumpInsn(GOTO, target);
+                return;
+            }
+            convert(e.accept(this), Boolean.TYPE);
+            break;
+
+        default:
+            convert(e.accept(this), Boolean.TYPE);
+            break;
+        }
+
+        mv.visitJumpInsn(when ? IFNE : IFEQ, target);
+    }
+
+    private void emitInstanceOf(BinaryExpression e) {
+        Expression second = e.getSecond();
+        if (second.getExpressionType() != ExpressionType.Constant
+                || !(((ConstantExpression) second).getValue() instanceof Class<?>))
+            throw new UnsupportedOperationException("instanceof " + second);
+
+        Class<?> type = (Class<?>) ((ConstantExpression) second).getValue();
+        if (isAccessible(type)) {
+            convert(e.getFirst().accept(this), Object.class);
+            mv.visitTypeInsn(INSTANCEOF, Type.getInternalName(type));
+        } else {
+            loadConstant(type, Class.class);
+            convert(e.getFirst().accept(this), Object.class);
+            mv.visitMethodInsn(INVOKEVIRTUAL, Type.getInternalName(Class.class), "isInstance",
+                    "(Ljava/lang/Object;)Z", false);
+        }
+    }
+
+    private void emitComparison(BinaryExpression e,
+                                boolean when,
+                                Label target) {
+        int type = e.getExpressionType();
+        Class<?> first = e.getFirst().getResultType();
+        Class<?> second = e.getSecond().getResultType();
+        Class<?> firstPrimitive = unwrap(first);
+        Class<?> secondPrimitive = unwrap(second);
+
+        boolean isEquality = type == ExpressionType.Equal || type == ExpressionType.NotEqual;
+        int condition = condition(type, when);
+
+        if (firstPrimitive != null && secondPrimitive != null
+                && (!isEquality || first.isPrimitive() || second.isPrimitive())) {
+            Class<?> operation = promote(firstPrimitive, secondPrimitive);
+            convert(e.getFirst().accept(this), operation);
+            convert(e.getSecond().accept(this), operation);
+
+            if (operation == Integer.TYPE) {
+                mv.visitJumpInsn(condition + (IF_ICMPEQ - IFEQ), target);
+                return;
+            }
+
+            // NaN makes every ordered comparison false
+            boolean lessFamily = type == ExpressionType.LessThan || type == ExpressionType.LessThanOrEqual;
+            if (operation == Long.TYPE)
+                mv.visitInsn(LCMP);
+            else if (operation == Float.TYPE)
+                mv.visitInsn(lessFamily ? FCMPG : FCMPL);
+            else
+                mv.visitInsn(lessFamily ? DCMPG : DCMPL);
+            mv.visitJumpInsn(condition, target);
+            return;
+        }
+
+        if (isEquality) {
+            convert(e.getFirst().accept(this), Object.class);
+            convert(e.getSecond().accept(this), Object.class);
+            mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(Objects.class), "equals",
+                    "(Ljava/lang/Object;Ljava/lang/Object;)Z", false);
+            mv.visitJumpInsn((type == ExpressionType.Equal) == when ? IFNE : IFEQ, target);
+            return;
+        }
+
+        convert(e.getFirst().accept(this), Comparable.class);
+        convert(e.getSecond().accept(this), Object.class);
+        mv.visitMethodInsn(INVOKEINTERFACE, Type.getInternalName(Comparable.class), "compareTo",
+                "(Ljava/lang/Object;)I", true);
+        mv.visitJumpInsn(condition, target);
+    }
+
+    private static int condition(int expressionType,
+                                 boolean when) {
+        switch (expressionType) {
+        case ExpressionType.Equal:
+            return when ? IFEQ : IFNE;
+        case ExpressionType.NotEqual:
+            return when ? IFNE : IFEQ;
+        case ExpressionType.GreaterThan:
+            return when ? IFGT : IFLE;
+        case ExpressionType.GreaterThanOrEqual:
+            return when ? IFGE : IFLT;
+        case ExpressionType.LessThan:
+            return when ? IFLT : IFGE;
+        case ExpressionType.LessThanOrEqual:
+            return when ? IFLE : IFGT;
+        default:
+            throw new IllegalArgumentException(ExpressionType.toString(expressionType));
+        }
+    }
+
+    private Class<?> emitConditional(BinaryExpression e) {
+        Class<?> type = e.getResultType();
+        if (!type.isPrimitive())
+            type = accessible(type);
+
+        Label ifFalse = new Label();
+        Label end = new Label();
+        emitJump(e.getOperator(), false, ifFalse);
+        convert(e.getFirst().accept(this), type);
+        mv.visitJumpInsn(GOTO, end);
+        mv.visitLabel(ifFalse);
+        convert(e.getSecond().accept(this), type);
+        mv.visitLabel(end);
+        return type;
+    }
+
+    // ------------------------------------------------------------- arithmetic
+
+    private Class<?> emitArithmetic(BinaryExpression e) {
+        int expressionType = e.getExpressionType();
+        Class<?> type = e.getResultType();
+        boolean isShift = expressionType == ExpressionType.LeftShift || expressionType == ExpressionType.RightShift;
+
+        if (type == BigInteger.class || type == BigDecimal.class) {
+            String method = bigMethod(expressionType, type);
+            String name = Type.getInternalName(type);
+            convert(e.getFirst().accept(this), type);
+            convert(e.getSecond().accept(this), isShift ? Integer.TYPE : type);
+            mv.visitMethodInsn(INVOKEVIRTUAL, name, method, "(" + (isShift ? "I" : "L" + name + ";") + ")L" + name + ";",
+                    false);
+            return type;
+        }
+
+        Class<?> operation = operationType(type);
+        convert(e.getFirst().accept(this), operation);
+        convert(e.getSecond().accept(this), isShift ? Integer.TYPE : operation);
+        mv.visitInsn(Type.getType(operation).getOpcode(arithmeticOpcode(expressionType, operation)));
+
+        return convert(operation, type);
+    }
+
+    private static int arithmeticOpcode(int expressionType,
+                                        Class<?> operation) {
+        boolean integral = operation == Integer.TYPE || operation == Long.TYPE;
+        switch (expressionType) {
+        case ExpressionType.Add:
+            return IADD;
+        case ExpressionType.Subtract:
+            return ISUB;
+        case ExpressionType.Multiply:
+            return IMUL;
+        case ExpressionType.Divide:
+            return IDIV;
+        case ExpressionType.Modulo:
+            return IREM;
+        }
+
+        if (integral) {
+            switch (expressionType) {
+            case ExpressionType.BitwiseAnd:
+                return IAND;
+            case ExpressionType.BitwiseOr:
+                return IOR;
+            case ExpressionType.ExclusiveOr:
+                return IXOR;
+            case ExpressionType.LeftShift:
+                return ISHL;
+            case ExpressionType.RightShift:
+                return ISHR;
+            }
+        }
+
+        throw new UnsupportedOperationException(ExpressionType.toString(expressionType) + " on " + operation);
+    }
+
+    private static String bigMethod(int expressionType,
+                                    Class<?> type) {
+        switch (expressionType) {
+        case ExpressionType.Add:
+            return "add";
+        case ExpressionType.Subtract:
+            return "subtract";
+        case ExpressionType.Multiply:
+            return "multiply";
+        case ExpressionType.Divide:
+            return "divide";
+        }
+
+        if (type == BigInteger.class) {
+            switch (expressionType) {
+            case ExpressionType.Modulo:
+                return "mod";
+            case ExpressionType.BitwiseAnd:
+                return "and";
+            case ExpressionType.BitwiseOr:
+                return "or";
+            case ExpressionType.ExclusiveOr:
+                return "xor";
+            case ExpressionType.LeftShift:
+                return "shiftLeft";
+            case ExpressionType.RightShift:
+                return "shiftRight";
+            }
+        }
+
+        throw new UnsupportedOperationException(ExpressionType.toString(expressionType) + " on " + type);
+    }
+
+    /**
+     * @return the JVM computational type of a primitive or boxed type.
+     */
+    private static Class<?> operationType(Class<?> type) {
+        Class<?> primitive = unwrap(type);
+        if (primitive == null)
+            throw new UnsupportedOperationException("not a primitive: " + type);
+        if (primitive == Long.TYPE || primitive == Float.TYPE || primitive == Double.TYPE)
+            return primitive;
+        return Integer.TYPE;
+    }
+
+    private static Class<?> promote(Class<?> first,
+                                    Class<?> second) {
+        if (first == Double.TYPE || second == Double.TYPE)
+            return Double.TYPE;
+        if (first == Float.TYPE || second == Float.TYPE)
+            return Float.TYPE;
+        if (first == Long.TYPE || second == Long.TYPE)
+            return Long.TYPE;
+        return Integer.TYPE;
+    }
+
+    // ------------------------------------------------------------ conversions
+
+    /**
+     * Converts the value on top of the stack.
+     *
+     * @return the type of the value on the stack after the conversion.
+     */
+    private Class<?> convert(Class<?> from,
+                             Class<?> to) {
+        if (from == to)
+            return to;
+
+        if (to == Void.TYPE) {
+            pop(from);
+            return to;
+        }
+
+        if (from == Void.TYPE) {
+            if (to.isPrimitive())
+                throw new UnsupportedOperationException("void to " + to);
+            mv.visitInsn(ACONST_NULL);
+            return accessible(to);
+        }
+
+        if (from.isPrimitive()) {
+            if (to.isPrimitive()) {
+                convertPrimitive(from, to);
+                return to;
+            }
+            Class<?> primitive = unwrap(to);
+            if (primitive != null) {
+                convertPrimitive(from, primitive);
+                box(primitive);
+                return to;
+            }
+            box(from);
+            return convert(wrap(from), to);
+        }
+
+        if (to.isPrimitive()) {
+            Class<?> primitive = unwrap(from);
+            if (primitive == null) {
+                if (to == Boolean.TYPE)
+                    primitive = Boolean.TYPE;
+                else if (to == Character.TYPE)
+                    primitive = Character.TYPE;
+                else {
+                    checkcast(Number.class);
+                    mv.visitMethodInsn(INVOKEVIRTUAL, Type.getInternalName(Number.class), to.getName() + "Value",
+                            "()" + Type.getDescriptor(to), false);
+                    return to;
+                }
+                checkcast(wrap(primitive));
+            }
+            unbox(primitive);
+            convertPrimitive(primitive, to);
+            return to;
+        }
+
+        Class<?> target = accessible(to);
+        if (target.isAssignableFrom(from))
+            return from;
+        checkcast(target);
+        return target;
+    }
+
+    private void convertPrimitive(Class<?> from,
+                                  Class<?> to) {
+        if (from == to)
+            return;
+
+        Class<?> source = operationType(from);
+        Class<?> target = operationType(to);
+
+        if (source != target) {
+            if (source == Integer.TYPE)
+                mv.visitInsn(target == Long.TYPE ? I2L : target == Float.TYPE ? I2F : I2D);
+            else if (source == Long.TYPE)
+                mv.visitInsn(target == Integer.TYPE ? L2I : target == Float.TYPE ? L2F : L2D);
+            else if (source == Float.TYPE)
+                mv.visitInsn(target == Integer.TYPE ? F2I : target == Long.TYPE ? F2L : F2D);
+            else
+                mv.visitInsn(target == Integer.TYPE ? D2I : target == Long.TYPE ? D2L : D2F);
+        }
+
+        if (to == Byte.TYPE)
+            mv.visitInsn(I2B);
+        else if (to == Short.TYPE)
+            mv.visitInsn(I2S);
+        else if (to == Character.TYPE)
+            mv.visitInsn(I2C);
+    }
+
+    private void box(Class<?> primitive) {
+        Class<?> wrapper = wrap(primitive);
+        mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(wrapper), "valueOf",
+                "(" + Type.getDescriptor(primitive) + ")" + Type.getDescriptor(wrapper), false);
+    }
+
+    private void unbox(Class<?> primitive) {
+        mv.visitMethodInsn(INVOKEVIRTUAL, Type.getInternalName(wrap(primitive)), primitive.getName() + "Value",
+                "()" + Type.getDescriptor(primitive), false);
+    }
+
+    private void checkcast(Class<?> type) {
+        if (type != Object.class)
+            mv.visitTypeInsn(CHECKCAST, Type.getInternalName(type));
+    }
+
+    private void pop(Class<?> type) {
+        if (type == Void.TYPE)
+            return;
+        mv.visitInsn(Type.getType(type).getSize() == 2 ? POP2 : POP);
+    }
+
+    private static final Class<?>[] primitives = { Boolean.TYPE, Byte.TYPE, Character.TYPE, Short.TYPE, Integer.TYPE,
+            Long.TYPE, Float.TYPE, Double.TYPE };
+    private static final Class<?>[] wrappers = { Boolean.class, Byte.class, Character.class, Short.class,
+            Integer.class, Long.class, Float.class, Double.class };
+
+    private static Class<?> wrap(Class<?> primitive) {
+        for (int i = 0; i < primitives.length; i++)
+            if (primitives[i] == primitive)
+                return wrappers[i];
+        return primitive;
+    }
+
+    /**
+     * @return the primitive type of a primitive or wrapper type, otherwise {@code null}.
+     */
+    private static Class<?> unwrap(Class<?> type) {
+        if (type.isPrimitive())
+            return type == Void.TYPE ? null : type;
+        for (int i = 0; i < wrappers.length; i++)
+            if (wrappers[i] == type)
+                return primitives[i];
+        return null;
+    }
+
+    // -------------------------------------------------------------- constants
+
+    private void pushPrimitive(Object value,
+                               Class<?> type) {
+        Class<?> operation = operationType(type);
+        if (operation == Integer.TYPE) {
+            int i = value instanceof Boolean ? ((Boolean) value ? 1 : 0)
+                    : value instanceof Character ? (Character) value : ((Number) value).intValue();
+            pushInt(i);
+        } else {
+            Number n = value instanceof Character ? (int) (Character) value : (Number) value;
+            if (operation == Long.TYPE)
+                mv.visitLdcInsn(n.longValue());
+            else if (operation == Float.TYPE)
+                mv.visitLdcInsn(n.floatValue());
+            else
+                mv.visitLdcInsn(n.doubleValue());
+        }
+    }
+
+    private void pushInt(int i) {
+        if (i >= -1 && i <= 5)
+            mv.visitInsn(ICONST_0 + i);
+        else if (i >= Byte.MIN_VALUE && i <= Byte.MAX_VALUE)
+            mv.visitIntInsn(BIPUSH, i);
+        else if (i >= Short.MIN_VALUE && i <= Short.MAX_VALUE)
+            mv.visitIntInsn(SIPUSH, i);
+        else
+            mv.visitLdcInsn(i);
+    }
+
+    private Class<?> loadConstant(Object value,
+                                  Class<?> type) {
+        Integer index = constantIndices.get(value);
+        if (index == null) {
+            index = constants.size();
+            constants.add(value);
+            constantTypes.add(accessible(type));
+            constantIndices.put(value, index);
+            writer.visitField(ACC_PRIVATE | ACC_FINAL, constantName(index), Type.getDescriptor(accessible(type)), null,
+                    null).visitEnd();
+        }
+
+        Class<?> fieldType = constantTypes.get(index);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitFieldInsn(GETFIELD, className, constantName(index), Type.getDescriptor(fieldType));
+        return convert(fieldType, type);
+    }
+
+    private static String constantName(int index) {
+        return "c" + index;
+    }
+
+    private static int newArrayOperand(Class<?> component) {
+        if (component == Boolean.TYPE)
+            return T_BOOLEAN;
+        if (component == Character.TYPE)
+            return T_CHAR;
+        if (component == Float.TYPE)
+            return T_FLOAT;
+        if (component == Double.TYPE)
+            return T_DOUBLE;
+        if (component == Byte.TYPE)
+            return T_BYTE;
+        if (component == Short.TYPE)
+            return T_SHORT;
+        if (component == Integer.TYPE)
+            return T_INT;
+        return T_LONG;
+    }
+
+    /**
+     * Collects the classes a tree refers to, so the generated class is defined in a loader that sees them.
+     */
+    private static final class TypeCollector implements ExpressionVisitor<Void> {
+        private final Set<Class<?>> types;
+
+        TypeCollector(Set<Class<?>> types) {
+            this.types = types;
+        }
+
+        private Void add(Expression e) {
+            types.add(e.getResultType());
+            return null;
+        }
+
+        private void visit(List<? extends Expression> expressions) {
+            for (Expression e : expressions)
+                if (e != null)
+                    e.accept(this);
+        }
+
+        @Override
+        public Void visit(BinaryExpression e) {
+            if (e.getOperator() != null)
+                e.getOperator().accept(this);
+            e.getFirst().accept(this);
+            e.getSecond().accept(this);
+            return add(e);
+        }
+
+        @Override
+        public Void visit(ConstantExpression e) {
+            Object value = e.getValue();
+            if (value instanceof InvocableExpression)
+                ((InvocableExpression) value).accept(this);
+            return add(e);
+        }
+
+        @Override
+        public Void visit(InvocationExpression e) {
+            e.getTarget().accept(this);
+            visit(e.getArguments());
+            return add(e);
+        }
+
+        @Override
+        public Void visit(LambdaExpression<?> e) {
+            e.getBody().accept(this);
+            visit(e.getLocals());
+            visit(e.getParameters());
+            return add(e);
+        }
+
+        @Override
+        public Void visit(DelegateExpression e) {
+            e.getDelegate().accept(this);
+            return add(e);
+        }
+
+        @Override
+        public Void visit(MemberExpression e) {
+            if (e.getInstance() != null)
+                e.getInstance().accept(this);
+            types.add(e.getMember().getDeclaringClass());
+            visit(e.getParameters());
+            return add(e);
+        }
+
+        @Override
+        public Void visit(ParameterExpression e) {
+            return add(e);
+        }
+
+        @Override
+        public Void visit(UnaryExpression e) {
+            e.getFirst().accept(this);
+            return add(e);
+        }
+
+        @Override
+        public Void visit(BlockExpression e) {
+            visit(e.getExpressions());
+            return add(e);
+        }
+
+        @Override
+        public Void visit(NewArrayInitExpression e) {
+            visit(e.getInitializers());
+            return add(e);
+        }
+
+        @Override
+        public Void visit(LoopExpression e) {
+            e.getTest().accept(this);
+            visit(e.getBody());
+            return add(e);
+        }
+
+        @Override
+        public Void visit(SwitchExpression e) {
+            e.getSwitchValue().accept(this);
+            visit(e.getCases());
+            e.getDefaultCase().accept(this);
+            return add(e);
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package co.streamx.fluent.extree.expression;
+
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.objectweb.asm.Type;
+
+/**
+ * Hoists repeated side effect free subtrees of a lambda body into its locals, so they are evaluated once per call. The
+ * methods of {@link String}, boxed primitives and {@link Math} are side effect free, and so are the getters (methods
+ * named {@code get*}, {@code is*} or {@code has*}) whose bytecode only returns a field of the declaring class. Any
+ * other method is assumed to have side effects. A subtree is hoisted if it occurs at least twice and at least once
+ * outside of a conditional branch or the right operand of a short-circuit operator, so evaluating it upfront never
+ * raises an error the lambda would not.
+ * <p>
+ * Lambdas with side effects, or with nested lambdas that capture the frame, are left as is.
+ * </p>
+ */
+
+final class CommonSubexpressionEliminator extends SimpleExpressionVisitor {
+
+    private static final ClassValue<Set<String>> fieldGetters = new ClassValue<>() {
+        @Override
+        protected Set<String> computeValue(Class<?> type) {
+            return GetterClassVisitor.findFieldGetters(type);
+        }
+    };
+
+    @SuppressWarnings("unchecked")
+    static <F> LambdaExpression<F> eliminate(LambdaExpression<F> lambda) {
+        return (LambdaExpression<F>) lambda.accept(new CommonSubexpressionEliminator());
+    }
+
+    @Override
+    public Expression visit(LambdaExpression<?> e) {
+        LambdaExpression<?> visited = (LambdaExpression<?>) super.visit(e);
+        if (!isPure(visited.getBody()))
+            return visited;
+
+        Expression body = visited.getBody();
+        List<Expression> locals = new ArrayList<>(visited.getLocals());
+        int base = visited.getParameters().size();
+
+        for (Expression common; (common = findCommon(body)) != null;) {
+            ParameterExpression local = Expression.parameter(common.getResultType(), base + locals.size());
+            Expression replaced = body.accept(new Replacer(common, local));
+            if (replaced == body)
+                break;
+            locals.add(common);
+            body = replaced;
+        }
+
+        if (body == visited.getBody())
+            return visited;
+
+        return Expression.lambda(visited.getResultType(), body, visited.getParameters(),
+                Collections.unmodifiableList(locals), visited.getKey());
+    }
+
+    /**
+     * @return the smallest repeated subtree that can be hoisted, or null.
+     */
+    private static Expression findCommon(Expression body) {
+        Map<Key, Occurrences> occurrences = new LinkedHashMap<>();
+        collect(body, true, occurrences);
+
+        Expression common = null;
+        int commonSize = Integer.MAX_VALUE;
+        for (Map.Entry<Key, Occurrences> entry : occurrences.entrySet()) {
+            Occurrences o = entry.getValue();
+            if (o.count > 1 && o.unconditional && entry.getKey().size < commonSize) {
+                common = entry.getKey().e;
+                commonSize = entry.getKey().size;
+            }
+        }
+        return common;
+    }
+
+    private static final class Occurrences {
+        private int count;
+        private boolean unconditional;
+    }
+
+    /**
+     * Records the candidate subtrees in the scope of the lambda. Invoked lambdas are separate scopes.
+     *
+     * @return true if the subtree accesses a member.
+     */
+    private static boolean collect(Expression e,
+                                   boolean unconditional,
+                                   Map<Key, Occurrences> occurrences) {
+        boolean access;
+        switch (e.getExpressionType()) {
+            case ExpressionType.Conditional:
+                BinaryExpression c = (BinaryExpression) e;
+                access = collect(c.getOperator(), unconditional, occurrences);
+                access |= collect(c.getFirst(), false, occurrences);
+                access |= collect(c.getSecond(), false, occurrences);
+                break;
+            case ExpressionType.LogicalAnd:
+            case ExpressionType.LogicalOr:
+                BinaryExpression l = (BinaryExpression) e;
+                access = collect(l.getFirst(), unconditional, occurrences);
+                access |= collect(l.getSecond(), false, occurrences);
+                break;
+            case ExpressionType.Invoke:
+                InvocationExpression i = (InvocationExpression) e;
+                access = i.getTarget() instanceof MemberExpression;
+                if (access) {
+                    Expression instance = ((MemberExpression) i.getTarget()).getInstance();
+                    if (instance != null)
+                        collect(instance, unconditional, occurrences);
+                }
+                for (Expression argument : i.getArguments())
+                    access |= collect(argument, unconditional, occurrences);
+                break;
+            case ExpressionType.Block:
+                access = false;
+                for (Expression s : ((BlockExpression) e).getExpressions())
+                    access |= collect(s, unconditional, occurrences);
+                break;
+            default:
+                if (e instanceof BinaryExpression) {
+                    BinaryExpression b = (BinaryExpression) e;
+                    access = collect(b.getFirst(), unconditional, occurrences);
+                    access |= collect(b.getSecond(), unconditional, occurrences);
+                } else if (e instanceof UnaryExpression) {
+                    access = collect(((UnaryExpression) e).getFirst(), unconditional, occurrences);
+                } else {
+                    return false;
+                }
+                break;
+        }
+
+        if (access && e.getExpressionType() != ExpressionType.Block && e.getResultType() != Void.TYPE) {
+            Occurrences o = occurrences.computeIfAbsent(new Key(e), k -> new Occurrences());
+            o.count++;
+            o.unconditional |= unconditional;
+        }
+
+        return access;
+    }
+
+    private static boolean isPure(Expression e) {
+        switch (e.getExpressionType()) {
+            case ExpressionType.Constant:
+            case ExpressionType.Parameter:
+                return true;
+            case ExpressionType.Invoke:
+                InvocationExpression i = (InvocationExpression) e;
+                for (Expression argument : i.getArguments())
+                    if (!isPure(argument))
+                        return false;
+                InvocableExpression target = i.getTarget();
+                switch (target.getExpressionType()) {
+                    case ExpressionType.Lambda:
+                        return isPure(((LambdaExpression<?>) target).getBody());
+                    case ExpressionType.FieldAccess:
+                    case ExpressionType.MethodAccess:
+                        MemberExpression m = (MemberExpression) target;
+                        return isPure(m.getMember()) && (m.getInstance() == null || isPure(m.getInstance()));
+                    default:
+                        return false;
+                }
+            case ExpressionType.Block:
+                for (Expression s : ((BlockExpression) e).getExpressions())
+                    if (!isPure(s))
+                        return false;
+                return true;
+            default:
+                if (e instanceof BinaryExpression) {
+                    BinaryExpression b = (BinaryExpression) e;
+                    return isPure(b.getFirst()) && isPure(b.getSecond())
+                            && (b.getOperator() == null || isPure(b.getOperator()));
+                }
+                if (e instanceof UnaryExpression)
+                    return isPure(((UnaryExpression) e).getFirst());
+                return false;
+        }
+    }
+
+    private static boolean isPure(Member m) {
+        if (!(m instanceof Method))
+            return true; // field read
+        Method method = (Method) m;
+        if (ConstantFolder.isPure(method))
+            return true;
+
+        String name = method.getName();
+        return (name.startsWith("get") || name.startsWith("is") || name.startsWith("has"))
+                && fieldGetters.get(method.getDeclaringClass())
+                        .contains(GetterClassVisitor.getterKey(name, Type.getMethodDescriptor(method)));
+    }
+
+    /**
+     * Replaces the subtrees equal to the hoisted one with the local. Does not enter invoked lambdas.
+     */
+    private static final class Replacer extends SimpleExpressionVisitor {
+        private final Expression common;
+        private final ParameterExpression local;
+
+        Replacer(Expression common,
+                 ParameterExpression local) {
+            this.common = common;
+            this.local = local;
+        }
+
+        private boolean matches(Expression e) {
+            return ExpressionComparer.equals(e, common);
+        }
+
+        @Override
+        public Expression visit(BinaryExpression e) {
+            return matches(e) ? local : super.visit(e);
+        }
+
+        @Override
+        public Expression visit(UnaryExpression e) {
+            return matches(e) ? local : super.visit(e);
+        }
+
+        @Override
+        public Expression visit(InvocationExpression e) {
+            return matches(e) ? local : super.visit(e);
+        }
+
+        @Override
+        public Expression visit(ConstantExpression e) {
+            return e;
+        }
+
+        @Override
+        public Expression visit(LambdaExpression<?> e) {
+            return e;
+        }
+    }
+
+    /**
+     * Structural identity of a subtree.
+     */
+    private static final class Key {
+        private final Expression e;
+        private final int size;
+
+        Key(Expression e) {
+            this.e = e;
+            this.size = size(e);
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(e.structuralHash());
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key && ExpressionComparer.equals(e, ((Key) obj).e);
+        }
+
+        private static int size(Expression e) {
+            if (e instanceof BinaryExpression) {
+                BinaryExpression b = (BinaryExpression) e;
+                return 1 + size(b.getFirst()) + size(b.getSecond())
+                        + (b.getOperator() != null ? size(b.getOperator()) : 0);
+            }
+            if (e instanceof UnaryExpression)
+                return 1 + size(((UnaryExpression) e).getFirst());
+            if (e instanceof InvocationExpression) {
+                InvocationExpression i = (InvocationExpression) e;
+                int size = 1;
+                if (i.getTarget() instanceof MemberExpression && ((MemberExpression) i.getTarget()).getInstance() != null)
+                    size += size(((MemberExpression) i.getTarget()).getInstance());
+                for (Expression argument : i.getArguments())
+                    size += size(argument);
+                return size;
+            }
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package co.streamx.fluent.extree.expression;
+
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Simplifies expression trees before they are compiled or translated:
+ * <ul>
+ * <li>operations and pure method calls over constants are replaced with their result</li>
+ * <li>conditionals and logical operators with a constant test are reduced to the taken branch</li>
+ * <li>chains of numeric conversions are collapsed when the intermediate conversion is lossless</li>
+ * </ul>
+ * Only constants of immutable value types take part in folding, so the result does not depend on when the tree is
+ * evaluated.
+ */
+
+final class ConstantFolder extends SimpleExpressionVisitor {
+
+    private static final Set<Class<?>> pureClasses = new HashSet<>(Arrays.asList(String.class, Boolean.class,
+            Character.class, Byte.class, Short.class, Integer.class, Long.class, Float.class, Double.class,
+            BigInteger.class, BigDecimal.class, Math.class, StrictMath.class));
+
+    // members of the pure classes that are not functions of their arguments
+    private static final Set<String> impureMethods = new HashSet<>(
+            Arrays.asList("random", "getInteger", "getLong", "getBoolean"));
+
+    private static final List<Class<?>> wideningOrder = Arrays.asList(Byte.TYPE, Short.TYPE, Integer.TYPE, Long.TYPE);
+
+    @SuppressWarnings("unchecked")
+    static <F> LambdaExpression<F> fold(LambdaExpression<F> lambda) {
+        return (LambdaExpression<F>) lambda.accept(new ConstantFolder());
+    }
+
+    @Override
+    public Expression visit(BinaryExpression e) {
+        Expression visited = super.visit(e);
+        if (visited.getExpressionType() != e.getExpressionType())
+            return visited;
+
+        BinaryExpression b = (BinaryExpression) visited;
+        Expression first = b.getFirst();
+        Expression second = b.getSecond();
+
+        switch (b.getExpressionType()) {
+            case ExpressionType.Conditional:
+                Object test = valueOf(b.getOperator());
+                if (test instanceof Boolean)
+                    return Expression.convert((Boolean) test ? first : second, b.getResultType());
+                return b;
+            case ExpressionType.LogicalAnd:
+                Object firstAnd = valueOf(first);
+                if (firstAnd instanceof Boolean)
+                    return (Boolean) firstAnd ? second : first;
+                return Boolean.TRUE.equals(valueOf(second)) ? first : b;
+            case ExpressionType.LogicalOr:
+                Object firstOr = valueOf(first);
+                if (firstOr instanceof Boolean)
+                    return (Boolean) firstOr ? first : second;
+                return Boolean.FALSE.equals(valueOf(second)) ? first : b;
+            case ExpressionType.ArrayIndex:
+                return b; // arrays are mutable
+            default:
+                return isValue(first) && isValue(second) ? evaluate(b) : b;
+        }
+    }
+
+    @Override
+    public Expression visit(UnaryExpression e) {
+        Expression visited = super.visit(e);
+        if (!(visited instanceof UnaryExpression))
+            return visited;
+
+        UnaryExpression u = (UnaryExpression) visited;
+        Expression operand = u.getFirst();
+
+        if (u.getExpressionType() == ExpressionType.Convert && operand.getExpressionType() == ExpressionType.Convert) {
+            Expression inner = ((UnaryExpression) operand).getFirst();
+            if (isLossless(inner.getResultType(), operand.getResultType()))
+                return Expression.convert(inner, u.getResultType());
+        }
+
+        if (u.getExpressionType() == ExpressionType.ArrayLength)
+            return u; // arrays are mutable
+
+        return isValue(operand) ? evaluate(u) : u;
+    }
+
+    @Override
+    public Expression visit(InvocationExpression e) {
+        if (e.getTarget().getExpressionType() == ExpressionType.Lambda)
+            e = bindConstants(e);
+
+        Expression visited = super.visit(e);
+        if (!(visited instanceof InvocationExpression))
+            return visited;
+
+        InvocationExpression invocation = (InvocationExpression) visited;
+        InvocableExpression target = invocation.getTarget();
+        if (target.getExpressionType() != ExpressionType.MethodAccess)
+            return invocation;
+
+        MemberExpression member = (MemberExpression) target;
+        if (!isPure(member.getMember()))
+            return invocation;
+
+        Expression instance = member.getInstance();
+        if (instance != null && !isValue(instance))
+            return invocation;
+
+        for (Expression argument : invocation.getArguments())
+            if (!isValue(argument))
+                return invocation;
+
+        return evaluate(invocation);
+    }
+
+    /**
+     * Partially evaluates the invoked lambda: its parameters with constant arguments, e.g. the captured values, are
+     * replaced with the constants.
+     */
+    private static InvocationExpression bindConstants(InvocationExpression e) {
+        LambdaExpression<?> target = (LambdaExpression<?>) e.getTarget();
+        List<ParameterExpression> params = target.getParameters();
+        List<Expression> arguments = e.getArguments();
+
+        Expression[] bound = new Expression[params.size()];
+        boolean any = false;
+        for (ParameterExpression p : params) {
+            int index = p.getIndex();
+            Expression argument = arguments.get(index);
+            if (isValue(argument)) {
+                Object value = ((ConstantExpression) argument).getValue();
+                bound[index] = Expression.constant(InterpreterAdapter.adapt(value, p.getResultType()),
+                        p.getResultType());
+                any = true;
+            }
+        }
+
+        if (!any)
+            return e;
+
+        ParameterBinder binder = new ParameterBinder(bound);
+        Expression body = target.getBody().accept(binder);
+        List<Expression> locals = binder.visitLocals(target.getLocals());
+        if (body == target.getBody() && locals == target.getLocals())
+            return e;
+
+        return Expression.invoke(Expression.lambda(target.getResultType(), body, params, locals, target.getKey()),
+                arguments);
+    }
+
+    static boolean isPure(Member m) {
+        return m instanceof Method && pureClasses.contains(m.getDeclaringClass())
+                && ((Method) m).getReturnType() != Void.TYPE && !impureMethods.contains(m.getName());
+    }
+
+    /**
+     * Widening conversions that preserve the exact value, so any conversion that follows depends on the value only.
+     */
+    private static boolean isLossless(Class<?> from,
+                                      Class<?> to) {
+        if (from == to)
+            return true;
+        if (!from.isPrimitive() || !to.isPrimitive())
+            return false;
+        if (to == Double.TYPE)
+            return from != Long.TYPE && from != Boolean.TYPE;
+        if (to == Float.TYPE)
+            return from == Byte.TYPE || from == Short.TYPE || from == Character.TYPE;
+        if (from == Character.TYPE)
+            return to == Integer.TYPE || to == Long.TYPE;
+
+        int fromOrder = wideningOrder.indexOf(from);
+        return fromOrder >= 0 && fromOrder < wideningOrder.indexOf(to);
+    }
+
+    private static Object valueOf(Expression e) {
+        return e != null && e.getExpressionType() == ExpressionType.Constant ? ((ConstantExpression) e).getValue()
+                : null;
+    }
+
+    private static boolean isValue(Expression e) {
+        if (e.getExpressionType() != ExpressionType.Constant)
+            return false;
+        Object value = ((ConstantExpression) e).getValue();
+        return value == null || pureClasses.contains(value.getClass()) || value instanceof Class
+                || value instanceof Enum;
+    }
+
+    private static Expression evaluate(Expression e) {
+        Object value;
+        try {
+            value = LambdaExpression.compile(e).apply(null);
+        } catch (RuntimeException ex) {
+            return e; // fails at runtime as well
+        }
+        return Expression.constant(InterpreterAdapter.adapt(value, e.getResultType()), e.getResultType());
+    }
+
+    /**
+     * Replaces the parameters of a lambda with bound expressions. Nested lambdas and member parameter lists have scopes
+     * of their own and are left as is.
+     */
+    private static final class ParameterBinder extends SimpleExpressionVisitor {
+
+        private final Expression[] bound;
+
+        ParameterBinder(Expression[] bound) {
+            this.bound = bound;
+        }
+
+        @Override
+        public Expression visit(ParameterExpression e) {
+            int index = e.getIndex();
+            return index < bound.length && bound[index] != null ? bound[index] : e;
+        }
+
+        @Override
+        public Expression visit(LambdaExpression<?> e) {
+            return e;
+        }
+
+        @Override
+        protected List<ParameterExpression> visitParameters(List<ParameterExpression> original) {
+            return original;
+        }
+    }
+}
@@ -10,9 +10,11 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.function.Supplier;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NonNull;
 
@@ -28,6 +30,12 @@ public abstract class Expression {
     private final int expressionType;
     private final Class<?> resultType;
 
+    // memoized structural hashes, 0 until computed
+    @Getter(AccessLevel.NONE)
+    private volatile long structuralHash;
+    @Getter(AccessLevel.NONE)
+    private volatile long shapeHash;
+
     static private final HashMap<Method, Class<?>> _boxers;
     static private final HashMap<Method, Class<?>> _unboxers;
 
@@ -279,7 +287,7 @@ public abstract class Expression {
                 throw new IllegalArgumentException(second.getResultType().toString());
         }
 
-        return new BinaryExpression(expressionType, Boolean.TYPE, null, first, second);
+        return ExpressionInterner.intern(new BinaryExpression(expressionType, Boolean.TYPE, null, first, second));
     }
 
     private static BinaryExpression createNumeric(int expressionType,
@@ -297,7 +305,8 @@ public abstract class Expression {
                 second = TypeConverter.convert(second, first.getResultType());
         }
 
-        return new BinaryExpression(expressionType, first.getResultType(), null, first, second);
+        return ExpressionInterner.intern(new BinaryExpression(expressionType, first.getResultType(), null, first,
+                second));
     }
 
     private static BinaryExpression createIntegral(int expressionType,
@@ -308,7 +317,8 @@ public abstract class Expression {
         if (!second.isIntegral())
             throw new IllegalArgumentException(second.getResultType().toString());
 
-        return new BinaryExpression(expressionType, first.getResultType(), null, first, second);
+        return ExpressionInterner.intern(new BinaryExpression(expressionType, first.getResultType(), null, first,
+                second));
     }
 
     /**
@@ -356,7 +366,8 @@ public abstract class Expression {
             throw new IllegalArgumentException(first.getResultType().toString());
         if (second.getResultType().isPrimitive())
             throw new IllegalArgumentException(second.getResultType().toString());
-        return new BinaryExpression(ExpressionType.Coalesce, first.getResultType(), null, first, second);
+        return ExpressionInterner.intern(new BinaryExpression(ExpressionType.Coalesce, first.getResultType(), null,
+                first, second));
     }
 
     /**
@@ -506,7 +517,7 @@ public abstract class Expression {
         if (!array.getResultType().isArray())
             throw new IllegalArgumentException(array.getResultType().toString());
 
-        return new UnaryExpression(ExpressionType.ArrayLength, Integer.TYPE, array);
+        return ExpressionInterner.intern(new UnaryExpression(ExpressionType.ArrayLength, Integer.TYPE, array));
     }
 
     /**
@@ -528,7 +539,8 @@ public abstract class Expression {
         if (index.getResultType() != Integer.TYPE)
             throw new IllegalArgumentException("index:" + index.getResultType().toString());
 
-        return new BinaryExpression(ExpressionType.ArrayIndex, arrayType.getComponentType(), null, array, index);
+        return ExpressionInterner.intern(new BinaryExpression(ExpressionType.ArrayIndex, arrayType.getComponentType(),
+                null, array, index));
     }
 
     /**
@@ -545,7 +557,7 @@ public abstract class Expression {
                                      Class<?> to) {
         if (to.isAssignableFrom(e.getResultType()))
             return e;
-        return new UnaryExpression(ExpressionType.Convert, to, e);
+        return ExpressionInterner.intern(new UnaryExpression(ExpressionType.Convert, to, e));
     }
 
     /**
@@ -561,7 +573,7 @@ public abstract class Expression {
      */
     public static ConstantExpression constant(Object value,
                                               Class<?> resultType) {
-        return new ConstantExpression(resultType, value);
+        return ExpressionInterner.intern(new ConstantExpression(resultType, value));
     }
 
     /**
@@ -590,7 +602,7 @@ public abstract class Expression {
     public static UnaryExpression negate(Expression e) {
         if (!e.isNumeric())
             throw new IllegalArgumentException(e.getResultType().toString());
-        return new UnaryExpression(ExpressionType.Negate, e.getResultType(), e);
+        return ExpressionInterner.intern(new UnaryExpression(ExpressionType.Negate, e.getResultType(), e));
     }
 
     /**
@@ -605,7 +617,7 @@ public abstract class Expression {
      */
     public static ParameterExpression parameter(Class<?> resultType,
                                                 int index) {
-        return new ParameterExpression(resultType, index);
+        return ExpressionInterner.intern(new ParameterExpression(resultType, index));
     }
 
     /**
@@ -634,7 +646,7 @@ public abstract class Expression {
      */
     public static BinaryExpression instanceOf(Expression e,
                                               Expression type) {
-        return new BinaryExpression(ExpressionType.InstanceOf, Boolean.TYPE, null, e, type);
+        return ExpressionInterner.intern(new BinaryExpression(ExpressionType.InstanceOf, Boolean.TYPE, null, e, type));
     }
 
     /**
@@ -790,7 +802,7 @@ public abstract class Expression {
             }
         }
 
-        return new BinaryExpression(expressionType, Boolean.TYPE, null, first, second);
+        return ExpressionInterner.intern(new BinaryExpression(expressionType, Boolean.TYPE, null, first, second));
     }
 
     /**
@@ -853,6 +865,48 @@ public abstract class Expression {
         return new BlockExpression(resultType, expressions);
     }
 
+    /**
+     * Creates a {@link LoopExpression} that evaluates the body expressions in order and assigns them to the variables
+     * while the test holds.
+     * 
+     * @param test      The loop condition, evaluated before each iteration.
+     * @param variables The locals assigned by the body, null for a body expression evaluated for its side effects.
+     * @param body      The body expressions, one per variable.
+     * @return The created {@link LoopExpression}
+     */
+    public static LoopExpression loop(Expression test,
+                                      List<ParameterExpression> variables,
+                                      List<Expression> body) {
+        Class<?> type = test.getResultType();
+        if (type != Boolean.TYPE && type != Boolean.class)
+            throw new IllegalArgumentException("Not a test: " + test);
+        return new LoopExpression(test, variables, body);
+    }
+
+    /**
+     * Creates a {@link SwitchExpression} that evaluates the case whose key equals the switch value, or the default
+     * case if none does.
+     *
+     * @param resultType  The result type of the switch.
+     * @param switchValue The value to switch on, of type {@code int}, {@code char}, {@code short} or {@code byte}.
+     * @param keys        The distinct case keys.
+     * @param cases       The case expressions, one per key.
+     * @param defaultCase The expression evaluated when no key equals the switch value.
+     * @return The created {@link SwitchExpression}
+     */
+    public static SwitchExpression switchExpression(Class<?> resultType,
+                                                    Expression switchValue,
+                                                    List<Integer> keys,
+                                                    List<Expression> cases,
+                                                    Expression defaultCase) {
+        Class<?> type = switchValue.getResultType();
+        if (type != Integer.TYPE && type != Character.TYPE && type != Short.TYPE && type != Byte.TYPE)
+            throw new IllegalArgumentException("Cannot switch on " + type + ": " + switchValue);
+        if (new HashSet<>(keys).size() != keys.size())
+            throw new IllegalArgumentException("Duplicate case keys: " + keys);
+        return new SwitchExpression(resultType, switchValue, keys, cases, defaultCase);
+    }
+
     /**
      * Creates a {@link NewArrayInitExpression} that represents creating a
      * one-dimensional array and initializing it from a list of elements.
@@ -916,7 +970,7 @@ public abstract class Expression {
                                           Member member,
                                           Class<?> resultType,
                                           List<ParameterExpression> params) {
-        return new MemberExpression(expressionType, instance, member, resultType, params);
+        return ExpressionInterner.intern(new MemberExpression(expressionType, instance, member, resultType, params));
     }
 
     /**
@@ -1023,7 +1077,7 @@ public abstract class Expression {
                                               List<? extends Expression> arguments) {
         List<Expression> args = new ArrayList<>(arguments);
         method = ExpressionClassCracker.get().parseSyntheticArguments(method, args);
-        return new InvocationExpression(method, args);
+        return ExpressionInterner.intern(new InvocationExpression(method, args));
     }
 
     static List<ParameterExpression> getParameters(Member member) {
@@ -1206,7 +1260,8 @@ public abstract class Expression {
                 return test;
         }
 
-        return new BinaryExpression(ExpressionType.Conditional, ifTrue.getResultType(), test, ifTrue, ifFalse);
+        return ExpressionInterner.intern(new BinaryExpression(ExpressionType.Conditional, ifTrue.getResultType(), test,
+                ifTrue, ifFalse));
     }
 
     /**
@@ -1219,7 +1274,7 @@ public abstract class Expression {
         if (e.getResultType().isPrimitive())
             throw new IllegalArgumentException(e.getResultType().toString());
 
-        return new UnaryExpression(ExpressionType.IsNull, Boolean.TYPE, e);
+        return ExpressionInterner.intern(new UnaryExpression(ExpressionType.IsNull, Boolean.TYPE, e));
     }
 
     /**
@@ -1232,7 +1287,7 @@ public abstract class Expression {
         if (e.getResultType().isPrimitive())
             throw new IllegalArgumentException(e.getResultType().toString());
 
-        return new UnaryExpression(ExpressionType.IsNonNull, Boolean.TYPE, e);
+        return ExpressionInterner.intern(new UnaryExpression(ExpressionType.IsNonNull, Boolean.TYPE, e));
     }
 
     /**
@@ -1247,7 +1302,7 @@ public abstract class Expression {
         if (!e.isIntegral())
             throw new IllegalArgumentException(e.getResultType().toString());
 
-        return new UnaryExpression(ExpressionType.BitwiseNot, e.getResultType(), e);
+        return ExpressionInterner.intern(new UnaryExpression(ExpressionType.BitwiseNot, e.getResultType(), e));
     }
 
     /**
@@ -1312,7 +1367,7 @@ public abstract class Expression {
             type = ExpressionType.Equal;
             break;
         default:
-            return new UnaryExpression(ExpressionType.LogicalNot, e.getResultType(), e);
+            return ExpressionInterner.intern(new UnaryExpression(ExpressionType.LogicalNot, e.getResultType(), e));
         }
 
         be = (BinaryExpression) e;
@@ -1345,6 +1400,41 @@ public abstract class Expression {
      */
     protected abstract <T> T visit(ExpressionVisitor<T> v);
 
+    /**
+     * Returns a 64-bit hash of the tree rooted at this node, consistent with
+     * {@link ExpressionComparer#equals(Expression, Expression)}. Computed once
+     * and memoized on each node of the tree.
+     * 
+     * @return structural hash of the tree.
+     */
+    public long structuralHash() {
+        return structuralHash(false);
+    }
+
+    /**
+     * Returns a 64-bit hash of the tree rooted at this node, consistent with
+     * {@link ExpressionComparer#equals(Expression, Expression, boolean)}.
+     * Computed once and memoized on each node of the tree.
+     * 
+     * @param ignoreConstantValues true to hash only the shape of the tree, so
+     *                             trees that differ by constant values only,
+     *                             e.g. the captured values, hash the same.
+     * @return structural hash of the tree.
+     */
+    public long structuralHash(boolean ignoreConstantValues) {
+        long h = ignoreConstantValues ? shapeHash : structuralHash;
+        if (h == 0) {
+            h = ExpressionComparer.hash(this, ignoreConstantValues);
+            if (h == 0)
+                h = 1;
+            if (ignoreConstantValues)
+                shapeHash = h;
+            else
+                structuralHash = h;
+        }
+        return h;
+    }
+
     @Override
     public final boolean equals(Object o) {
         return super.equals(o);
@@ -6,18 +6,29 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandleInfo;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.invoke.SerializedLambda;
 import java.lang.reflect.Method;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.objectweb.asm.ClassReader;
@@ -161,6 +172,48 @@ class ExpressionClassCracker {
         }
     }
 
+    /**
+     * Calls {@code writeReplace} of a serializable lambda directly. Falls back to {@link SerializedLambdaObjectExtractor}
+     * when the method is not found or not accessible.
+     */
+    static SerializedLambda extractSerializedLambda(Object lambda) {
+        MethodHandle writeReplace = writeReplaceHandles.get(lambda.getClass());
+        if (writeReplace != null) {
+            Object replaced;
+            try {
+                replaced = (Object) writeReplace.invokeExact(lambda);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+
+            if (replaced instanceof SerializedLambda)
+                return (SerializedLambda) replaced;
+        }
+
+        try (SerializedLambdaObjectExtractor extractor = new SerializedLambdaObjectExtractor()) {
+            return extractor.extract(lambda);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static final ClassValue<MethodHandle> writeReplaceHandles = new ClassValue<MethodHandle>() {
+        @Override
+        protected MethodHandle computeValue(Class<?> type) {
+            try {
+                Method writeReplace = type.getDeclaredMethod("writeReplace");
+                writeReplace.setAccessible(true);
+                return MethodHandles.lookup()
+                        .unreflect(writeReplace)
+                        .asType(MethodType.methodType(Object.class, Object.class));
+            } catch (NoSuchMethodException | IllegalAccessException | RuntimeException e) {
+                return null;
+            }
+        }
+    };
+
     LambdaExpression<?> lambda(Object lambda,
                                boolean synthetic) {
         return lambda(lambda, null, synthetic);
@@ -175,15 +228,10 @@ class ExpressionClassCracker {
 
         if (lambda instanceof Serializable) {
 
-            try (SerializedLambdaObjectExtractor extractor = new SerializedLambdaObjectExtractor()) {
-                SerializedLambda extracted = extractor.extract(lambda);
-
-                ClassLoader lambdaClassLoader = lambdaClass.getClassLoader();
-                return lambda(extracted, lambdaClassLoader, synthetic);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
+            SerializedLambda extracted = extractSerializedLambda(lambda);
 
+            ClassLoader lambdaClassLoader = lambdaClass.getClassLoader();
+            return lambda(extracted, lambdaClassLoader, synthetic);
         }
 
         return lambdaFromFileSystem(lambda, lambdaMethod, null);
@@ -230,7 +278,7 @@ class ExpressionClassCracker {
                                              SerializedDescriptor key) {
         Expression lambdaExpression = lambdaVisitor.getResult();
         Class<?> lambdaType = lambdaVisitor.getType();
-        List<ParameterExpression> lambdaParams = Arrays.asList(lambdaVisitor.getParams());
+        List<ParameterExpression> lambdaParams = lambdaVisitor.getParams();
 
         Expression stripped = lambdaType == Void.TYPE ? null : stripConvertExpressions(lambdaExpression);
 
@@ -284,7 +332,7 @@ class ExpressionClassCracker {
     @Data
     @EqualsAndHashCode
     @RequiredArgsConstructor
-    private static class SerializedDescriptor {
+    static class SerializedDescriptor {
 
         public SerializedDescriptor(SerializedLambda lambda) {
             this.implClass = lambda.getImplClass();
@@ -305,8 +353,110 @@ class ExpressionClassCracker {
         private final String instantiatedMethodType;
     }
 
+    static final String PREPARSED_RESOURCE_PREFIX = "META-INF/extree/";
+    static final String PREPARSED_RESOURCE_SUFFIX = ".ext";
+
+    private static final String PREPARSED_DIGEST = "SHA-256";
+
+    // capturing classes whose build time parsed lambdas are loaded to the cache, per class loader
+    private static final Map<ClassLoader, Set<String>> preparsedResources = new WeakHashMap<>();
+
+    private static void loadPreparsedResource(String capturingClass,
+                                              ClassLoader classLoader) {
+        if (classLoader == null)
+            return;
+
+        synchronized (preparsedResources) {
+            if (!preparsedResources.computeIfAbsent(classLoader, loader -> new HashSet<>()).add(capturingClass))
+                return;
+        }
+
+        URL resource = classLoader
+                .getResource(PREPARSED_RESOURCE_PREFIX + capturingClass + PREPARSED_RESOURCE_SUFFIX);
+        if (resource == null)
+            return;
+
+        List<Expression> lambdas;
+        try (InputStream in = resource.openStream();
+                InputStream classFile = classLoader.getResourceAsStream(classFilePath(capturingClass))) {
+            if (classFile == null)
+                return;
+            lambdas = readPreparsedResource(ByteBuffer.wrap(in.readAllBytes()), classFile.readAllBytes(),
+                    classLoader);
+        } catch (IOException | RuntimeException e) {
+            // corrupted, the lambdas will be parsed from bytecode
+            return;
+        }
+
+        if (lambdas == null)
+            return;
+
+        for (Expression e : lambdas) {
+            LambdaExpression<?> lambda = (LambdaExpression<?>) e;
+            cache.putIfAbsent((SerializedDescriptor) lambda.getKey(), lambda);
+        }
+    }
+
+    /**
+     * Writes the build time parsed lambdas of a class: the digest of the class file, then the encoded lambdas.
+     */
+    static void writePreparsedResource(byte[] classFile,
+                                       List<? extends Expression> lambdas,
+                                       OutputStream out)
+            throws IOException {
+        byte[] digest = digest(classFile);
+        out.write(digest.length);
+        out.write(digest);
+        ExpressionCodec.encode(lambdas, out);
+    }
+
+    /**
+     * Reads the lambdas written by {@link #writePreparsedResource}.
+     *
+     * @return the lambdas, or null if the resource was written for a different class file, i.e. is stale.
+     */
+    static List<Expression> readPreparsedResource(ByteBuffer resource,
+                                                  byte[] classFile,
+                                                  ClassLoader classLoader) {
+        byte[] digest = new byte[resource.get() & 0xFF];
+        resource.get(digest);
+        if (!MessageDigest.isEqual(digest, digest(classFile)))
+            return null;
+        return ExpressionCodec.decodeAll(resource, classLoader);
+    }
+
+    private static byte[] digest(byte[] classFile) {
+        try {
+            return MessageDigest.getInstance(PREPARSED_DIGEST).digest(classFile);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Parses a lambda implemented by a static method, as done for a lambda that does not capture 'this'. Used by
+     * {@link LambdaPreparser}.
+     */
+    LambdaExpression<?> parseStatic(SerializedLambda extracted,
+                                    ClassLoader lambdaClassLoader) {
+        return parseLambda(extracted, lambdaClassLoader, true, null, new SerializedDescriptor(extracted));
+    }
+
     private static final Map<SerializedDescriptor, LambdaExpression<?>> cache = new ConcurrentHashMap<>();
 
+    // static lambda methods parsed ahead by preparseClass per declaring class, removed when the lambda is parsed. Kept
+    // in the class, so they do not outlive its loader
+    private static final ClassValue<Map<String, ExpressionClassVisitor>> preparsed = new ClassValue<>() {
+        @Override
+        protected Map<String, ExpressionClassVisitor> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+    private static volatile boolean hasPreparsed;
+
+    private static final int MAX_CLASS_READERS_PER_LOADER = 64;
+    private static final Map<ClassLoader, Map<String, ClassReader>> classReaders = new WeakHashMap<>();
+
     LambdaExpression<?> lambda(SerializedLambda extracted,
                                ClassLoader lambdaClassLoader,
                                boolean synthetic) {
@@ -338,60 +488,33 @@ class ExpressionClassCracker {
         }
 
         boolean noNeedHandleCapturedArgs = capturedLength == 0 || (hasThis && capturedLength <= 1);
-        boolean isCacheable = noNeedHandleCapturedArgs && (!hasThis || instance.getResultType().isSynthetic());
-        if (isCacheable) {
-            LambdaExpression<?> cached = cache.get(desc);
-            if (cached != null) {
-//                System.out.println("Cache hit #1: " + cached);
-                return cached;
-            }
-        }
-
-        ExpressionClassVisitor actualVisitor = parseClass(lambdaClassLoader, extracted.getImplClass(), 
-                instance, extracted.getImplMethodName(), extracted.getImplMethodSignature(), synthetic);
-
-        final Class<?> type = actualVisitor.getType();
-        Expression reducedExpression = type == Void.TYPE ? actualVisitor.getResult()
-                : TypeConverter.convert(actualVisitor.getResult(), type);
-
-        List<Expression> block = actualVisitor.getStatements();
-        if (block != null && !block.isEmpty()) {
-
-            block = new ArrayList<>(block);
-            if (reducedExpression != null)
-                block.add(reducedExpression);
-
-            reducedExpression = Expression.block(type, block);
-        }
-
-        ParameterExpression[] params;
-
-        // in case there is no captured args, we my assume the instantiated method signature to be the most accurate,
-        // e.g. handle the case of a parameter for this
-        if (capturedLength == 0) {
-
-            Type[] argTypes = Type.getArgumentTypes(extracted.getInstantiatedMethodType());
-            params = new ParameterExpression[argTypes.length];
-
-            for (int i = 0; i < argTypes.length; i++)
-                params[i] = Expression.parameter(actualVisitor.getClass(argTypes[i]), i);
-        } else {
-            params = actualVisitor.getParams();
+        // without 'this' the parsed method does not depend on the captured values, they are bound below
+        boolean isCacheable = noNeedHandleCapturedArgs ? !hasThis || instance.getResultType().isSynthetic()
+                : !hasThis;
+        LambdaExpression<?> extractedLambda = isCacheable ? cache.get(desc) : null;
+
+        if (extractedLambda == null && !hasThis) {
+            loadPreparsedResource(extracted.getCapturingClass(), lambdaClassLoader);
+            extractedLambda = cache.get(desc);
         }
 
-        LambdaExpression<?> extractedLambda = Expression.lambda(type, reducedExpression,
-                Collections.unmodifiableList(Arrays.asList(params)), actualVisitor.getLocals(), desc);
+        if (extractedLambda == null) {
+            extractedLambda = parseLambda(extracted, lambdaClassLoader, synthetic, instance, desc);
 
-        if (noNeedHandleCapturedArgs) {
             if (isCacheable) {
                 LambdaExpression<?> cached = cache.putIfAbsent(desc, extractedLambda);
                 if (cached != null)
                     extractedLambda = cached;
             }
-            return extractedLambda;
         }
 
-        List<Expression> args = new ArrayList<>(params.length);
+        if (noNeedHandleCapturedArgs)
+            return extractedLambda;
+
+        final Class<?> type = extractedLambda.getResultType();
+        List<ParameterExpression> params = extractedLambda.getParameters();
+
+        List<Expression> args = new ArrayList<>(params.size());
 
         for (int i = hasThis ? 1 : 0; i < capturedLength; i++) {
             Object arg = extracted.getCapturedArg(i);
@@ -408,23 +531,96 @@ class ExpressionClassCracker {
             args.add(Expression.constant(arg));
         }
 
-        List<ParameterExpression> finalParams = new ArrayList<>(params.length - capturedLength);
+        return bind(extractedLambda, args, desc);
+    }
+
+    LambdaExpression<?> bind(LambdaExpression<?> template,
+                             Object[] captured,
+                             List<Object> bound,
+                             Object key) {
+        List<Expression> args = new ArrayList<>(template.getParameters().size());
+        for (int i = 0; i < captured.length; i++) {
+            Object arg = captured[i];
+            // the template calls a captured lambda through a delegate, hence expects it parsed
+            if (bound.get(i) instanceof LambdaExpression && !(arg instanceof LambdaExpression) && arg != null)
+                arg = lambda(arg, true);
+            args.add(Expression.constant(arg));
+        }
+
+        return bind(template, args, key);
+    }
+
+    /**
+     * Binds the captured values to the template, leaving the rest of the template parameters open.
+     */
+    private LambdaExpression<?> bind(LambdaExpression<?> template,
+                                     List<Expression> args,
+                                     Object key) {
+        List<ParameterExpression> params = template.getParameters();
         int boundArgs = args.size();
-        for (int y = boundArgs; y < params.length; y++) {
-            ParameterExpression param = params[y];
+        List<ParameterExpression> finalParams = new ArrayList<>(params.size() - boundArgs);
+        for (int y = boundArgs; y < params.size(); y++) {
+            ParameterExpression param = params.get(y);
             ParameterExpression arg = Expression.parameter(param.getResultType(), y - boundArgs);
             args.add(arg);
             finalParams.add(arg);
         }
 
-//        cached = cache.putIfAbsent(desc, extractedLambda);
-//        if (cached != null)
-//            extractedLambda = cached;
+        InvocationExpression newTarget = Expression.invoke(template, args);
 
-        InvocationExpression newTarget = Expression.invoke(extractedLambda, args);
+        List<Expression> arguments = newTarget.getArguments();
+        Object[] captured = new Object[boundArgs];
+        for (int i = 0; i < boundArgs; i++)
+            captured[i] = ((ConstantExpression) arguments.get(i)).getValue();
 
-        return Expression.lambda(type, newTarget, Collections.unmodifiableList(finalParams),
-                Collections.emptyList(), desc);
+        return new LambdaExpression<>(template.getResultType(), newTarget, Collections.unmodifiableList(finalParams),
+                Collections.emptyList(), key, null, (LambdaExpression<?>) newTarget.getTarget(),
+                Collections.unmodifiableList(Arrays.asList(captured)));
+    }
+
+    private LambdaExpression<?> parseLambda(SerializedLambda extracted,
+                                            ClassLoader lambdaClassLoader,
+                                            boolean synthetic,
+                                            Expression instance,
+                                            SerializedDescriptor desc) {
+        ExpressionClassVisitor actualVisitor = instance == null && synthetic
+                ? removePreparsed(extracted, lambdaClassLoader)
+                : null;
+        if (actualVisitor == null || actualVisitor.getLoader() != lambdaClassLoader)
+            actualVisitor = parseClass(lambdaClassLoader, extracted.getImplClass(), instance,
+                    extracted.getImplMethodName(), extracted.getImplMethodSignature(), synthetic);
+
+        final Class<?> type = actualVisitor.getType();
+        Expression reducedExpression = type == Void.TYPE ? actualVisitor.getResult()
+                : TypeConverter.convert(actualVisitor.getResult(), type);
+
+        List<Expression> block = actualVisitor.getStatements();
+        if (block != null && !block.isEmpty()) {
+
+            block = new ArrayList<>(block);
+            if (reducedExpression != null)
+                block.add(reducedExpression);
+
+            reducedExpression = Expression.block(type, block);
+        }
+
+        List<ParameterExpression> params;
+
+        // in case there is no captured args, we my assume the instantiated method signature to be the most accurate,
+        // e.g. handle the case of a parameter for this
+        if (extracted.getCapturedArgCount() == 0) {
+
+            Type[] argTypes = Type.getArgumentTypes(extracted.getInstantiatedMethodType());
+            ParameterExpression[] instantiated = new ParameterExpression[argTypes.length];
+
+            for (int i = 0; i < argTypes.length; i++)
+                instantiated[i] = Expression.parameter(actualVisitor.getClass(argTypes[i]), i);
+            params = Collections.unmodifiableList(Arrays.asList(instantiated));
+        } else {
+            params = actualVisitor.getParams();
+        }
+
+        return Expression.lambda(type, reducedExpression, params, actualVisitor.getLocals(), desc);
     }
 
     @SuppressWarnings("unchecked")
@@ -488,7 +684,7 @@ class ExpressionClassCracker {
         return className;
     }
 
-    private String classFilePath(String className) {
+    private static String classFilePath(String className) {
         return className.replace('.', '/') + ".class";
     }
 
@@ -525,13 +721,87 @@ class ExpressionClassCracker {
         String classFilePath = classFilePath(className);
         ExpressionClassVisitor visitor = new ExpressionClassVisitor(classLoader, instance, method, methodDescriptor,
                 synthetic);
-        try (InputStream classStream = getResourceAsStream(classLoader, classFilePath)) {
-            ClassReader reader = new ClassReader(classStream);
-            reader.accept(visitor, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
-            return visitor;
-        } catch (IOException e) {
-            throw new RuntimeException("error parsing class file " + classFilePath, e);
+        ClassReader reader = getClassReader(classLoader, classFilePath);
+        reader.accept(visitor, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        return visitor;
+    }
+
+    int preparseClass(Class<?> clazz) {
+        ClassLoader classLoader = clazz.getClassLoader();
+        if (classLoader == null)
+            classLoader = ClassLoader.getSystemClassLoader();
+
+        String className = Type.getInternalName(clazz);
+        ClassReader reader = getClassReader(classLoader, classFilePath(className));
+        // the methods not supported by the parser are skipped, they will fail when parsed
+        LambdaClassVisitor visitor = new LambdaClassVisitor(classLoader);
+        reader.accept(visitor, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+
+        List<ExpressionClassVisitor> parsed = visitor.getParsed();
+        Map<String, ExpressionClassVisitor> methods = preparsed.get(clazz);
+        for (ExpressionClassVisitor v : parsed)
+            methods.putIfAbsent(preparsedKey(v.getMethod(), v.getMethodDescriptor()), v);
+        hasPreparsed = true;
+
+        return parsed.size();
+    }
+
+    private static String preparsedKey(String implMethodName,
+                                       String implMethodSignature) {
+        return implMethodName + implMethodSignature;
+    }
+
+    private static ExpressionClassVisitor removePreparsed(SerializedLambda extracted,
+                                                          ClassLoader lambdaClassLoader) {
+        if (!hasPreparsed)
+            return null;
+
+        Class<?> implClass;
+        try {
+            implClass = Class.forName(extracted.getImplClass().replace('/', '.'), false, lambdaClassLoader);
+        } catch (ClassNotFoundException | LinkageError e) {
+            return null;
         }
+
+        return preparsed.get(implClass)
+                .remove(preparsedKey(extracted.getImplMethodName(), extracted.getImplMethodSignature()));
+    }
+
+    /**
+     * Class files are kept per class loader, since a class declaring many lambdas is read once per lambda. The loader is
+     * referenced weakly and the number of classes per loader is bounded.
+     */
+    private ClassReader getClassReader(ClassLoader classLoader,
+                                       String classFilePath) {
+        Map<String, ClassReader> readers;
+        synchronized (classReaders) {
+            readers = classReaders.computeIfAbsent(classLoader, loader -> new LinkedHashMap<String, ClassReader>(16,
+                    0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, ClassReader> eldest) {
+                    return size() > MAX_CLASS_READERS_PER_LOADER;
+                }
+            });
+        }
+
+        ClassReader reader;
+        synchronized (readers) {
+            reader = readers.get(classFilePath);
+        }
+
+        if (reader == null) {
+            try (InputStream classStream = getResourceAsStream(classLoader, classFilePath)) {
+                reader = new ClassReader(classStream);
+            } catch (IOException e) {
+                throw new RuntimeException("error parsing class file " + classFilePath, e);
+            }
+
+            synchronized (readers) {
+                readers.put(classFilePath, reader);
+            }
+        }
+
+        return reader;
     }
 
     private InputStream getResourceAsStream(ClassLoader classLoader,
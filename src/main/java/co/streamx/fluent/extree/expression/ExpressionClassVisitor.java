@@ -1,5 +1,6 @@
 package co.streamx.fluent.extree.expression;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -25,6 +26,7 @@ final class ExpressionClassVisitor extends ClassVisitor {
     private Expression _result;
     private Class<?> _type;
     private Class<?>[] _argTypes;
+    private List<ParameterExpression> _params;
     private Type _objectType;
 
     private List<Expression> statements;
@@ -58,10 +60,14 @@ final class ExpressionClassVisitor extends ClassVisitor {
         return _type;
     }
 
-    ParameterExpression[] getParams() {
-        ParameterExpression[] params = new ParameterExpression[_argTypes.length];
-        for (int i = 0; i < params.length; i++)
-            params[i] = Expression.parameter(_argTypes[i], i);
+    List<ParameterExpression> getParams() {
+        List<ParameterExpression> params = _params;
+        if (params == null) {
+            ParameterExpression[] array = new ParameterExpression[_argTypes.length];
+            for (int i = 0; i < array.length; i++)
+                array[i] = Expression.parameter(_argTypes[i], i);
+            _params = params = Collections.unmodifiableList(Arrays.asList(array));
+        }
         return params;
     }
 
@@ -79,6 +85,14 @@ final class ExpressionClassVisitor extends ClassVisitor {
         return _loader;
     }
 
+    String getMethod() {
+        return _method;
+    }
+
+    String getMethodDescriptor() {
+        return _methodDesc;
+    }
+
     Class<?> getClass(Type t) {
         try {
             switch (t.getSort()) {
@@ -165,6 +179,7 @@ final class ExpressionClassVisitor extends ClassVisitor {
                         : isStatic ? Expression.invoke(implClass, name, argTypes, arguments)
                         : Expression.invoke(instance, name, argTypes, arguments);
                 locals = Collections.emptyList();
+                _params = null;
                 if (parameterBase == 0) {
                     _argTypes = argTypes;
                 } else {
@@ -194,6 +209,7 @@ final class ExpressionClassVisitor extends ClassVisitor {
         }
 
         _argTypes = argTypes;
+        _params = null;
 
         return new ExpressionMethodVisitor(this, me, argTypes);
     }
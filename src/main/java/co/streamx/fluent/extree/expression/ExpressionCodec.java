@@ -0,0 +1,712 @@
+package co.streamx.fluent.extree.expression;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.objectweb.asm.Type;
+
+/**
+ * Writes and reads expression trees in a compact binary form, e.g. to keep parsed trees on disk or to send them to
+ * another JVM without parsing the bytecode again.
+ * <p>
+ * The encoded form starts with a magic number, then a format version, followed by a symbol table of the strings,
+ * classes and members referenced by the trees, each written once. The nodes refer to the symbols by index. Classes and
+ * members are resolved with the class loader passed to {@link #decode(ByteBuffer, ClassLoader)}, once per symbol.
+ * </p>
+ * <p>
+ * {@link ConstantExpression} values are limited to {@code null}, primitive wrappers, {@link String}, {@link Class} and
+ * enum constants. Expression trees having other constant values, e.g. values captured by a lambda, are not supported.
+ * </p>
+ */
+
+public final class ExpressionCodec {
+
+    private static final int MAGIC = 0x45585452; // EXTR
+
+    /**
+     * Current version of the encoded form. {@link #decode(ByteBuffer, ClassLoader)} rejects other versions.
+     */
+    public static final int VERSION = 1;
+
+    private static final byte NULL = 0;
+    private static final byte BINARY = 1;
+    private static final byte UNARY = 2;
+    private static final byte CONSTANT = 3;
+    private static final byte PARAMETER = 4;
+    private static final byte MEMBER = 5;
+    private static final byte LAMBDA = 6;
+    private static final byte METHOD_REF = 7;
+    private static final byte DELEGATE = 8;
+    private static final byte INVOCATION = 9;
+    private static final byte BLOCK = 10;
+    private static final byte NEW_ARRAY_INIT = 11;
+    private static final byte LOOP = 12;
+    private static final byte SWITCH = 13;
+
+    private static final byte MEMBER_METHOD = 0;
+    private static final byte MEMBER_CONSTRUCTOR = 1;
+    private static final byte MEMBER_FIELD = 2;
+
+    private static final byte VALUE_NULL = 0;
+    private static final byte VALUE_BOOLEAN = 1;
+    private static final byte VALUE_BYTE = 2;
+    private static final byte VALUE_CHAR = 3;
+    private static final byte VALUE_SHORT = 4;
+    private static final byte VALUE_INT = 5;
+    private static final byte VALUE_LONG = 6;
+    private static final byte VALUE_FLOAT = 7;
+    private static final byte VALUE_DOUBLE = 8;
+    private static final byte VALUE_STRING = 9;
+    private static final byte VALUE_CLASS = 10;
+    private static final byte VALUE_ENUM = 11;
+
+    private static final Map<String, Class<?>> primitives = new HashMap<>();
+
+    static {
+        for (Class<?> c : new Class<?>[] { Boolean.TYPE, Byte.TYPE, Character.TYPE, Short.TYPE, Integer.TYPE, Long.TYPE,
+                Float.TYPE, Double.TYPE, Void.TYPE })
+            primitives.put(c.getName(), c);
+    }
+
+    private ExpressionCodec() {
+    }
+
+    /**
+     * Encodes an expression tree.
+     *
+     * @param e expression to encode, may be null.
+     * @return the encoded form.
+     * @throws IllegalArgumentException if the tree has a constant value that cannot be encoded.
+     */
+    public static byte[] encode(Expression e) {
+        return encode(Collections.singletonList(e));
+    }
+
+    /**
+     * Encodes several expression trees sharing one symbol table.
+     *
+     * @param expressions expressions to encode, may contain nulls.
+     * @return the encoded form.
+     * @throws IllegalArgumentException if a tree has a constant value that cannot be encoded.
+     */
+    public static byte[] encode(List<? extends Expression> expressions) {
+        Writer writer = new Writer();
+        writer.body.writeVarInt(expressions.size());
+        for (Expression e : expressions)
+            writer.write(e);
+
+        Output out = new Output(writer.body.size() + 64 * writer.strings.size());
+        out.writeInt(MAGIC);
+        out.writeVarInt(VERSION);
+        writer.writeSymbols(out);
+        out.write(writer.body);
+        return out.toByteArray();
+    }
+
+    /**
+     * Encodes several expression trees sharing one symbol table to the stream.
+     *
+     * @param expressions expressions to encode, may contain nulls.
+     * @param out         stream to write to.
+     * @throws IOException              if the stream fails.
+     * @throws IllegalArgumentException if a tree has a constant value that cannot be encoded.
+     */
+    public static void encode(List<? extends Expression> expressions,
+                              OutputStream out)
+            throws IOException {
+        out.write(encode(expressions));
+    }
+
+    /**
+     * Decodes a single expression tree written by {@link #encode(Expression)}, starting at the buffer position.
+     *
+     * @param buffer encoded form, the position is advanced past it.
+     * @param loader class loader to resolve the classes and members with.
+     * @return the decoded expression.
+     * @throws IllegalArgumentException if the buffer does not contain a supported encoded form, or a class or a member
+     *                                  cannot be resolved.
+     */
+    public static Expression decode(ByteBuffer buffer,
+                                    ClassLoader loader) {
+        List<Expression> expressions = decodeAll(buffer, loader);
+        if (expressions.size() != 1)
+            throw new IllegalArgumentException("Expected a single expression, found: " + expressions.size());
+        return expressions.get(0);
+    }
+
+    /**
+     * Decodes the expression trees written by {@link #encode(List)}, starting at the buffer position. The buffer is
+     * read in place.
+     *
+     * @param buffer encoded form, the position is advanced past it.
+     * @param loader class loader to resolve the classes and members with.
+     * @return the decoded expressions.
+     * @throws IllegalArgumentException if the buffer does not contain a supported encoded form, or a class or a member
+     *                                  cannot be resolved.
+     */
+    public static List<Expression> decodeAll(ByteBuffer buffer,
+                                             ClassLoader loader) {
+        try {
+            if (buffer.getInt() != MAGIC)
+                throw new IllegalArgumentException("Not an encoded expression");
+            int version = readVarInt(buffer);
+            if (version != VERSION)
+                throw new IllegalArgumentException("Unsupported version: " + version);
+
+            Reader reader = new Reader(buffer, loader);
+            int count = readVarInt(buffer);
+            List<Expression> expressions = new ArrayList<>(count);
+            for (int i = 0; i < count; i++)
+                expressions.add(reader.read());
+            return expressions;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | ClassCastException e) {
+            throw new IllegalArgumentException("Corrupted encoded expression", e);
+        }
+    }
+
+    private static int readVarInt(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0;; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+    }
+
+    private static final class Output {
+        private byte[] bytes;
+        private int size;
+
+        Output(int capacity) {
+            bytes = new byte[Math.max(capacity, 16)];
+        }
+
+        int size() {
+            return size;
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > bytes.length)
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length << 1, size + extra));
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            bytes[size++] = (byte) b;
+        }
+
+        void writeInt(int v) {
+            ensure(4);
+            bytes[size++] = (byte) (v >>> 24);
+            bytes[size++] = (byte) (v >>> 16);
+            bytes[size++] = (byte) (v >>> 8);
+            bytes[size++] = (byte) v;
+        }
+
+        void writeLong(long v) {
+            writeInt((int) (v >>> 32));
+            writeInt((int) v);
+        }
+
+        void writeVarInt(int v) {
+            while ((v & ~0x7F) != 0) {
+                writeByte((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            writeByte(v);
+        }
+
+        void write(byte[] b) {
+            writeVarInt(b.length);
+            ensure(b.length);
+            System.arraycopy(b, 0, bytes, size, b.length);
+            size += b.length;
+        }
+
+        void write(Output other) {
+            ensure(other.size);
+            System.arraycopy(other.bytes, 0, bytes, size, other.size);
+            size += other.size;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+
+    private static final class Writer implements ExpressionVisitor<Void> {
+
+        final Output body = new Output(256);
+
+        final Map<String, Integer> strings = new HashMap<>();
+        private final Map<Class<?>, Integer> classes = new HashMap<>();
+        private final Map<Member, Integer> members = new HashMap<>();
+
+        private final List<String> stringTable = new ArrayList<>();
+        private final List<Class<?>> classTable = new ArrayList<>();
+        private final List<Member> memberTable = new ArrayList<>();
+
+        void writeSymbols(Output out) {
+            out.writeVarInt(stringTable.size());
+            for (String s : stringTable)
+                out.write(s.getBytes(StandardCharsets.UTF_8));
+
+            out.writeVarInt(classTable.size());
+            for (Class<?> c : classTable)
+                out.writeVarInt(strings.get(c.getName()));
+
+            out.writeVarInt(memberTable.size());
+            for (Member m : memberTable) {
+                if (m instanceof Method) {
+                    out.writeByte(MEMBER_METHOD);
+                    out.writeVarInt(classes.get(m.getDeclaringClass()));
+                    out.writeVarInt(strings.get(m.getName()));
+                    out.writeVarInt(strings.get(Type.getMethodDescriptor((Method) m)));
+                } else if (m instanceof Constructor<?>) {
+                    out.writeByte(MEMBER_CONSTRUCTOR);
+                    out.writeVarInt(classes.get(m.getDeclaringClass()));
+                    out.writeVarInt(strings.get(Type.getConstructorDescriptor((Constructor<?>) m)));
+                } else {
+                    out.writeByte(MEMBER_FIELD);
+                    out.writeVarInt(classes.get(m.getDeclaringClass()));
+                    out.writeVarInt(strings.get(m.getName()));
+                }
+            }
+        }
+
+        private int symbol(String s) {
+            Integer index = strings.get(s);
+            if (index == null) {
+                index = stringTable.size();
+                stringTable.add(s);
+                strings.put(s, index);
+            }
+            return index;
+        }
+
+        private int symbol(Class<?> c) {
+            Integer index = classes.get(c);
+            if (index == null) {
+                symbol(c.getName());
+                index = classTable.size();
+                classTable.add(c);
+                classes.put(c, index);
+            }
+            return index;
+        }
+
+        private int symbol(Member m) {
+            Integer index = members.get(m);
+            if (index == null) {
+                symbol(m.getDeclaringClass());
+                if (m instanceof Method) {
+                    symbol(m.getName());
+                    symbol(Type.getMethodDescriptor((Method) m));
+                } else if (m instanceof Constructor<?>) {
+                    symbol(Type.getConstructorDescriptor((Constructor<?>) m));
+                } else {
+                    symbol(m.getName());
+                }
+                index = memberTable.size();
+                memberTable.add(m);
+                members.put(m, index);
+            }
+            return index;
+        }
+
+        void write(Expression e) {
+            if (e == null)
+                body.writeByte(NULL);
+            else
+                e.accept(this);
+        }
+
+        private void writeList(List<? extends Expression> list) {
+            body.writeVarInt(list.size());
+            for (Expression e : list)
+                write(e);
+        }
+
+        private void writeHeader(byte tag,
+                                 Expression e) {
+            body.writeByte(tag);
+            body.writeByte(e.getExpressionType());
+            body.writeVarInt(symbol(e.getResultType()));
+        }
+
+        private void writeValue(Object value) {
+            if (value == null) {
+                body.writeByte(VALUE_NULL);
+            } else if (value instanceof Boolean) {
+                body.writeByte(VALUE_BOOLEAN);
+                body.writeByte((Boolean) value ? 1 : 0);
+            } else if (value instanceof Byte) {
+                body.writeByte(VALUE_BYTE);
+                body.writeByte((Byte) value);
+            } else if (value instanceof Character) {
+                body.writeByte(VALUE_CHAR);
+                body.writeVarInt((Character) value);
+            } else if (value instanceof Short) {
+                body.writeByte(VALUE_SHORT);
+                body.writeVarInt((Short) value);
+            } else if (value instanceof Integer) {
+                body.writeByte(VALUE_INT);
+                body.writeVarInt((Integer) value);
+            } else if (value instanceof Long) {
+                body.writeByte(VALUE_LONG);
+                body.writeLong((Long) value);
+            } else if (value instanceof Float) {
+                body.writeByte(VALUE_FLOAT);
+                body.writeInt(Float.floatToRawIntBits((Float) value));
+            } else if (value instanceof Double) {
+                body.writeByte(VALUE_DOUBLE);
+                body.writeLong(Double.doubleToRawLongBits((Double) value));
+            } else if (value instanceof String) {
+                body.writeByte(VALUE_STRING);
+                body.writeVarInt(symbol((String) value));
+            } else if (value instanceof Class<?>) {
+                body.writeByte(VALUE_CLASS);
+                body.writeVarInt(symbol((Class<?>) value));
+            } else if (value instanceof Enum<?>) {
+                Enum<?> en = (Enum<?>) value;
+                body.writeByte(VALUE_ENUM);
+                body.writeVarInt(symbol(en.getDeclaringClass()));
+                body.writeVarInt(symbol(en.name()));
+            } else {
+                throw new IllegalArgumentException("Unsupported constant: " + value.getClass());
+            }
+        }
+
+        private void writeKey(Object key) {
+            if (key instanceof ExpressionClassCracker.SerializedDescriptor) {
+                ExpressionClassCracker.SerializedDescriptor desc = (ExpressionClassCracker.SerializedDescriptor) key;
+                body.writeByte(1);
+                body.writeVarInt(symbol(desc.getImplClass()));
+                body.writeVarInt(symbol(desc.getImplMethodName()));
+                body.writeVarInt(symbol(desc.getImplMethodSignature()));
+                body.writeVarInt(desc.getImplMethodKind());
+                body.writeVarInt(symbol(desc.getInstantiatedMethodType()));
+            } else {
+                body.writeByte(0);
+            }
+        }
+
+        @Override
+        public Void visit(BinaryExpression e) {
+            writeHeader(BINARY, e);
+            write(e.getOperator());
+            write(e.getFirst());
+            write(e.getSecond());
+            return null;
+        }
+
+        @Override
+        public Void visit(ConstantExpression e) {
+            writeHeader(CONSTANT, e);
+            writeValue(e.getValue());
+            return null;
+        }
+
+        @Override
+        public Void visit(InvocationExpression e) {
+            writeHeader(INVOCATION, e);
+            write(e.getTarget());
+            writeList(e.getArguments());
+            return null;
+        }
+
+        @Override
+        public Void visit(LambdaExpression<?> e) {
+            writeHeader(e.isMethodRef() ? METHOD_REF : LAMBDA, e);
+            write(e.getBody());
+            writeList(e.getParameters());
+            writeList(e.getLocals());
+            writeKey(e.getKey());
+            return null;
+        }
+
+        @Override
+        public Void visit(DelegateExpression e) {
+            writeHeader(DELEGATE, e);
+            write(e.getDelegate());
+            writeList(e.getParameters());
+            return null;
+        }
+
+        @Override
+        public Void visit(MemberExpression e) {
+            writeHeader(MEMBER, e);
+            write(e.getInstance());
+            body.writeVarInt(symbol(e.getMember()));
+            writeList(e.getParameters());
+            return null;
+        }
+
+        @Override
+        public Void visit(ParameterExpression e) {
+            writeHeader(PARAMETER, e);
+            body.writeVarInt(e.getIndex());
+            return null;
+        }
+
+        @Override
+        public Void visit(UnaryExpression e) {
+            writeHeader(UNARY, e);
+            write(e.getFirst());
+            return null;
+        }
+
+        @Override
+        public Void visit(BlockExpression e) {
+            writeHeader(BLOCK, e);
+            writeList(e.getExpressions());
+            return null;
+        }
+
+        @Override
+        public Void visit(NewArrayInitExpression e) {
+            writeHeader(NEW_ARRAY_INIT, e);
+            body.writeVarInt(symbol(e.getComponentType()));
+            writeList(e.getInitializers());
+            return null;
+        }
+
+        @Override
+        public Void visit(LoopExpression e) {
+            writeHeader(LOOP, e);
+            write(e.getTest());
+            writeList(e.getVariables());
+            writeList(e.getBody());
+            return null;
+        }
+
+        @Override
+        public Void visit(SwitchExpression e) {
+            writeHeader(SWITCH, e);
+            write(e.getSwitchValue());
+            body.writeVarInt(e.getKeys().size());
+            for (int key : e.getKeys())
+                body.writeVarInt(key);
+            writeList(e.getCases());
+            write(e.getDefaultCase());
+            return null;
+        }
+    }
+
+    private static final class Reader {
+
+        private final ByteBuffer in;
+        private final ClassLoader loader;
+
+        private final String[] strings;
+        private final Class<?>[] classes;
+        private final Member[] members;
+
+        Reader(ByteBuffer in, ClassLoader loader) {
+            this.in = in;
+            this.loader = loader;
+
+            strings = new String[readVarInt(in)];
+            for (int i = 0; i < strings.length; i++) {
+                int length = readVarInt(in);
+                ByteBuffer slice = in.slice();
+                slice.limit(length);
+                strings[i] = StandardCharsets.UTF_8.decode(slice).toString();
+                in.position(in.position() + length);
+            }
+
+            classes = new Class<?>[readVarInt(in)];
+            for (int i = 0; i < classes.length; i++)
+                classes[i] = resolveClass(strings[readVarInt(in)]);
+
+            members = new Member[readVarInt(in)];
+            for (int i = 0; i < members.length; i++)
+                members[i] = readMember();
+        }
+
+        private Class<?> resolveClass(String name) {
+            Class<?> c = primitives.get(name);
+            if (c != null)
+                return c;
+            try {
+                return Class.forName(name, false, loader);
+            } catch (ClassNotFoundException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+
+        private Member readMember() {
+            byte kind = in.get();
+            Class<?> declaringClass = classes[readVarInt(in)];
+            try {
+                switch (kind) {
+                case MEMBER_METHOD:
+                    String name = strings[readVarInt(in)];
+                    return declaringClass.getDeclaredMethod(name, parameterTypes(strings[readVarInt(in)]));
+                case MEMBER_CONSTRUCTOR:
+                    return declaringClass.getDeclaredConstructor(parameterTypes(strings[readVarInt(in)]));
+                case MEMBER_FIELD:
+                    return declaringClass.getDeclaredField(strings[readVarInt(in)]);
+                default:
+                    throw new IllegalArgumentException("Unknown member kind: " + kind);
+                }
+            } catch (NoSuchMethodException | NoSuchFieldException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+
+        private Class<?>[] parameterTypes(String descriptor) {
+            Type[] types = Type.getArgumentTypes(descriptor);
+            Class<?>[] parameterTypes = new Class<?>[types.length];
+            for (int i = 0; i < types.length; i++) {
+                Type t = types[i];
+                parameterTypes[i] = resolveClass(
+                        t.getSort() == Type.ARRAY ? t.getDescriptor().replace('/', '.') : t.getClassName());
+            }
+            return parameterTypes;
+        }
+
+        @SuppressWarnings("unchecked")
+        private <T extends Expression> List<T> readList() {
+            int size = readVarInt(in);
+            if (size == 0)
+                return Collections.emptyList();
+            List<Expression> list = new ArrayList<>(size);
+            for (int i = 0; i < size; i++)
+                list.add(read());
+            return (List<T>) Collections.unmodifiableList(list);
+        }
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        private Object readValue() {
+            byte kind = in.get();
+            switch (kind) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_BOOLEAN:
+                return in.get() != 0;
+            case VALUE_BYTE:
+                return in.get();
+            case VALUE_CHAR:
+                return (char) readVarInt(in);
+            case VALUE_SHORT:
+                return (short) readVarInt(in);
+            case VALUE_INT:
+                return readVarInt(in);
+            case VALUE_LONG:
+                return in.getLong();
+            case VALUE_FLOAT:
+                return in.getFloat();
+            case VALUE_DOUBLE:
+                return in.getDouble();
+            case VALUE_STRING:
+                return strings[readVarInt(in)];
+            case VALUE_CLASS:
+                return classes[readVarInt(in)];
+            case VALUE_ENUM:
+                Class enumType = classes[readVarInt(in)];
+                return Enum.valueOf(enumType, strings[readVarInt(in)]);
+            default:
+                throw new IllegalArgumentException("Unknown constant kind: " + kind);
+            }
+        }
+
+        private Object readKey() {
+            if (in.get() == 0)
+                return null;
+            return new ExpressionClassCracker.SerializedDescriptor(strings[readVarInt(in)], strings[readVarInt(in)],
+                    strings[readVarInt(in)], readVarInt(in), strings[readVarInt(in)]);
+        }
+
+        Expression read() {
+            byte tag = in.get();
+            if (tag == NULL)
+                return null;
+
+            int expressionType = in.get();
+            Class<?> resultType = classes[readVarInt(in)];
+
+            switch (tag) {
+            case BINARY:
+                Expression operator = read();
+                Expression first = read();
+                return new BinaryExpression(expressionType, resultType, operator, first, read());
+            case UNARY:
+                return new UnaryExpression(expressionType, resultType, read());
+            case CONSTANT:
+                return new ConstantExpression(resultType, readValue());
+            case PARAMETER:
+                return new ParameterExpression(resultType, readVarInt(in));
+            case MEMBER:
+                Expression instance = read();
+                Member member = members[readVarInt(in)];
+                return new MemberExpression(expressionType, instance, member, resultType, readList());
+            case LAMBDA:
+            case METHOD_REF:
+                Expression body = read();
+                List<ParameterExpression> params = readList();
+                List<Expression> locals = readList();
+                Object key = readKey();
+                return new LambdaExpression<Object>(resultType, body, params, locals, key,
+                        tag == METHOD_REF ? methodRefParser(body) : null);
+            case DELEGATE:
+                Expression delegate = read();
+                return new DelegateExpression(resultType, delegate, readList());
+            case INVOCATION:
+                InvocableExpression target = (InvocableExpression) read();
+                return new InvocationExpression(target, readList());
+            case BLOCK:
+                return new BlockExpression(resultType, readList());
+            case NEW_ARRAY_INIT:
+                Class<?> componentType = classes[readVarInt(in)];
+                return new NewArrayInitExpression(componentType, readList());
+            case LOOP:
+                Expression test = read();
+                List<ParameterExpression> variables = readList();
+                return new LoopExpression(test, variables, readList());
+            case SWITCH:
+                Expression switchValue = read();
+                Integer[] keys = new Integer[readVarInt(in)];
+                for (int i = 0; i < keys.length; i++)
+                    keys[i] = readVarInt(in);
+                List<Expression> cases = readList();
+                return new SwitchExpression(resultType, switchValue,
+                        Collections.unmodifiableList(Arrays.asList(keys)), cases, read());
+            default:
+                throw new IllegalArgumentException("Unknown expression tag: " + tag);
+            }
+        }
+
+        /**
+         * Method references to synthetic methods are parsed on demand, see
+         * {@link ExpressionMethodVisitor#visitInvokeDynamicInsn}.
+         */
+        private Supplier<LambdaExpression<Object>> methodRefParser(Expression body) {
+            MemberExpression call = (MemberExpression) ((InvocationExpression) body).getTarget();
+            Method method = (Method) call.getMember();
+            Expression optionalThis = call.getInstance();
+            ClassLoader methodLoader = loader;
+            return () -> {
+                @SuppressWarnings("unchecked")
+                LambdaExpression<Object> parsed = (LambdaExpression<Object>) ExpressionClassCracker.get()
+                        .lambdaFromClassLoader(methodLoader, Type.getInternalName(method.getDeclaringClass()),
+                                optionalThis, method.getName(), Type.getMethodDescriptor(method));
+                return parsed;
+            };
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package co.streamx.fluent.extree.expression;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Compares expression trees structurally: two trees are equal when they have the same node types, result types,
+ * members, parameter indices and, unless ignored, constant values. Lambda keys are not compared.
+ * <p>
+ * Comparison first checks the memoized {@link Expression#structuralHash(boolean) structural hashes}, so different
+ * trees are usually told apart in O(1).
+ * </p>
+ */
+
+public final class ExpressionComparer {
+
+    private static final long PRIME = 0x9E3779B97F4A7C15L;
+
+    private ExpressionComparer() {
+    }
+
+    /**
+     * Compares the trees structurally, including the constant values.
+     *
+     * @param a expression tree, can be null.
+     * @param b expression tree, can be null.
+     * @return true if the trees are structurally equal.
+     */
+    public static boolean equals(Expression a,
+                                 Expression b) {
+        return equals(a, b, false);
+    }
+
+    /**
+     * Compares the trees structurally.
+     *
+     * @param a                    expression tree, can be null.
+     * @param b                    expression tree, can be null.
+     * @param ignoreConstantValues true to consider constants of the same type equal regardless of their values, e.g.
+     *                             to compare lambdas that differ only by the captured values.
+     * @return true if the trees are structurally equal.
+     */
+    public static boolean equals(Expression a,
+                                 Expression b,
+                                 boolean ignoreConstantValues) {
+        if (a == b)
+            return true;
+        if (a == null || b == null || a.getExpressionType() != b.getExpressionType()
+                || a.getResultType() != b.getResultType()
+                || a.structuralHash(ignoreConstantValues) != b.structuralHash(ignoreConstantValues))
+            return false;
+
+        switch (a.getExpressionType()) {
+            case ExpressionType.Constant:
+                return ignoreConstantValues || constantEquals(((ConstantExpression) a).getValue(),
+                        ((ConstantExpression) b).getValue());
+            case ExpressionType.Parameter:
+                return ((ParameterExpression) a).getIndex() == ((ParameterExpression) b).getIndex();
+            case ExpressionType.Invoke: {
+                InvocationExpression x = (InvocationExpression) a;
+                InvocationExpression y = (InvocationExpression) b;
+                return equals(x.getTarget(), y.getTarget(), ignoreConstantValues)
+                        && equals(x.getArguments(), y.getArguments(), ignoreConstantValues);
+            }
+            case ExpressionType.Lambda: {
+                LambdaExpression<?> x = (LambdaExpression<?>) a;
+                LambdaExpression<?> y = (LambdaExpression<?>) b;
+                return equals(x.getBody(), y.getBody(), ignoreConstantValues)
+                        && equals(x.getParameters(), y.getParameters(), ignoreConstantValues)
+                        && equals(x.getLocals(), y.getLocals(), ignoreConstantValues);
+            }
+            case ExpressionType.Delegate: {
+                DelegateExpression x = (DelegateExpression) a;
+                DelegateExpression y = (DelegateExpression) b;
+                return equals(x.getDelegate(), y.getDelegate(), ignoreConstantValues)
+                        && equals(x.getParameters(), y.getParameters(), ignoreConstantValues);
+            }
+            case ExpressionType.Block:
+                return equals(((BlockExpression) a).getExpressions(), ((BlockExpression) b).getExpressions(),
+                        ignoreConstantValues);
+            case ExpressionType.NewArrayInit:
+                return equals(((NewArrayInitExpression) a).getInitializers(),
+                        ((NewArrayInitExpression) b).getInitializers(), ignoreConstantValues);
+            case ExpressionType.Loop: {
+                LoopExpression x = (LoopExpression) a;
+                LoopExpression y = (LoopExpression) b;
+                return equals(x.getTest(), y.getTest(), ignoreConstantValues)
+                        && equals(x.getVariables(), y.getVariables(), ignoreConstantValues)
+                        && equals(x.getBody(), y.getBody(), ignoreConstantValues);
+            }
+            case ExpressionType.Switch: {
+                SwitchExpression x = (SwitchExpression) a;
+                SwitchExpression y = (SwitchExpression) b;
+                return x.getKeys().equals(y.getKeys())
+                        && equals(x.getSwitchValue(), y.getSwitchValue(), ignoreConstantValues)
+                        && equals(x.getCases(), y.getCases(), ignoreConstantValues)
+                        && equals(x.getDefaultCase(), y.getDefaultCase(), ignoreConstantValues);
+            }
+            default:
+                break;
+        }
+
+        if (a instanceof MemberExpression) {
+            MemberExpression x = (MemberExpression) a;
+            MemberExpression y = (MemberExpression) b;
+            return x.getMember().equals(y.getMember())
+                    && equals(x.getInstance(), y.getInstance(), ignoreConstantValues)
+                    && equals(x.getParameters(), y.getParameters(), ignoreConstantValues);
+        }
+        if (a instanceof BinaryExpression) {
+            BinaryExpression x = (BinaryExpression) a;
+            BinaryExpression y = (BinaryExpression) b;
+            return equals(x.getFirst(), y.getFirst(), ignoreConstantValues)
+                    && equals(x.getSecond(), y.getSecond(), ignoreConstantValues)
+                    && equals(x.getOperator(), y.getOperator(), ignoreConstantValues);
+        }
+        if (a instanceof UnaryExpression)
+            return equals(((UnaryExpression) a).getFirst(), ((UnaryExpression) b).getFirst(), ignoreConstantValues);
+
+        throw new IllegalArgumentException(ExpressionType.toString(a.getExpressionType()));
+    }
+
+    private static boolean equals(List<? extends Expression> a,
+                                  List<? extends Expression> b,
+                                  boolean ignoreConstantValues) {
+        int size = a.size();
+        if (size != b.size())
+            return false;
+        for (int i = 0; i < size; i++)
+            if (!equals(a.get(i), b.get(i), ignoreConstantValues))
+                return false;
+        return true;
+    }
+
+    private static boolean constantEquals(Object a,
+                                          Object b) {
+        if (a instanceof Expression && b instanceof Expression)
+            return equals((Expression) a, (Expression) b, false);
+        return Objects.equals(a, b);
+    }
+
+    /**
+     * Computes the structural hash of the node from the memoized hashes of its children.
+     */
+    static long hash(Expression e,
+                     boolean ignoreConstantValues) {
+        return e.accept(new Hasher(ignoreConstantValues));
+    }
+
+    private static long combine(long h,
+                                long value) {
+        return (h ^ value) * PRIME;
+    }
+
+    private static long typeHash(Class<?> type) {
+        return type.getName().hashCode();
+    }
+
+    private static final class Hasher implements ExpressionVisitor<Long> {
+
+        private final boolean ignoreConstantValues;
+
+        Hasher(boolean ignoreConstantValues) {
+            this.ignoreConstantValues = ignoreConstantValues;
+        }
+
+        private long start(Expression e) {
+            return combine(combine(PRIME, e.getExpressionType()), typeHash(e.getResultType()));
+        }
+
+        private long hash(long h,
+                          Expression e) {
+            return combine(h, e != null ? e.structuralHash(ignoreConstantValues) : 0);
+        }
+
+        private long hash(long h,
+                          List<? extends Expression> list) {
+            h = combine(h, list.size());
+            for (Expression e : list)
+                h = hash(h, e);
+            return h;
+        }
+
+        @Override
+        public Long visit(BinaryExpression e) {
+            return hash(hash(hash(start(e), e.getFirst()), e.getSecond()), e.getOperator());
+        }
+
+        @Override
+        public Long visit(ConstantExpression e) {
+            long h = start(e);
+            if (ignoreConstantValues)
+                return h;
+            Object value = e.getValue();
+            return value instanceof Expression ? combine(h, ((Expression) value).structuralHash())
+                    : combine(h, Objects.hashCode(value));
+        }
+
+        @Override
+        public Long visit(InvocationExpression e) {
+            return hash(hash(start(e), e.getTarget()), e.getArguments());
+        }
+
+        @Override
+        public Long visit(LambdaExpression<?> e) {
+            return hash(hash(hash(start(e), e.getBody()), e.getParameters()), e.getLocals());
+        }
+
+        @Override
+        public Long visit(DelegateExpression e) {
+            return hash(hash(start(e), e.getDelegate()), e.getParameters());
+        }
+
+        @Override
+        public Long visit(MemberExpression e) {
+            long h = combine(start(e), e.getMember().hashCode());
+            return hash(hash(h, e.getInstance()), e.getParameters());
+        }
+
+        @Override
+        public Long visit(ParameterExpression e) {
+            return combine(start(e), e.getIndex());
+        }
+
+        @Override
+        public Long visit(UnaryExpression e) {
+            return hash(start(e), e.getFirst());
+        }
+
+        @Override
+        public Long visit(BlockExpression e) {
+            return hash(start(e), e.getExpressions());
+        }
+
+        @Override
+        public Long visit(NewArrayInitExpression e) {
+            return hash(start(e), e.getInitializers());
+        }
+
+        @Override
+        public Long visit(LoopExpression e) {
+            return hash(hash(hash(start(e), e.getTest()), e.getVariables()), e.getBody());
+        }
+
+        @Override
+        public Long visit(SwitchExpression e) {
+            long h = combine(hash(start(e), e.getSwitchValue()), e.getKeys().hashCode());
+            return hash(hash(h, e.getCases()), e.getDefaultCase());
+        }
+    }
+}
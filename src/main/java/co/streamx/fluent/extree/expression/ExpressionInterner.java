@@ -0,0 +1,241 @@
+package co.streamx.fluent.extree.expression;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hash-conses the nodes created by the {@link Expression} factory methods, so identical nodes are shared. Nodes are
+ * identical when they have the same type, result type and attributes, and the very same child nodes. Since the
+ * children are interned first, structurally equal trees built with the factories are the same instance.
+ * <p>
+ * Parameters, value type constants, members, unary, binary and invocation nodes are interned. Constants of other
+ * types are never shared, since their identity matters. The interned nodes are weakly referenced.
+ * </p>
+ * <p>
+ * Disabled by default, enable with {@code -Dco.streamx.fluent.extree.intern=true}.
+ * </p>
+ */
+
+final class ExpressionInterner {
+
+    static final String INTERN_SYSTEM_PROPERTY = "co.streamx.fluent.extree.intern";
+
+    private static volatile boolean enabled = Boolean.getBoolean(INTERN_SYSTEM_PROPERTY);
+
+    private static final Set<Class<?>> valueClasses = new HashSet<>(Arrays.asList(String.class, Boolean.class,
+            Character.class, Byte.class, Short.class, Integer.class, Long.class, Float.class, Double.class,
+            BigInteger.class, BigDecimal.class));
+
+    private static final Map<Object, Node> nodes = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<Expression> collected = new ReferenceQueue<>();
+
+    private ExpressionInterner() {
+    }
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    static void setEnabled(boolean enabled) {
+        ExpressionInterner.enabled = enabled;
+        if (!enabled)
+            nodes.clear();
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T extends Expression> T intern(T e) {
+        if (!enabled || !isInternable(e))
+            return e;
+
+        expunge();
+
+        Probe probe = new Probe(e);
+        for (;;) {
+            Node node = nodes.get(probe);
+            if (node != null) {
+                Expression interned = node.get();
+                if (interned != null)
+                    return (T) interned;
+                nodes.remove(node, node);
+                continue;
+            }
+
+            node = new Node(e, probe.hash);
+            if (nodes.putIfAbsent(node, node) == null)
+                return e;
+        }
+    }
+
+    private static void expunge() {
+        for (Object node; (node = collected.poll()) != null;)
+            nodes.remove(node, node);
+    }
+
+    private static boolean isInternable(Expression e) {
+        switch (e.getExpressionType()) {
+            case ExpressionType.Constant:
+                Object value = ((ConstantExpression) e).getValue();
+                return value == null || valueClasses.contains(value.getClass()) || value instanceof Class
+                        || value instanceof Enum;
+            case ExpressionType.Parameter:
+            case ExpressionType.FieldAccess:
+            case ExpressionType.MethodAccess:
+            case ExpressionType.Invoke:
+                return true;
+            default:
+                return e instanceof UnaryExpression || e instanceof BinaryExpression;
+        }
+    }
+
+    private static int hash(Expression e) {
+        int h = e.getExpressionType() * 31 + e.getResultType().hashCode();
+        switch (e.getExpressionType()) {
+            case ExpressionType.Constant:
+                return h * 31 + Objects.hashCode(((ConstantExpression) e).getValue());
+            case ExpressionType.Parameter:
+                return h * 31 + ((ParameterExpression) e).getIndex();
+            case ExpressionType.Invoke:
+                InvocationExpression i = (InvocationExpression) e;
+                return hash(h * 31 + System.identityHashCode(i.getTarget()), i.getArguments());
+            default:
+                break;
+        }
+
+        if (e instanceof MemberExpression) {
+            MemberExpression m = (MemberExpression) e;
+            h = h * 31 + m.getMember().hashCode();
+            h = h * 31 + System.identityHashCode(m.getInstance());
+            return hash(h, m.getParameters());
+        }
+        if (e instanceof BinaryExpression) {
+            BinaryExpression b = (BinaryExpression) e;
+            h = h * 31 + System.identityHashCode(b.getFirst());
+            h = h * 31 + System.identityHashCode(b.getSecond());
+            return h * 31 + System.identityHashCode(b.getOperator());
+        }
+        return h * 31 + System.identityHashCode(((UnaryExpression) e).getFirst());
+    }
+
+    private static int hash(int h,
+                            List<? extends Expression> children) {
+        for (Expression child : children)
+            h = h * 31 + System.identityHashCode(child);
+        return h;
+    }
+
+    /**
+     * Compares the nodes shallowly, i.e. the children by identity.
+     */
+    private static boolean identical(Expression a,
+                                     Expression b) {
+        if (a == b)
+            return true;
+        if (a.getClass() != b.getClass() || a.getExpressionType() != b.getExpressionType()
+                || a.getResultType() != b.getResultType())
+            return false;
+
+        switch (a.getExpressionType()) {
+            case ExpressionType.Constant:
+                Object x = ((ConstantExpression) a).getValue();
+                Object y = ((ConstantExpression) b).getValue();
+                return x == y || x != null && y != null && x.getClass() == y.getClass() && x.equals(y);
+            case ExpressionType.Parameter:
+                return ((ParameterExpression) a).getIndex() == ((ParameterExpression) b).getIndex();
+            case ExpressionType.Invoke:
+                InvocationExpression i = (InvocationExpression) a;
+                InvocationExpression j = (InvocationExpression) b;
+                return i.getTarget() == j.getTarget() && identical(i.getArguments(), j.getArguments());
+            default:
+                break;
+        }
+
+        if (a instanceof MemberExpression) {
+            MemberExpression m = (MemberExpression) a;
+            MemberExpression n = (MemberExpression) b;
+            return m.getInstance() == n.getInstance() && m.getMember().equals(n.getMember())
+                    && identical(m.getParameters(), n.getParameters());
+        }
+        if (a instanceof BinaryExpression) {
+            BinaryExpression m = (BinaryExpression) a;
+            BinaryExpression n = (BinaryExpression) b;
+            return m.getFirst() == n.getFirst() && m.getSecond() == n.getSecond()
+                    && m.getOperator() == n.getOperator();
+        }
+        return ((UnaryExpression) a).getFirst() == ((UnaryExpression) b).getFirst();
+    }
+
+    private static boolean identical(List<? extends Expression> a,
+                                     List<? extends Expression> b) {
+        int size = a.size();
+        if (size != b.size())
+            return false;
+        for (int i = 0; i < size; i++)
+            if (a.get(i) != b.get(i))
+                return false;
+        return true;
+    }
+
+    /**
+     * Looks up an interned node identical to the candidate.
+     */
+    private static final class Probe {
+        private final Expression e;
+        private final int hash;
+
+        Probe(Expression e) {
+            this.e = e;
+            this.hash = hash(e);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Node))
+                return false;
+            Expression interned = ((Node) obj).get();
+            return interned != null && identical(e, interned);
+        }
+    }
+
+    /**
+     * Weakly references an interned node. Once collected, is equal only to itself until expunged.
+     */
+    private static final class Node extends WeakReference<Expression> {
+        private final int hash;
+
+        Node(Expression e,
+             int hash) {
+            super(e, collected);
+            this.hash = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Node))
+                return false;
+            Expression a = get();
+            Expression b = ((Node) obj).get();
+            return a != null && b != null && identical(a, b);
+        }
+    }
+}
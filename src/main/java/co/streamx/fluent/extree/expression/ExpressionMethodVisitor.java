@@ -4,14 +4,21 @@ import java.io.Serializable;
 import java.lang.invoke.LambdaMetafactory;
 import java.lang.invoke.SerializedLambda;
 import java.lang.reflect.Field;
+import java.lang.reflect.Member;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import lombok.SneakyThrows;
 import lombok.val;
@@ -44,9 +51,24 @@ final class ExpressionMethodVisitor extends MethodVisitor {
     private ExpressionStack _exprStack;
     private List<Expression> _statements;
     private Expression[] _localVariables;
+    private Class<?>[] _localTypes;
 
     private final HashMap<Label, List<ExpressionStack>> _branches = new HashMap<Label, List<ExpressionStack>>();
 
+    // the labels visited so far, a jump back to one of them is a loop
+    private final HashMap<Label, LoopHeader> _loopHeaders = new HashMap<Label, LoopHeader>();
+    // the assignments and statements in the bytecode order, the ones of a loop body move into the loop
+    private final List<Step> _steps = new ArrayList<Step>();
+    // the branches reassigning a local, valid only if the branch turns out to be a loop body
+    private final Set<ExpressionStack> _reassigningBranches = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    // the case and default labels of the switches, until visited
+    private final HashMap<Label, SwitchHeader> _switchLabels = new HashMap<Label, SwitchHeader>();
+    // the values switched on, the tests comparing them are folded back into switches
+    private final Set<Expression> _switchValues = Collections.newSetFromMap(new IdentityHashMap<>());
+    // the stacks starting at the case and default labels, each must return
+    private final Set<ExpressionStack> _caseBodies = Collections.newSetFromMap(new IdentityHashMap<>());
+
     private final ExpressionClassVisitor _classVisitor;
     private final Class<?>[] _argTypes;
     private final Expression _me;
@@ -95,6 +117,10 @@ final class ExpressionMethodVisitor extends MethodVisitor {
 
     private void go(Label label) {
 
+        // a case jumping forward breaks out of a statement switch
+        if (label != null && _caseBodies.contains(_exprStack))
+            throw unsupportedSwitch();
+
         getBranchUsers(label).add(_exprStack);
 
         _exprStack = null;
@@ -181,17 +207,36 @@ final class ExpressionMethodVisitor extends MethodVisitor {
                     _exprStack.sort(_statements);
                 }
             } else {
-                assert _exprStack.size() == 1;
-                _classVisitor.setResult(_exprStack.pop());
+                Expression result = _exprStack.pop();
+                if (!_exprStack.isEmpty()) {
+                    assert _exprStack.stream().allMatch(e -> e.getExpressionType() == ExpressionType.Loop);
+                    if (_statements == null)
+                        _statements = new ArrayList<>(_exprStack);
+                    else {
+                        _statements.addAll(_exprStack);
+                        _exprStack.sort(_statements);
+                    }
+                }
+                _classVisitor.setResult(buildSwitches(result));
             }
         }
 
+        verifyAssignments();
+
+        if (_statements != null)
+            _statements.replaceAll(this::buildSwitches);
         _classVisitor.setStatements(_statements);
 
+        if (_localVariables != null)
+            Arrays.asList(_localVariables).replaceAll(this::buildSwitches);
         _classVisitor.setLocals(_localVariables != null ? Collections.unmodifiableList(Arrays.asList(_localVariables))
                 : Collections.emptyList());
     }
 
+    private Expression buildSwitches(Expression e) {
+        return e == null || _switchValues.isEmpty() ? e : e.accept(new SwitchBuilder(_switchValues));
+    }
+
     @Override
     public void visitFieldInsn(int opcode,
                                String owner,
@@ -245,9 +290,14 @@ final class ExpressionMethodVisitor extends MethodVisitor {
     }
 
     @Override
-    public void visitIincInsn(int arg0,
-                              int arg1) {
-        throw notLambda(Opcodes.IINC);
+    public void visitIincInsn(int var,
+                              int increment) {
+        if (_me != null)
+            var--;
+
+        var = compensate2SlotsValues(var);
+        store(var, Integer.TYPE,
+                Expression.add(Expression.parameter(Integer.TYPE, var), Expression.constant(increment, Integer.TYPE)));
     }
 
     @Override
@@ -472,7 +522,9 @@ final class ExpressionMethodVisitor extends MethodVisitor {
             case Opcodes.POP2:
                 if (_statements == null)
                     _statements = new ArrayList<>();
-                _statements.add(_exprStack.pop());
+                Expression statement = _exprStack.pop();
+                _statements.add(statement);
+                _steps.add(new Step(null, statement, _exprStack, false));
                 return;
             case Opcodes.AASTORE:
             case Opcodes.BASTORE:
@@ -530,6 +582,14 @@ final class ExpressionMethodVisitor extends MethodVisitor {
     @Override
     public void visitJumpInsn(int opcode,
                               Label label) {
+        if (_loopHeaders.containsKey(label)) {
+            if (opcode != Opcodes.GOTO)
+                throw new IllegalArgumentException("Only while and for loops are supported.");
+
+            loop(label);
+            return;
+        }
+
         int etype;
         switch (opcode) {
             case Opcodes.GOTO:
@@ -617,8 +677,8 @@ final class ExpressionMethodVisitor extends MethodVisitor {
                 ExpressionStack parentStack = firstB.getParent();
                 parentStack.pop(); // branch
 
-                Expression right = firstB.getTrue().pop();
-                Expression left = firstB.getFalse().pop();
+                Expression right = branchValue(firstB.getTrue());
+                Expression left = branchValue(firstB.getFalse());
                 assert normalizePrimitive(right.getResultType()) == normalizePrimitive(
                         left.getResultType()) : "branches must evaluate to same type";
                 parentStack.push(Expression.condition(firstB.getTest(), right, left));
@@ -708,41 +768,213 @@ final class ExpressionMethodVisitor extends MethodVisitor {
         return null;
     }
 
+    /**
+     * @return the value the branch evaluates to, preceded by the loops the branch runs first, e.g. the loops following
+     *         an early return.
+     */
+    private static Expression branchValue(ExpressionStack branch) {
+        Expression value = branch.pop();
+        if (branch.isEmpty())
+            return value;
+
+        List<Expression> block = new ArrayList<>(branch.size() + 1);
+        for (Expression e : branch) {
+            if (e.getExpressionType() != ExpressionType.Loop)
+                throw unsupportedLoop();
+            block.add(e);
+        }
+        block.add(value);
+        return Expression.block(value.getResultType(), Collections.unmodifiableList(block));
+    }
+
+    /**
+     * Merges the branches from the last one backwards. A branch that cannot be merged with its predecessor yet is
+     * kept pending and retried against every merge result, the closest one first, e.g. the default of a switch waits
+     * until the cases of a nested switch before it are merged.
+     */
     private static ExpressionStack reduce(List<ExpressionStack> bl) {
-        int index = bl.size() - 1;
-        ExpressionStack second = bl.remove(index--);
-        if (index < 0)
-            return second;
-
-        ExpressionStack first = bl.get(index);
-        ExpressionStack reduced = reduce(first, second);
-        if (reduced != null) {
-            bl.set(index, reduced);
-            return reduce(bl);
+        Deque<ExpressionStack> pending = new ArrayDeque<>();
+        for (int i = bl.size() - 1; i >= 0; i--) {
+            ExpressionStack reduced = bl.get(i);
+            ExpressionStack merged;
+            while (!pending.isEmpty() && (merged = reduce(reduced, pending.peek())) != null) {
+                pending.pop();
+                reduced = merged;
+            }
+            pending.push(reduced);
         }
 
-        first = reduce(bl);
+        if (pending.size() > 1)
+            throw new IllegalArgumentException("Unsupported control flow, the branches do not merge to one value.");
 
-        return reduce(first, second);
+        return pending.pop();
     }
 
     @Override
     public void visitLabel(Label label) {
+        if (label != null)
+            switchLabel(label);
+
         List<ExpressionStack> bl = _branches.remove(label);
-        if (bl == null)
-            return;
+        if (bl != null) {
+            for (int i = bl.size() - 1; i >= 0; i--) {
+                ExpressionStack es = bl.get(i);
+                if (es.isReduced())
+                    bl.remove(i);
+            }
 
-        for (int i = bl.size() - 1; i >= 0; i--) {
-            ExpressionStack es = bl.get(i);
-            if (es.isReduced())
-                bl.remove(i);
+            if (_exprStack != null)
+                bl.add(_exprStack);
+
+            // a loop body never reaches a label where branches merge
+            for (ExpressionStack es : bl)
+                if (_reassigningBranches.contains(es))
+                    throw notEffectivelyFinal();
+
+            _exprStack = reduce(bl);
+            assert _exprStack != null;
+        }
+
+        if (label != null && _exprStack != null)
+            _loopHeaders.put(label, new LoopHeader(_exprStack, _statements != null ? _statements.size() : 0,
+                    _steps.size()));
+    }
+
+    /**
+     * Folds the code from the loop header up to the jump back into a {@link LoopExpression}. Supports the loops javac
+     * emits for {@code while} and {@code for}: the header tests the condition (possibly a conjunction) and jumps out,
+     * the body assigns locals, calls methods and runs nested loops unconditionally, then jumps back to the header.
+     */
+    private void loop(Label label) {
+        LoopHeader header = _loopHeaders.remove(label);
+        ExpressionStack body = _exprStack;
+        if (body == null)
+            throw unsupportedLoop();
+
+        for (Expression e : body)
+            if (e.getResultType() != Void.TYPE || e instanceof BranchExpression)
+                throw unsupportedLoop();
+
+        // the test is the chain of branches leading from the header to the body, their other sides exit the loop
+        Expression test = null;
+        List<ExpressionStack> exits = new ArrayList<>();
+        for (ExpressionStack stack = body; stack != header.stack;) {
+            BranchExpression branch = stack.getParent();
+            if (branch == null || branch.getTrue() != stack || !branch.getFalse().isEmpty())
+                throw unsupportedLoop();
+
+            ExpressionStack parent = branch.getParent();
+            if (parent.isEmpty() || parent.peek() != branch || (parent != header.stack && parent.size() != 1))
+                throw unsupportedLoop();
+
+            test = test == null ? branch.getTest() : Expression.logicalAnd(branch.getTest(), test);
+            exits.add(branch.getFalse());
+            stack = parent;
+        }
+
+        if (test == null || header.stack.size() != header.size + 1)
+            throw unsupportedLoop();
+
+        Label exit = null;
+        for (Map.Entry<Label, List<ExpressionStack>> entry : _branches.entrySet()) {
+            if (containsSame(entry.getValue(), exits.get(0))) {
+                exit = entry.getKey();
+                break;
+            }
         }
 
-        if (_exprStack != null)
-            bl.add(_exprStack);
+        List<ExpressionStack> exitBranches = _branches.get(exit);
+        if (exitBranches == null || exitBranches.size() != exits.size())
+            throw unsupportedLoop();
+        for (ExpressionStack e : exits)
+            if (!containsSame(exitBranches, e))
+                throw unsupportedLoop();
+        _branches.remove(exit);
+
+        List<Step> steps = _steps.subList(header.steps, _steps.size());
+        List<ParameterExpression> variables = new ArrayList<>(steps.size());
+        List<Expression> values = new ArrayList<>(steps.size());
+        for (Step step : steps) {
+            if (step.stack != body)
+                throw unsupportedLoop();
+
+            variables.add(step.variable);
+            values.add(step.value);
+            if (step.declaration) // declared in the body, must not be evaluated upfront
+                _localVariables[step.variable.getIndex() - _argTypes.length] = null;
+        }
+        steps.clear();
+
+        if (_statements != null)
+            _statements.subList(header.statements, _statements.size()).clear();
+
+        header.stack.pop(); // branch
+        _exprStack = header.stack;
+
+        LoopExpression loop = Expression.loop(test, Collections.unmodifiableList(variables),
+                Collections.unmodifiableList(values));
+        _exprStack.push(loop);
+        _steps.add(new Step(null, loop, _exprStack, false));
+    }
+
+    private static boolean containsSame(List<ExpressionStack> stacks,
+                                        ExpressionStack stack) {
+        for (ExpressionStack s : stacks)
+            if (s == stack)
+                return true;
+        return false;
+    }
+
+    private static IllegalArgumentException unsupportedLoop() {
+        return new IllegalArgumentException("Unsupported loop. Only while and for loops with unconditional"
+                + " assignments in the body and without break, continue or return are supported.");
+    }
+
+    /**
+     * Locals are evaluated upfront, hence only the loops may reassign them and the locals declared after a loop must
+     * not depend on it.
+     */
+    private void verifyAssignments() {
+        Set<Integer> loopVariables = new HashSet<>();
+        for (Step step : _steps) {
+            if (step.value.getExpressionType() == ExpressionType.Loop) {
+                collectVariables((LoopExpression) step.value, loopVariables);
+            } else if (step.variable != null) {
+                if (!loopVariables.isEmpty() && (!step.declaration || references(step.value, loopVariables)))
+                    throw new IllegalArgumentException(
+                            "Local variable cannot be assigned after a loop. Move the code following the loop into"
+                                    + " the return expression.");
+                if (!step.declaration)
+                    throw notEffectivelyFinal();
+            }
+        }
+    }
+
+    private static IllegalArgumentException notEffectivelyFinal() {
+        return new IllegalArgumentException("Local variable must be final or effectively final.");
+    }
 
-        _exprStack = reduce(bl);
-        assert _exprStack != null;
+    private static void collectVariables(LoopExpression loop,
+                                         Set<Integer> variables) {
+        for (ParameterExpression variable : loop.getVariables())
+            if (variable != null)
+                variables.add(variable.getIndex());
+        for (Expression e : loop.getBody())
+            if (e.getExpressionType() == ExpressionType.Loop)
+                collectVariables((LoopExpression) e, variables);
+    }
+
+    private static boolean references(Expression e,
+                                      Set<Integer> variables) {
+        boolean[] found = new boolean[1];
+        e.accept(new SimpleExpressionVisitor() {
+            @Override
+            public Expression visit(ParameterExpression p) {
+                found[0] |= variables.contains(p.getIndex());
+                return p;
+            }
+        });
+        return found[0];
     }
 
     @Override
@@ -778,7 +1010,137 @@ final class ExpressionMethodVisitor extends MethodVisitor {
     public void visitLookupSwitchInsn(Label dflt,
                                       int[] keys,
                                       Label[] labels) {
-        throw notLambda(Opcodes.LOOKUPSWITCH);
+        switchInsn(dflt, keys, labels);
+    }
+
+    /**
+     * Registers the case labels of the switch. The switch is parsed as a chain of branches, one per case label, each
+     * created when its label is visited, so the chain follows the code order. The chain reduces to nested conditionals
+     * which {@link SwitchBuilder} folds back into a {@link SwitchExpression}.
+     */
+    private void switchInsn(Label dflt,
+                            int[] keys,
+                            Label[] labels) {
+        Expression value = _exprStack.pop();
+
+        // javac switches on a string hash code first, then on the index of the matching case
+        if (isStringHashCode(value))
+            throw unsupportedSwitch();
+
+        // javac switches on an enum through a synthetic map from the ordinal to the case key
+        int[] switchMap = switchMap(value);
+        if (switchMap != null)
+            value = ((BinaryExpression) value).getSecond();
+
+        Map<Label, List<Integer>> cases = new LinkedHashMap<>();
+        for (int i = 0; i < keys.length; i++) {
+            Label label = labels[i];
+            if (label == dflt)
+                continue;
+            List<Integer> caseKeys = cases.computeIfAbsent(label, x -> new ArrayList<>());
+            if (switchMap == null)
+                caseKeys.add(keys[i]);
+            else
+                for (int ordinal = 0; ordinal < switchMap.length; ordinal++)
+                    if (switchMap[ordinal] == keys[i])
+                        caseKeys.add(ordinal);
+        }
+
+        SwitchHeader header = new SwitchHeader(value, _exprStack, cases, dflt);
+        for (Label label : cases.keySet()) {
+            if (cases.get(label).isEmpty() || _switchLabels.put(label, header) != null)
+                throw unsupportedSwitch();
+        }
+        if (_switchLabels.put(dflt, header) != null)
+            throw unsupportedSwitch();
+
+        _switchValues.add(value);
+        _exprStack = null;
+    }
+
+    /**
+     * @return the map from the ordinal to the case key if the value is a lookup of the enum ordinal in it.
+     */
+    private static int[] switchMap(Expression value) {
+        if (value.getExpressionType() != ExpressionType.ArrayIndex)
+            return null;
+
+        BinaryExpression arrayIndex = (BinaryExpression) value;
+        Expression map = arrayIndex.getFirst();
+        Expression ordinal = arrayIndex.getSecond();
+        if (map.getExpressionType() != ExpressionType.Constant
+                || !(((ConstantExpression) map).getValue() instanceof int[])
+                || ordinal.getExpressionType() != ExpressionType.Invoke)
+            return null;
+
+        InvocableExpression target = ((InvocationExpression) ordinal).getTarget();
+        if (target.getExpressionType() != ExpressionType.MethodAccess)
+            return null;
+
+        Member member = ((MemberExpression) target).getMember();
+        if (member.getDeclaringClass() != Enum.class || !member.getName().equals("ordinal"))
+            return null;
+
+        return (int[]) ((ConstantExpression) map).getValue();
+    }
+
+    private static boolean isStringHashCode(Expression value) {
+        if (value.getExpressionType() != ExpressionType.Invoke)
+            return false;
+
+        InvocableExpression target = ((InvocationExpression) value).getTarget();
+        if (target.getExpressionType() != ExpressionType.MethodAccess)
+            return false;
+
+        Member member = ((MemberExpression) target).getMember();
+        return member.getDeclaringClass() == String.class && member.getName().equals("hashCode");
+    }
+
+    /**
+     * Adds the branch of the case to the chain of its switch, or hands the chain over to the default label.
+     */
+    private void switchLabel(Label label) {
+        SwitchHeader header = _switchLabels.remove(label);
+        if (header == null)
+            return;
+
+        if (label == header.dflt) {
+            if (!header.cases.isEmpty())
+                throw unsupportedSwitch();
+            getBranchUsers(label).add(header.chain);
+            _caseBodies.add(header.chain);
+            return;
+        }
+
+        Expression test = null;
+        for (int key : header.cases.remove(label)) {
+            Expression notEqual = Expression.notEqual(header.value,
+                    Expression.constant(caseKey(key, header.value.getResultType()), header.value.getResultType()));
+            test = test == null ? notEqual : Expression.logicalAnd(test, notEqual);
+        }
+
+        ExpressionStack current = _exprStack;
+        _exprStack = header.chain;
+        branch(label, test);
+        _caseBodies.add(((BranchExpression) header.chain.peek()).getFalse());
+        header.chain = _exprStack;
+        _exprStack = current;
+    }
+
+    private static Object caseKey(int key,
+                                  Class<?> type) {
+        if (type == Character.TYPE)
+            return (char) key;
+        if (type == Short.TYPE)
+            return (short) key;
+        if (type == Byte.TYPE)
+            return (byte) key;
+        return key;
+    }
+
+    private static IllegalArgumentException unsupportedSwitch() {
+        return new IllegalArgumentException("Unsupported switch. Only switches on integral or enum values, returning"
+                + " from every case and with the default case following the other cases, are supported.");
     }
 
     @Override
@@ -1052,6 +1414,9 @@ final class ExpressionMethodVisitor extends MethodVisitor {
                 throw new IllegalArgumentException("opcode: " + opcode);
         }
 
+        if (e.getResultType() == Void.TYPE)
+            _steps.add(new Step(null, e, _exprStack, false));
+
         _exprStack.push(e);
     }
 
@@ -1098,7 +1463,10 @@ final class ExpressionMethodVisitor extends MethodVisitor {
                                      int max,
                                      Label dflt,
                                      Label... labels) {
-        throw notLambda(Opcodes.TABLESWITCH);
+        int[] keys = new int[labels.length];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = min + i;
+        switchInsn(dflt, keys, labels);
     }
 
     @Override
@@ -1163,23 +1531,19 @@ final class ExpressionMethodVisitor extends MethodVisitor {
         Class<?> type;
         switch (opcode) {
             case Opcodes.ISTORE:
+                store(var, Integer.TYPE, _exprStack.pop());
+                return;
             case Opcodes.LSTORE:
+                store(var, Long.TYPE, _exprStack.pop());
+                return;
             case Opcodes.FSTORE:
+                store(var, Float.TYPE, _exprStack.pop());
+                return;
             case Opcodes.DSTORE:
+                store(var, Double.TYPE, _exprStack.pop());
+                return;
             case Opcodes.ASTORE:
-                if (_localVariables == null)
-                    _localVariables = new Expression[10];
-
-                var -= _argTypes.length;
-
-                if (var < 0)
-                    throw new IllegalArgumentException("Parameter cannot be reassigned. Use local variables.");
-                else if (var >= _localVariables.length)
-                    _localVariables = Arrays.copyOf(_localVariables, var >> 1);
-                else if (_localVariables[var] != null)
-                    throw new IllegalArgumentException("Local variable must be final or effectively final.");
-
-                _localVariables[var] = _exprStack.pop();
+                store(var, null, _exprStack.pop());
                 return;
             case Opcodes.RET:
             default:
@@ -1201,7 +1565,7 @@ final class ExpressionMethodVisitor extends MethodVisitor {
                     type = _argTypes[var];
                 else {
                     int localVar = var - _argTypes.length;
-                    type = _localVariables[localVar].getResultType();
+                    type = _localTypes[localVar];
                 }
                 break;
         }
@@ -1209,6 +1573,50 @@ final class ExpressionMethodVisitor extends MethodVisitor {
         _exprStack.push(Expression.parameter(type, var));
     }
 
+    /**
+     * The first assignment of a local declares it, the expression is evaluated upfront. Reassignments are valid in
+     * loops only, see {@link #verifyAssignments()}. A reassignment in a branch is rejected when the branch merges with
+     * another one, e.g. in {@code if (c) r = 1; else r = 2;}.
+     */
+    private void store(int var,
+                       Class<?> type,
+                       Expression value) {
+        if (_localVariables == null) {
+            _localVariables = new Expression[10];
+            _localTypes = new Class<?>[10];
+        }
+
+        int local = var - _argTypes.length;
+
+        if (local < 0)
+            throw new IllegalArgumentException("Parameter cannot be reassigned. Use local variables.");
+        else if (local >= _localVariables.length) {
+            int length = Math.max(local + 1, _localVariables.length << 1);
+            _localVariables = Arrays.copyOf(_localVariables, length);
+            _localTypes = Arrays.copyOf(_localTypes, length);
+        }
+
+        boolean declaration = _localVariables[local] == null;
+        if (declaration) {
+            _localVariables[local] = value;
+            _localTypes[local] = type != null ? type : value.getResultType();
+        }
+
+        if (!declaration && _exprStack.getParent() != null)
+            _reassigningBranches.add(_exprStack);
+
+        // the steps are evaluated in order, a value read before the store would see the stored one, e.g. sum += i++
+        if (!declaration) {
+            Set<Integer> variable = Collections.singleton(var);
+            for (Expression e : _exprStack)
+                if (e.getExpressionType() != ExpressionType.Loop && references(e, variable))
+                    throw new IllegalArgumentException(
+                            "Local variable cannot be assigned while its previous value is in use, e.g. by i++.");
+        }
+
+        _steps.add(new Step(Expression.parameter(_localTypes[local], var), value, _exprStack, declaration));
+    }
+
     private int compensate2SlotsValues(int var) {
         // 64 bit values hold 2 slots on the stack - compensate it
         for (int i = 0; i < var && i < _argTypes.length; i++) {
@@ -1240,4 +1648,143 @@ final class ExpressionMethodVisitor extends MethodVisitor {
         return new IllegalArgumentException("Not a lambda expression. Opcode " + opcodeName + " is illegal.");
     }
 
+    /**
+     * A switch whose case labels are not all visited yet.
+     */
+    private static final class SwitchHeader {
+        private final Expression value;
+        private final Map<Label, List<Integer>> cases;
+        private final Label dflt;
+        // the stack falling through the case branches created so far
+        private ExpressionStack chain;
+
+        SwitchHeader(Expression value,
+                     ExpressionStack chain,
+                     Map<Label, List<Integer>> cases,
+                     Label dflt) {
+            this.value = value;
+            this.chain = chain;
+            this.cases = cases;
+            this.dflt = dflt;
+        }
+    }
+
+    /**
+     * Folds the chains of conditionals testing a switch value into {@link SwitchExpression}s.
+     */
+    private static final class SwitchBuilder extends SimpleExpressionVisitor {
+        private final Set<Expression> values;
+
+        SwitchBuilder(Set<Expression> values) {
+            this.values = values;
+        }
+
+        @Override
+        public Expression visit(BinaryExpression e) {
+            if (e.getExpressionType() != ExpressionType.Conditional)
+                return super.visit(e);
+
+            Expression value = switchValue(e.getOperator());
+            if (value == null)
+                return super.visit(e);
+
+            List<Integer> keys = new ArrayList<>();
+            List<Expression> cases = new ArrayList<>();
+            Set<Integer> seen = new HashSet<>();
+            Expression rest = e;
+            while (rest.getExpressionType() == ExpressionType.Conditional) {
+                BinaryExpression conditional = (BinaryExpression) rest;
+                if (switchValue(conditional.getOperator()) != value)
+                    break;
+
+                List<Integer> caseKeys = new ArrayList<>();
+                caseKeys(conditional.getOperator(), caseKeys);
+                if (!seen.addAll(caseKeys))
+                    break;
+
+                Expression body = conditional.getSecond().accept(this);
+                for (Integer key : caseKeys) {
+                    keys.add(key);
+                    cases.add(body);
+                }
+                rest = conditional.getFirst();
+            }
+
+            return Expression.switchExpression(e.getResultType(), value, Collections.unmodifiableList(keys),
+                    Collections.unmodifiableList(cases), rest.accept(this));
+        }
+
+        /**
+         * @return the switch value if the test holds for the values other than some case keys, null otherwise.
+         */
+        private Expression switchValue(Expression test) {
+            switch (test.getExpressionType()) {
+                case ExpressionType.NotEqual: {
+                    BinaryExpression b = (BinaryExpression) test;
+                    return values.contains(b.getFirst()) && b.getSecond().getExpressionType() == ExpressionType.Constant
+                            ? b.getFirst()
+                            : null;
+                }
+                case ExpressionType.LogicalAnd: {
+                    BinaryExpression b = (BinaryExpression) test;
+                    Expression value = switchValue(b.getFirst());
+                    return value != null && switchValue(b.getSecond()) == value ? value : null;
+                }
+                default:
+                    return null;
+            }
+        }
+
+        private static void caseKeys(Expression test,
+                                     List<Integer> keys) {
+            BinaryExpression b = (BinaryExpression) test;
+            if (test.getExpressionType() == ExpressionType.LogicalAnd) {
+                caseKeys(b.getFirst(), keys);
+                caseKeys(b.getSecond(), keys);
+                return;
+            }
+
+            Object key = ((ConstantExpression) b.getSecond()).getValue();
+            keys.add(key instanceof Character ? (int) (Character) key : ((Number) key).intValue());
+        }
+    }
+
+    /**
+     * The state at a label, in case it turns out to be a loop header.
+     */
+    private static final class LoopHeader {
+        private final ExpressionStack stack;
+        private final int size;
+        private final int statements;
+        private final int steps;
+
+        LoopHeader(ExpressionStack stack,
+                   int statements,
+                   int steps) {
+            this.stack = stack;
+            this.size = stack.size();
+            this.statements = statements;
+            this.steps = steps;
+        }
+    }
+
+    /**
+     * An assignment of a local, or a statement if the variable is null.
+     */
+    private static final class Step {
+        private final ParameterExpression variable;
+        private final Expression value;
+        private final ExpressionStack stack;
+        private final boolean declaration;
+
+        Step(ParameterExpression variable,
+             Expression value,
+             ExpressionStack stack,
+             boolean declaration) {
+            this.variable = variable;
+            this.value = value;
+            this.stack = stack;
+            this.declaration = declaration;
+        }
+    }
 }
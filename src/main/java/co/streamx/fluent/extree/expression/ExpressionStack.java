@@ -1,8 +1,9 @@
 package co.streamx.fluent.extree.expression;
 
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * 
@@ -14,34 +15,16 @@ final class ExpressionStack extends ArrayList<Expression> {
 	private BranchExpression _parent;
 	private boolean _reduced;
 
-    private final List<Expression> ordered = new ArrayList<>(64);
-
-    private static final Expression[] EmptyExpressionArray = new Expression[0];
+    // the push count when each expression was last pushed
+    private final Map<Expression, Integer> _pushOrder = new IdentityHashMap<>(64);
+    private int _pushes;
 
+    /**
+     * Orders the expressions by the time they were last pushed.
+     */
     void sort(List<Expression> expressions) {
-
-//        Map<Expression, Integer> insertionOrder = new HashMap<>();
-//        for (Expression e : expressions)
-//            insertionOrder.put(e, ordered.lastIndexOf(e));
-//
-//        expressions.sort((e1,
-//                          e2) -> insertionOrder.get(e1) - insertionOrder.get(e2));
-
-        Expression[] copy = expressions.toArray(EmptyExpressionArray);
-        int[] indices = new int[copy.length];
-        Integer[] orders = new Integer[copy.length];
-
-        for (int i = 0; i < copy.length; i++) {
-            orders[i] = i;
-            indices[i] = ordered.lastIndexOf(copy[i]);
-        }
-
-        Arrays.sort(orders, (i1,
-                             i2) -> indices[i1] - indices[i2]);
-
-        for (int i = 0; i < copy.length; i++)
-            expressions.set(i, copy[orders[i]]);
-
+        expressions.sort((e1,
+                          e2) -> _pushOrder.getOrDefault(e1, -1) - _pushOrder.getOrDefault(e2, -1));
     }
 
 	ExpressionStack() {
@@ -70,7 +53,7 @@ final class ExpressionStack extends ArrayList<Expression> {
 
 	void push(Expression item) {
 		add(item);
-        ordered.add(item);
+        _pushOrder.put(item, _pushes++);
 	}
 
 	int getDepth() {
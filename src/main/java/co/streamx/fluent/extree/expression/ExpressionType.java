@@ -184,6 +184,16 @@ public final class ExpressionType {
      * Represents a block that contains a sequence of expressions.
      */
     public static final int Block = InstanceOf + 1;
+
+    /**
+     * A node that represents a loop.
+     */
+    public static final int Loop = Block + 1;
+
+    /**
+     * A node that represents a switch over an integral value.
+     */
+    public static final int Switch = Loop + 1;
     // /**
     // * A node that represents an arithmetic absolute value operation.
     // */
@@ -191,7 +201,7 @@ public final class ExpressionType {
     /**
      * Holds the maximum expression type value.
      */
-    public static final int MaxExpressionTypeValue = Block;
+    public static final int MaxExpressionTypeValue = Switch;
 
     /**
      * @param expressionType Expression type.
@@ -265,6 +275,10 @@ public final class ExpressionType {
             return "-";
         case InstanceOf:
             return "instanceof";
+        case Loop:
+            return "while";
+        case Switch:
+            return "switch";
         // case UnaryPlus:
         // return "+";
         default:
@@ -87,4 +87,26 @@ public interface ExpressionVisitor<T> {
      * @return T
      */
     T visit(NewArrayInitExpression e);
+
+    /**
+     * Visits the {@link LoopExpression}. Throws {@link UnsupportedOperationException} by default, so the visitors
+     * written before loops were parsed keep compiling.
+     * 
+     * @param e {@link LoopExpression} to visit.
+     * @return T
+     */
+    default T visit(LoopExpression e) {
+        throw new UnsupportedOperationException("LoopExpression is not supported by " + getClass().getName());
+    }
+
+    /**
+     * Visits the {@link SwitchExpression}. Throws {@link UnsupportedOperationException} by default, so the visitors
+     * written before switches were parsed keep compiling.
+     * 
+     * @param e {@link SwitchExpression} to visit.
+     * @return T
+     */
+    default T visit(SwitchExpression e) {
+        throw new UnsupportedOperationException("SwitchExpression is not supported by " + getClass().getName());
+    }
 }
@@ -0,0 +1,200 @@
+package co.streamx.fluent.extree.expression;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Finds the getters of a class that return one of its instance fields and do nothing else, i.e. whose code is
+ * {@code return this.field;}.
+ */
+
+final class GetterClassVisitor extends ClassVisitor {
+
+    private final Set<String> _getters = new HashSet<>();
+    private String _name;
+
+    private GetterClassVisitor() {
+        super(Opcodes.ASM9);
+    }
+
+    /**
+     * @return the name and descriptor of each field getter declared by the class, empty if its class file cannot be
+     *         read.
+     */
+    static Set<String> findFieldGetters(Class<?> type) {
+        ClassLoader classLoader = type.getClassLoader();
+        if (classLoader == null)
+            classLoader = ClassLoader.getSystemClassLoader();
+
+        byte[] classFile;
+        try (InputStream in = classLoader.getResourceAsStream(type.getName().replace('.', '/') + ".class")) {
+            if (in == null)
+                return Collections.emptySet();
+            classFile = in.readAllBytes();
+        } catch (IOException e) {
+            return Collections.emptySet();
+        }
+
+        GetterClassVisitor visitor = new GetterClassVisitor();
+        try {
+            new ClassReader(classFile).accept(visitor, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        } catch (RuntimeException e) {
+            return Collections.emptySet();
+        }
+        return visitor._getters;
+    }
+
+    static String getterKey(String name,
+                            String desc) {
+        return name + desc;
+    }
+
+    @Override
+    public void visit(int version,
+                      int access,
+                      String name,
+                      String signature,
+                      String superName,
+                      String[] interfaces) {
+        _name = name;
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access,
+                                     String name,
+                                     String desc,
+                                     String signature,
+                                     String[] exceptions) {
+        if ((access & (Opcodes.ACC_STATIC | Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE)) != 0
+                || !desc.startsWith("()") || desc.endsWith(")V"))
+            return null;
+        return new FieldReadVisitor(getterKey(name, desc));
+    }
+
+    /**
+     * Matches {@code aload_0; getfield <own field>; <x>return}.
+     */
+    private final class FieldReadVisitor extends MethodVisitor {
+        private final String _key;
+        private int _step;
+
+        FieldReadVisitor(String key) {
+            super(Opcodes.ASM9);
+            _key = key;
+        }
+
+        private void insn(boolean expected) {
+            _step = expected && _step >= 0 ? _step + 1 : -1;
+        }
+
+        @Override
+        public void visitVarInsn(int opcode,
+                                 int var) {
+            insn(_step == 0 && opcode == Opcodes.ALOAD && var == 0);
+        }
+
+        @Override
+        public void visitFieldInsn(int opcode,
+                                   String owner,
+                                   String name,
+                                   String desc) {
+            insn(_step == 1 && opcode == Opcodes.GETFIELD && owner.equals(_name));
+        }
+
+        @Override
+        public void visitInsn(int opcode) {
+            insn(_step == 2 && opcode >= Opcodes.IRETURN && opcode <= Opcodes.ARETURN);
+        }
+
+        @Override
+        public void visitIntInsn(int opcode,
+                                 int operand) {
+            insn(false);
+        }
+
+        @Override
+        public void visitTypeInsn(int opcode,
+                                  String type) {
+            insn(false);
+        }
+
+        @Override
+        public void visitMethodInsn(int opcode,
+                                    String owner,
+                                    String name,
+                                    String desc,
+                                    boolean itf) {
+            insn(false);
+        }
+
+        @Override
+        public void visitInvokeDynamicInsn(String name,
+                                           String desc,
+                                           Handle bsm,
+                                           Object... bsmArgs) {
+            insn(false);
+        }
+
+        @Override
+        public void visitJumpInsn(int opcode,
+                                  Label label) {
+            insn(false);
+        }
+
+        @Override
+        public void visitLdcInsn(Object value) {
+            insn(false);
+        }
+
+        @Override
+        public void visitIincInsn(int var,
+                                  int increment) {
+            insn(false);
+        }
+
+        @Override
+        public void visitTableSwitchInsn(int min,
+                                         int max,
+                                         Label dflt,
+                                         Label... labels) {
+            insn(false);
+        }
+
+        @Override
+        public void visitLookupSwitchInsn(Label dflt,
+                                          int[] keys,
+                                          Label[] labels) {
+            insn(false);
+        }
+
+        @Override
+        public void visitMultiANewArrayInsn(String desc,
+                                            int dims) {
+            insn(false);
+        }
+
+        @Override
+        public void visitTryCatchBlock(Label start,
+                                       Label end,
+                                       Label handler,
+                                       String type) {
+            insn(false);
+        }
+
+        @Override
+        public void visitEnd() {
+            if (_step == 3)
+                _getters.add(_key);
+        }
+    }
+}
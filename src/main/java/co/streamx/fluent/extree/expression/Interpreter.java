@@ -1,13 +1,11 @@
 package co.streamx.fluent.extree.expression;
 
 import static co.streamx.fluent.extree.function.Functions.add;
-import static co.streamx.fluent.extree.function.Functions.and;
 import static co.streamx.fluent.extree.function.Functions.bitwiseAnd;
 import static co.streamx.fluent.extree.function.Functions.bitwiseNot;
 import static co.streamx.fluent.extree.function.Functions.bitwiseOr;
 import static co.streamx.fluent.extree.function.Functions.constant;
 import static co.streamx.fluent.extree.function.Functions.divide;
-import static co.streamx.fluent.extree.function.Functions.equal;
 import static co.streamx.fluent.extree.function.Functions.greaterThan;
 import static co.streamx.fluent.extree.function.Functions.greaterThanOrEqual;
 import static co.streamx.fluent.extree.function.Functions.iif;
@@ -17,18 +15,18 @@ import static co.streamx.fluent.extree.function.Functions.lessThanOrEqual;
 import static co.streamx.fluent.extree.function.Functions.modulo;
 import static co.streamx.fluent.extree.function.Functions.multiply;
 import static co.streamx.fluent.extree.function.Functions.negate;
-import static co.streamx.fluent.extree.function.Functions.not;
-import static co.streamx.fluent.extree.function.Functions.or;
 import static co.streamx.fluent.extree.function.Functions.shiftLeft;
 import static co.streamx.fluent.extree.function.Functions.shiftRight;
 import static co.streamx.fluent.extree.function.Functions.subtract;
 import static co.streamx.fluent.extree.function.Functions.xor;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.AccessibleObject;
 import java.lang.reflect.Array;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Member;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
@@ -36,11 +34,21 @@ import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiFunction;
 import java.util.function.BiPredicate;
 import java.util.function.Function;
+import java.util.function.IntFunction;
 import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
 import java.util.stream.Collectors;
 
 /**
@@ -52,6 +60,15 @@ final class Interpreter implements ExpressionVisitor<Function<Object[], ?>> {
     static final Interpreter Instance = new Interpreter();
     private static final Object[] emptyArray = new Object[0];
 
+    private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+    // keyed by the declaring class, so that the handles are released together with it
+    private static final ClassValue<Map<Member, MethodHandle>> memberHandles = new ClassValue<>() {
+        @Override
+        protected Map<Member, MethodHandle> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
     private Interpreter() {
     }
 
@@ -59,10 +76,6 @@ final class Interpreter implements ExpressionVisitor<Function<Object[], ?>> {
         return pp -> source.apply(pp, pp);
     }
 
-    private Function<Object[], Boolean> normalize(BiPredicate<Object[], Object[]> source) {
-        return pp -> source.test(pp, pp);
-    }
-
     private Function<Object[], Boolean> normalize(Predicate<Object[]> source) {
         return pp -> source.test(pp);
     }
@@ -85,6 +98,13 @@ final class Interpreter implements ExpressionVisitor<Function<Object[], ?>> {
     @SuppressWarnings("unchecked")
     @Override
     public Function<Object[], ?> visit(BinaryExpression e) {
+        if (isPredicate(e))
+            return toFunction(toPredicate(e));
+
+        Function<Object[], ?> specialized = specialize(e);
+        if (specialized != null)
+            return specialized;
+
         final Function<Object[], ?> first = e.getFirst().accept(this);
         final Function<Object[], ?> second = e.getSecond().accept(this);
         switch (e.getExpressionType()) {
@@ -92,8 +112,6 @@ final class Interpreter implements ExpressionVisitor<Function<Object[], ?>> {
                 return normalize(add((Function<Object[], Number>) first, (Function<Object[], Number>) second));
             case ExpressionType.BitwiseAnd:
                 return normalize(bitwiseAnd((Function<Object[], Number>) first, (Function<Object[], Number>) second));
-            case ExpressionType.LogicalAnd:
-                return normalize(and((Function<Object[], Boolean>) first, (Function<Object[], Boolean>) second));
             case ExpressionType.ArrayIndex:
                 return t -> Array.get(first.apply(t), (Integer) second.apply(t));
             // return new Function<Object, Object[]>() {
@@ -110,33 +128,16 @@ final class Interpreter implements ExpressionVisitor<Function<Object[], ?>> {
                 return iif((Function<Object[], Boolean>) e.getOperator().accept(this), first, second);
             case ExpressionType.Divide:
                 return normalize(divide((Function<Object[], Number>) first, (Function<Object[], Number>) second));
-            case ExpressionType.Equal:
-                return normalize(equal(first, second));
             case ExpressionType.ExclusiveOr:
                 return normalize(xor((Function<Object[], Number>) first, (Function<Object[], Number>) second));
-            case ExpressionType.GreaterThan:
-                return normalize(
-                        greaterThan((Function<Object[], Comparable>) first, (Function<Object[], Comparable>) second));
-            case ExpressionType.GreaterThanOrEqual:
-                return normalize(greaterThanOrEqual((Function<Object[], Comparable>) first,
-                        (Function<Object[], Comparable>) second));
             case ExpressionType.LeftShift:
                 return normalize(shiftLeft((Function<Object[], Number>) first, (Function<Object[], Number>) second));
-            case ExpressionType.LessThan:
-                return normalize(lessThan((Function<Object[], Comparable>) first, (Function<Object[], Comparable>) second));
-            case ExpressionType.LessThanOrEqual:
-                return normalize(
-                        lessThanOrEqual((Function<Object[], Comparable>) first, (Function<Object[], Comparable>) second));
             case ExpressionType.Modulo:
                 return normalize(modulo((Function<Object[], Number>) first, (Function<Object[], Number>) second));
             case ExpressionType.Multiply:
                 return normalize(multiply((Function<Object[], Number>) first, (Function<Object[], Number>) second));
-            case ExpressionType.NotEqual:
-                return normalize(equal(first, second).negate());
             case ExpressionType.BitwiseOr:
                 return normalize(bitwiseOr((Function<Object[], Number>) first, (Function<Object[], Number>) second));
-            case ExpressionType.LogicalOr:
-                return normalize(or((Function<Object[], Boolean>) first, (Function<Object[], Boolean>) second));
             // case ExpressionType.Power:
             // return power((Function<Number, Object[]>) first,
             // (Function<Number, Object[]>) second);
@@ -151,6 +152,454 @@ final class Interpreter implements ExpressionVisitor<Function<Object[], ?>> {
         }
     }
 
+    /**
+     * Evaluates numeric operations over {@code int}, {@code long} and {@code double} operands without boxing the
+     * intermediate results. The result of the outermost operation is boxed once.
+     *
+     * @return specialized evaluator or null if the operation or its operand types are not supported.
+     */
+    private Function<Object[], ?> specialize(BinaryExpression e) {
+        Class<?> type = e.getFirst().getResultType();
+        if (type == Integer.TYPE) {
+            ToIntFunction<Object[]> f = intOperation(e);
+            return f != null ? (Function<Object[], Integer>) f::applyAsInt : null;
+        }
+        if (type == Long.TYPE) {
+            ToLongFunction<Object[]> f = longOperation(e);
+            return f != null ? (Function<Object[], Long>) f::applyAsLong : null;
+        }
+        if (type == Double.TYPE) {
+            ToDoubleFunction<Object[]> f = doubleOperation(e);
+            return f != null ? (Function<Object[], Double>) f::applyAsDouble : null;
+        }
+        return null;
+    }
+
+    /**
+     * Evaluates a {@code boolean} typed expression. Logical operators short-circuit and, like comparisons, evaluate
+     * their operands without boxing the intermediate results.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    Predicate<Object[]> toPredicate(Expression e) {
+        switch (e.getExpressionType()) {
+            case ExpressionType.Constant:
+                Object value = ((ConstantExpression) e).getValue();
+                if (value instanceof Boolean) {
+                    boolean c = (Boolean) value;
+                    return t -> c;
+                }
+                break;
+            case ExpressionType.LogicalAnd: {
+                BinaryExpression b = (BinaryExpression) e;
+                Predicate<Object[]> first = toPredicate(b.getFirst());
+                Predicate<Object[]> second = toPredicate(b.getSecond());
+                return t -> first.test(t) && second.test(t);
+            }
+            case ExpressionType.LogicalOr: {
+                BinaryExpression b = (BinaryExpression) e;
+                Predicate<Object[]> first = toPredicate(b.getFirst());
+                Predicate<Object[]> second = toPredicate(b.getSecond());
+                return t -> first.test(t) || second.test(t);
+            }
+            case ExpressionType.LogicalNot: {
+                Predicate<Object[]> operand = toPredicate(((UnaryExpression) e).getFirst());
+                return t -> !operand.test(t);
+            }
+            case ExpressionType.IsNull: {
+                Function<Object[], ?> operand = ((UnaryExpression) e).getFirst().accept(this);
+                return t -> operand.apply(t) == null;
+            }
+            case ExpressionType.IsNonNull: {
+                Function<Object[], ?> operand = ((UnaryExpression) e).getFirst().accept(this);
+                return t -> operand.apply(t) != null;
+            }
+            case ExpressionType.Conditional: {
+                BinaryExpression b = (BinaryExpression) e;
+                if (!isBoolean(b.getFirst().getResultType()) || !isBoolean(b.getSecond().getResultType()))
+                    break;
+                Predicate<Object[]> test = toPredicate(b.getOperator());
+                Predicate<Object[]> first = toPredicate(b.getFirst());
+                Predicate<Object[]> second = toPredicate(b.getSecond());
+                return t -> test.test(t) ? first.test(t) : second.test(t);
+            }
+            default:
+                if (isComparison(e.getExpressionType()))
+                    return comparison((BinaryExpression) e);
+                break;
+        }
+
+        Function<Object[], ?> f = e.accept(this);
+        return t -> (Boolean) f.apply(t);
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private Predicate<Object[]> comparison(BinaryExpression e) {
+        Class<?> type = e.getFirst().getResultType();
+        if (type == e.getSecond().getResultType()) {
+            if (type == Integer.TYPE)
+                return intComparison(e);
+            if (type == Long.TYPE)
+                return longComparison(e);
+            if (type == Double.TYPE)
+                return doubleComparison(e);
+        }
+
+        Function first = e.getFirst().accept(this);
+        Function second = e.getSecond().accept(this);
+        switch (e.getExpressionType()) {
+            case ExpressionType.Equal:
+                return t -> Objects.equals(first.apply(t), second.apply(t));
+            case ExpressionType.NotEqual:
+                return t -> !Objects.equals(first.apply(t), second.apply(t));
+            case ExpressionType.GreaterThan:
+                return toPredicate(greaterThan(first, second));
+            case ExpressionType.GreaterThanOrEqual:
+                return toPredicate(greaterThanOrEqual(first, second));
+            case ExpressionType.LessThan:
+                return toPredicate(lessThan(first, second));
+            default:
+                return toPredicate(lessThanOrEqual(first, second));
+        }
+    }
+
+    private static Predicate<Object[]> toPredicate(BiPredicate<Object[], Object[]> source) {
+        return pp -> source.test(pp, pp);
+    }
+
+    private static Function<Object[], Boolean> toFunction(Predicate<Object[]> p) {
+        return p::test;
+    }
+
+    /**
+     * Whether the node is evaluated by {@link #toPredicate(Expression)}.
+     */
+    private static boolean isPredicate(Expression e) {
+        switch (e.getExpressionType()) {
+            case ExpressionType.LogicalAnd:
+            case ExpressionType.LogicalOr:
+            case ExpressionType.LogicalNot:
+            case ExpressionType.IsNull:
+            case ExpressionType.IsNonNull:
+                return true;
+            default:
+                return isComparison(e.getExpressionType());
+        }
+    }
+
+    private static boolean isBoolean(Class<?> type) {
+        return type == Boolean.TYPE || type == Boolean.class;
+    }
+
+    private static boolean isComparison(int expressionType) {
+        switch (expressionType) {
+            case ExpressionType.Equal:
+            case ExpressionType.NotEqual:
+            case ExpressionType.GreaterThan:
+            case ExpressionType.GreaterThanOrEqual:
+            case ExpressionType.LessThan:
+            case ExpressionType.LessThanOrEqual:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isArithmetic(int expressionType) {
+        switch (expressionType) {
+            case ExpressionType.Add:
+            case ExpressionType.Subtract:
+            case ExpressionType.Multiply:
+            case ExpressionType.Divide:
+            case ExpressionType.Modulo:
+                return true;
+            default:
+                return isBitwise(expressionType) || isShift(expressionType);
+        }
+    }
+
+    private static boolean isBitwise(int expressionType) {
+        return expressionType == ExpressionType.BitwiseAnd || expressionType == ExpressionType.BitwiseOr
+                || expressionType == ExpressionType.ExclusiveOr;
+    }
+
+    private static boolean isShift(int expressionType) {
+        return expressionType == ExpressionType.LeftShift || expressionType == ExpressionType.RightShift;
+    }
+
+    private Predicate<Object[]> intComparison(BinaryExpression e) {
+        ToIntFunction<Object[]> first = toInt(e.getFirst());
+        ToIntFunction<Object[]> second = toInt(e.getSecond());
+        switch (e.getExpressionType()) {
+            case ExpressionType.Equal:
+                return t -> first.applyAsInt(t) == second.applyAsInt(t);
+            case ExpressionType.NotEqual:
+                return t -> first.applyAsInt(t) != second.applyAsInt(t);
+            case ExpressionType.GreaterThan:
+                return t -> first.applyAsInt(t) > second.applyAsInt(t);
+            case ExpressionType.GreaterThanOrEqual:
+                return t -> first.applyAsInt(t) >= second.applyAsInt(t);
+            case ExpressionType.LessThan:
+                return t -> first.applyAsInt(t) < second.applyAsInt(t);
+            default:
+                return t -> first.applyAsInt(t) <= second.applyAsInt(t);
+        }
+    }
+
+    private Predicate<Object[]> longComparison(BinaryExpression e) {
+        ToLongFunction<Object[]> first = toLong(e.getFirst());
+        ToLongFunction<Object[]> second = toLong(e.getSecond());
+        switch (e.getExpressionType()) {
+            case ExpressionType.Equal:
+                return t -> first.applyAsLong(t) == second.applyAsLong(t);
+            case ExpressionType.NotEqual:
+                return t -> first.applyAsLong(t) != second.applyAsLong(t);
+            case ExpressionType.GreaterThan:
+                return t -> first.applyAsLong(t) > second.applyAsLong(t);
+            case ExpressionType.GreaterThanOrEqual:
+                return t -> first.applyAsLong(t) >= second.applyAsLong(t);
+            case ExpressionType.LessThan:
+                return t -> first.applyAsLong(t) < second.applyAsLong(t);
+            default:
+                return t -> first.applyAsLong(t) <= second.applyAsLong(t);
+        }
+    }
+
+    private Predicate<Object[]> doubleComparison(BinaryExpression e) {
+        ToDoubleFunction<Object[]> first = toDouble(e.getFirst());
+        ToDoubleFunction<Object[]> second = toDouble(e.getSecond());
+        switch (e.getExpressionType()) {
+            case ExpressionType.Equal:
+                return t -> first.applyAsDouble(t) == second.applyAsDouble(t);
+            case ExpressionType.NotEqual:
+                return t -> first.applyAsDouble(t) != second.applyAsDouble(t);
+            case ExpressionType.GreaterThan:
+                return t -> first.applyAsDouble(t) > second.applyAsDouble(t);
+            case ExpressionType.GreaterThanOrEqual:
+                return t -> first.applyAsDouble(t) >= second.applyAsDouble(t);
+            case ExpressionType.LessThan:
+                return t -> first.applyAsDouble(t) < second.applyAsDouble(t);
+            default:
+                return t -> first.applyAsDouble(t) <= second.applyAsDouble(t);
+        }
+    }
+
+    private ToIntFunction<Object[]> intOperation(BinaryExpression e) {
+        int expressionType = e.getExpressionType();
+        if (!isArithmetic(expressionType) || e.getSecond().getResultType() != Integer.TYPE)
+            return null;
+
+        ToIntFunction<Object[]> first = toInt(e.getFirst());
+        ToIntFunction<Object[]> second = toInt(e.getSecond());
+        switch (expressionType) {
+            case ExpressionType.Add:
+                return t -> first.applyAsInt(t) + second.applyAsInt(t);
+            case ExpressionType.Subtract:
+                return t -> first.applyAsInt(t) - second.applyAsInt(t);
+            case ExpressionType.Multiply:
+                return t -> first.applyAsInt(t) * second.applyAsInt(t);
+            case ExpressionType.Divide:
+                return t -> first.applyAsInt(t) / second.applyAsInt(t);
+            case ExpressionType.Modulo:
+                return t -> first.applyAsInt(t) % second.applyAsInt(t);
+            case ExpressionType.BitwiseAnd:
+                return t -> first.applyAsInt(t) & second.applyAsInt(t);
+            case ExpressionType.BitwiseOr:
+                return t -> first.applyAsInt(t) | second.applyAsInt(t);
+            case ExpressionType.ExclusiveOr:
+                return t -> first.applyAsInt(t) ^ second.applyAsInt(t);
+            case ExpressionType.LeftShift:
+                return t -> first.applyAsInt(t) << second.applyAsInt(t);
+            case ExpressionType.RightShift:
+                return t -> first.applyAsInt(t) >> second.applyAsInt(t);
+            default:
+                return null;
+        }
+    }
+
+    private ToLongFunction<Object[]> longOperation(BinaryExpression e) {
+        int expressionType = e.getExpressionType();
+        if (!isArithmetic(expressionType))
+            return null;
+        if (isShift(expressionType)) {
+            if (e.getSecond().getResultType() != Integer.TYPE)
+                return null;
+            ToLongFunction<Object[]> first = toLong(e.getFirst());
+            ToIntFunction<Object[]> second = toInt(e.getSecond());
+            return expressionType == ExpressionType.LeftShift ? t -> first.applyAsLong(t) << second.applyAsInt(t)
+                    : t -> first.applyAsLong(t) >> second.applyAsInt(t);
+        }
+
+        if (e.getSecond().getResultType() != Long.TYPE)
+            return null;
+
+        ToLongFunction<Object[]> first = toLong(e.getFirst());
+        ToLongFunction<Object[]> second = toLong(e.getSecond());
+        switch (expressionType) {
+            case ExpressionType.Add:
+                return t -> first.applyAsLong(t) + second.applyAsLong(t);
+            case ExpressionType.Subtract:
+                return t -> first.applyAsLong(t) - second.applyAsLong(t);
+            case ExpressionType.Multiply:
+                return t -> first.applyAsLong(t) * second.applyAsLong(t);
+            case ExpressionType.Divide:
+                return t -> first.applyAsLong(t) / second.applyAsLong(t);
+            case ExpressionType.Modulo:
+                return t -> first.applyAsLong(t) % second.applyAsLong(t);
+            case ExpressionType.BitwiseAnd:
+                return t -> first.applyAsLong(t) & second.applyAsLong(t);
+            case ExpressionType.BitwiseOr:
+                return t -> first.applyAsLong(t) | second.applyAsLong(t);
+            case ExpressionType.ExclusiveOr:
+                return t -> first.applyAsLong(t) ^ second.applyAsLong(t);
+            default:
+                return null;
+        }
+    }
+
+    private ToDoubleFunction<Object[]> doubleOperation(BinaryExpression e) {
+        int expressionType = e.getExpressionType();
+        if (!isArithmetic(expressionType) || isShift(expressionType) || isBitwise(expressionType)
+                || e.getSecond().getResultType() != Double.TYPE)
+            return null;
+
+        ToDoubleFunction<Object[]> first = toDouble(e.getFirst());
+        ToDoubleFunction<Object[]> second = toDouble(e.getSecond());
+        switch (expressionType) {
+            case ExpressionType.Add:
+                return t -> first.applyAsDouble(t) + second.applyAsDouble(t);
+            case ExpressionType.Subtract:
+                return t -> first.applyAsDouble(t) - second.applyAsDouble(t);
+            case ExpressionType.Multiply:
+                return t -> first.applyAsDouble(t) * second.applyAsDouble(t);
+            case ExpressionType.Divide:
+                return t -> first.applyAsDouble(t) / second.applyAsDouble(t);
+            case ExpressionType.Modulo:
+                return t -> first.applyAsDouble(t) % second.applyAsDouble(t);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Evaluates an {@code int} typed expression, unboxing only at the leaves that are not specialized.
+     */
+    private ToIntFunction<Object[]> toInt(Expression e) {
+        switch (e.getExpressionType()) {
+            case ExpressionType.Constant:
+                Object value = ((ConstantExpression) e).getValue();
+                if (value instanceof Number) {
+                    int c = ((Number) value).intValue();
+                    return t -> c;
+                }
+                break;
+            case ExpressionType.Negate:
+                ToIntFunction<Object[]> negated = toInt(((UnaryExpression) e).getFirst());
+                return t -> -negated.applyAsInt(t);
+            case ExpressionType.Convert:
+                Expression operand = ((UnaryExpression) e).getFirst();
+                if (operand.getResultType() == Long.TYPE) {
+                    ToLongFunction<Object[]> f = toLong(operand);
+                    return t -> (int) f.applyAsLong(t);
+                }
+                if (operand.getResultType() == Double.TYPE) {
+                    ToDoubleFunction<Object[]> f = toDouble(operand);
+                    return t -> (int) f.applyAsDouble(t);
+                }
+                break;
+            default:
+                if (e instanceof BinaryExpression && e.getResultType() == Integer.TYPE
+                        && ((BinaryExpression) e).getFirst().getResultType() == Integer.TYPE) {
+                    ToIntFunction<Object[]> f = intOperation((BinaryExpression) e);
+                    if (f != null)
+                        return f;
+                }
+                break;
+        }
+
+        Function<Object[], ?> f = e.accept(this);
+        return t -> ((Number) f.apply(t)).intValue();
+    }
+
+    /**
+     * Evaluates a {@code long} typed expression, unboxing only at the leaves that are not specialized.
+     */
+    private ToLongFunction<Object[]> toLong(Expression e) {
+        switch (e.getExpressionType()) {
+            case ExpressionType.Constant:
+                Object value = ((ConstantExpression) e).getValue();
+                if (value instanceof Number) {
+                    long c = ((Number) value).longValue();
+                    return t -> c;
+                }
+                break;
+            case ExpressionType.Negate:
+                ToLongFunction<Object[]> negated = toLong(((UnaryExpression) e).getFirst());
+                return t -> -negated.applyAsLong(t);
+            case ExpressionType.Convert:
+                Expression operand = ((UnaryExpression) e).getFirst();
+                if (operand.getResultType() == Integer.TYPE) {
+                    ToIntFunction<Object[]> f = toInt(operand);
+                    return f::applyAsInt;
+                }
+                if (operand.getResultType() == Double.TYPE) {
+                    ToDoubleFunction<Object[]> f = toDouble(operand);
+                    return t -> (long) f.applyAsDouble(t);
+                }
+                break;
+            default:
+                if (e instanceof BinaryExpression && e.getResultType() == Long.TYPE
+                        && ((BinaryExpression) e).getFirst().getResultType() == Long.TYPE) {
+                    ToLongFunction<Object[]> f = longOperation((BinaryExpression) e);
+                    if (f != null)
+                        return f;
+                }
+                break;
+        }
+
+        Function<Object[], ?> f = e.accept(this);
+        return t -> ((Number) f.apply(t)).longValue();
+    }
+
+    /**
+     * Evaluates a {@code double} typed expression, unboxing only at the leaves that are not specialized.
+     */
+    private ToDoubleFunction<Object[]> toDouble(Expression e) {
+        switch (e.getExpressionType()) {
+            case ExpressionType.Constant:
+                Object value = ((ConstantExpression) e).getValue();
+                if (value instanceof Number) {
+                    double c = ((Number) value).doubleValue();
+                    return t -> c;
+                }
+                break;
+            case ExpressionType.Negate:
+                ToDoubleFunction<Object[]> negated = toDouble(((UnaryExpression) e).getFirst());
+                return t -> -negated.applyAsDouble(t);
+            case ExpressionType.Convert:
+                Expression operand = ((UnaryExpression) e).getFirst();
+                if (operand.getResultType() == Integer.TYPE) {
+                    ToIntFunction<Object[]> f = toInt(operand);
+                    return f::applyAsInt;
+                }
+                if (operand.getResultType() == Long.TYPE) {
+                    ToLongFunction<Object[]> f = toLong(operand);
+                    return f::applyAsLong;
+                }
+                break;
+            default:
+                if (e instanceof BinaryExpression && e.getResultType() == Double.TYPE
+                        && ((BinaryExpression) e).getFirst().getResultType() == Double.TYPE) {
+                    ToDoubleFunction<Object[]> f = doubleOperation((BinaryExpression) e);
+                    if (f != null)
+                        return f;
+                }
+                break;
+        }
+
+        Function<Object[], ?> f = e.accept(this);
+        return t -> ((Number) f.apply(t)).doubleValue();
+    }
+
     @Override
     public Function<Object[], ?> visit(ConstantExpression e) {
         return constant(e.getValue());
@@ -181,71 +630,155 @@ final class Interpreter implements ExpressionVisitor<Function<Object[], ?>> {
     public Function<Object[], ?> visit(InvocationExpression e) {
 
         InvocableExpression target = e.getTarget();
-        Function<Object[], ?> m = target.accept(this);
-        Function<Object[], ?> x;
-        if (target.getExpressionType() == ExpressionType.Lambda) {
-            x = (Object[] pp) -> {
-                Function<Object[], ?> f1 = (Function<Object[], ?>) m.apply(pp);
-                return f1.apply(emptyArray);
-            };
-        } else {
-            x = m;
-        }
 
         int size = e.getArguments().size();
         List<Function<Object[], ?>> ppe = new ArrayList<>(size);
         for (Expression p : e.getArguments())
             ppe.add(p.accept(this));
 
-        Function<Object[], Object[]> params = pp -> {
+        switch (target.getExpressionType()) {
+            case ExpressionType.Lambda:
+                return invoke((LambdaExpression<?>) target, ppe);
+            case ExpressionType.MethodAccess:
+                return invoke((MemberExpression) target, toArguments(ppe));
+            case ExpressionType.FieldAccess:
+                return target.accept(this); // field: no arguments, just the instance
+            default:
+                break;
+        }
 
-            if (target.getExpressionType() == ExpressionType.FieldAccess)
-                return pp; // field: no arguments, just the instance
+        Function<Object[], ?> m = target.accept(this);
+        Function<Object[], Object[]> params = toArguments(ppe);
+        if (target.getExpressionType() == ExpressionType.Delegate)
+            // for Delegate we need both outer and inner scope arguments
+            return pp -> m.apply(new Object[] { pp, params.apply(pp) });
 
-            Object[] r = new Object[ppe.size()];
-            int index = 0;
-            for (Function<Object[], ?> pe : ppe) {
-                r[index++] = pe.apply(pp);
-            }
+        return m.compose(params);
+    }
 
-            // for MethodAccess we need both outer and inner scope arguments
-            return (target.getExpressionType() == ExpressionType.MethodAccess
-                    || target.getExpressionType() == ExpressionType.Delegate) ? new Object[]{pp, r} : r;
+    private static Function<Object[], Object[]> toArguments(List<Function<Object[], ?>> ppe) {
+        int size = ppe.size();
+        if (size == 0)
+            return pp -> emptyArray;
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        Function<Object[], ?>[] args = ppe.toArray(new Function[size]);
+        return pp -> {
+            Object[] r = new Object[size];
+            for (int index = 0; index < size; index++)
+                r[index] = args[index].apply(pp);
+            return r;
         };
+    }
 
-        return x.compose(params);
+    /**
+     * Invokes the lambda in place: the arguments are evaluated directly into its frame.
+     */
+    private Function<Object[], ?> invoke(LambdaExpression<?> target,
+                                         List<Function<Object[], ?>> ppe) {
+        Function<Object[], ?> body = visitBody(target);
+        int parameters = target.getParameters().size();
+        int frameSize = parameters + target.getLocals().size();
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        Function<Object[], ?>[] args = ppe.toArray(new Function[ppe.size()]);
+        return pp -> {
+            Object[] frame = new Object[frameSize];
+            for (int index = 0; index < args.length; index++) {
+                Object arg = args[index].apply(pp);
+                if (index < parameters)
+                    frame[index] = arg;
+            }
+            return body.apply(frame);
+        };
     }
 
     @Override
     public Function<Object[], ?> visit(LambdaExpression<?> e) {
+        Function<Object[], ?> f = visitFrame(e);
+        return (Function<Object[], Function<Object[], ?>>) (Object[] captured) -> (Object[] p) -> f
+                .apply(concat(captured, p));
+    }
+
+    /**
+     * Produces the function that evaluates the lambda with the specified arguments, captured values first.
+     */
+    Function<Object[], ?> compileLambda(LambdaExpression<?> e) {
+        return visitFrame(e);
+    }
+
+    /**
+     * Produces the predicate that evaluates the {@code boolean} lambda with the specified arguments, captured values
+     * first.
+     */
+    Predicate<Object[]> compilePredicate(LambdaExpression<?> e) {
+        int parameters = e.getParameters().size();
+        if (!e.getLocals().isEmpty() || !isIdentity(e.getParameters())) {
+            Function<Object[], ?> f = visitFrame(e);
+            return pp -> (Boolean) f.apply(pp);
+        }
+
+        Predicate<Object[]> body = toPredicate(e.getBody());
+        return pp -> body.test(pp != null && pp.length == parameters ? pp : toFrame(pp, parameters, parameters));
+    }
+
+    /**
+     * Lays the arguments out in a frame: parameters at their indices, followed by the locals. The arguments array
+     * serves as the frame when it fits exactly and the lambda has no locals, so the frame is never written to.
+     */
+    private Function<Object[], ?> visitFrame(LambdaExpression<?> e) {
+        Function<Object[], ?> body = visitBody(e);
+        int parameters = e.getParameters().size();
+        int frameSize = parameters + e.getLocals().size();
+
+        if (isIdentity(e.getParameters())) {
+            if (frameSize == parameters)
+                return pp -> body.apply(pp != null && pp.length == frameSize ? pp : toFrame(pp, parameters, frameSize));
+            return pp -> body.apply(toFrame(pp, parameters, frameSize));
+        }
+
+        Function<Object[], Object[]> params = visitParameters(e);
+        return pp -> body.apply(Arrays.copyOf(params.apply(pp), frameSize));
+    }
+
+    static Object[] toFrame(Object[] pp,
+                            int parameters,
+                            int frameSize) {
+        if (frameSize == 0)
+            return emptyArray;
+        Object[] frame = new Object[frameSize];
+        if (parameters > 0)
+            System.arraycopy(pp, 0, frame, 0, parameters);
+        return frame;
+    }
 
-        Function<Object[], ?> f = e.getBody().accept(this);
+    /**
+     * Evaluates the locals into their frame slots, then the body.
+     */
+    private Function<Object[], ?> visitBody(LambdaExpression<?> e) {
+        Function<Object[], ?> body = e.getBody().accept(this);
 
         List<Expression> locals = e.getLocals();
         int size = locals.size();
-        if (size > 0) {
-            List<Function<Object[], ?>> ple = new ArrayList<>(size);
-            for (Expression p : locals)
-                ple.add(p != null ? p.accept(this) : null);
-
-            f = f.compose((Object[] pp) -> {
-                int originalLength = pp.length;
-                pp = Arrays.copyOf(pp, originalLength + size);
-                for (int index = 0; index < size; index++) {
-                    Function<Object[], ?> le = ple.get(index);
-                    if (le == null)
-                        continue;
-                    pp[index + originalLength] = le.apply(pp);
-                }
-                return pp;
-            });
+        if (size == 0)
+            return body;
+
+        int base = e.getParameters().size();
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        Function<Object[], ?>[] ple = new Function[size];
+        for (int index = 0; index < size; index++) {
+            Expression p = locals.get(index);
+            ple[index] = p != null ? p.accept(this) : null;
         }
-        return toClosure(f.compose(visitParameters(e)));
-    }
 
-    private static Function<Object[], ?> toClosure(Function<Object[], ?> f) {
-        return (Function<Object[], Function<Object[], ?>>) (Object[] captured) -> (Object[] p) -> f
-                .apply(concat(captured, p));
+        return frame -> {
+            for (int index = 0; index < size; index++) {
+                Function<Object[], ?> le = ple[index];
+                if (le != null)
+                    frame[index + base] = le.apply(frame);
+            }
+            return body.apply(frame);
+        };
     }
 
     private static <T> T[] concat(T[] first,
@@ -259,9 +792,22 @@ final class Interpreter implements ExpressionVisitor<Function<Object[], ?>> {
         return result;
     }
 
+    static boolean isIdentity(List<ParameterExpression> parameters) {
+        for (int index = 0; index < parameters.size(); index++)
+            if (parameters.get(index).getIndex() != index)
+                return false;
+        return true;
+    }
+
+    /**
+     * Maps the arguments to the parameter indices. Returns the arguments as is when they already match.
+     */
     private Function<Object[], Object[]> visitParameters(InvocableExpression invocable) {
         List<ParameterExpression> parameters = invocable.getParameters();
         int size = parameters.size();
+        if (isIdentity(parameters))
+            return pp -> pp != null && pp.length == size ? pp : toFrame(pp, size, size);
+
         List<Function<Object[], ?>> ppe = new ArrayList<>(size);
         for (ParameterExpression p : parameters)
             ppe.add(p.accept(this));
@@ -286,6 +832,7 @@ final class Interpreter implements ExpressionVisitor<Function<Object[], ?>> {
 
         return t -> {
             InvocableExpression l = (InvocableExpression) f.apply((Object[]) t[0]);
+            @SuppressWarnings("unchecked")
             Function<Object[], ?> f1 = (Function<Object[], ?>) l.accept(this).apply(params.apply((Object[]) t[1]));
             return l.getExpressionType() == ExpressionType.Lambda ? f1.apply(emptyArray) : f1;
         };
@@ -309,63 +856,211 @@ final class Interpreter implements ExpressionVisitor<Function<Object[], ?>> {
     @Override
     public Function<Object[], ?> visit(MemberExpression e) {
         final Member m = e.getMember();
-
-        if (!Modifier.isPublic(m.getModifiers()) && m instanceof AccessibleObject) {
-            AccessibleObject ao = (AccessibleObject) m;
-            try {
-                if (!ao.isAccessible())
-                    ao.setAccessible(true);
-            } catch (Exception ee) {
-                // suppress
-            }
-        }
+        final MethodHandle handle = getMemberHandle(m);
 
         Expression ei = e.getInstance();
         final Function<Object[], ?> instance = ei != null ? ei.accept(this) : null;
 
         Function<Object[], Object[]> params = visitParameters(e);
 
-        Function<Object[], ?> field = t -> {
+        if (m instanceof Field)
+            return t -> {
+                Object inst = instance == null ? null : instance.apply(t);
+                try {
+                    return (Object) handle.invokeExact(inst);
+                } catch (Throwable ex) {
+                    throw sneakyThrow(ex);
+                }
+            };
+
+        if (m instanceof Method)
+            return t -> {
+                Object inst = instance == null ? null : instance.apply((Object[]) t[0]);
+                Object[] pp = params.apply((Object[]) t[1]);
+                try {
+                    return (Object) handle.invokeExact(inst, pp);
+                } catch (Throwable ex) {
+                    throw sneakyThrow(ex);
+                }
+            };
+
+        return t -> {
+            Object[] pp = params.apply(t);
             try {
-                return ((Field) m).get(instance == null ? null : instance.apply(t));
-            } catch (IllegalArgumentException | IllegalAccessException ex) {
-                throw new RuntimeException(ex);
+                return (Object) handle.invokeExact(pp);
+            } catch (Throwable ex) {
+                throw sneakyThrow(ex);
             }
         };
+    }
+
+    /**
+     * Invokes the method with the arguments evaluated in the invocation scope. The instance is evaluated in the same
+     * scope.
+     */
+    private Function<Object[], ?> invoke(MemberExpression e,
+                                         Function<Object[], Object[]> arguments) {
+        MethodHandle handle = getMemberHandle(e.getMember());
 
-        Function<Object[], ?> method = t -> {
-            Object inst;
-            if (instance != null) {
-                inst = instance.apply((Object[]) t[0]);
-            } else
-                inst = null;
+        Expression ei = e.getInstance();
+        Function<Object[], ?> instance = ei != null ? ei.accept(this) : null;
+
+        Function<Object[], Object[]> params = visitParameters(e);
+
+        return t -> {
+            Object inst = instance == null ? null : instance.apply(t);
+            Object[] pp = params.apply(arguments.apply(t));
             try {
-                Object[] pp = params.apply((Object[]) t[1]);
-                return ((Method) m).invoke(inst, pp);
-            } catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException ex) {
-                throw new RuntimeException(ex);
+                return (Object) handle.invokeExact(inst, pp);
+            } catch (Throwable ex) {
+                throw sneakyThrow(ex);
             }
         };
+    }
 
-        Function<Object[], ?> ctor = t -> {
+    /**
+     * Resolves the member once into a handle of type {@code (Object)Object} for fields,
+     * {@code (Object, Object[])Object} for methods and {@code (Object[])Object} for constructors. The instance argument
+     * is ignored for static members.
+     */
+    static MethodHandle getMemberHandle(Member m) {
+        return memberHandles.get(m.getDeclaringClass()).computeIfAbsent(m, Interpreter::resolveMemberHandle);
+    }
+
+    private static MethodHandle resolveMemberHandle(Member m) {
+        MethodHandle handle;
+        try {
+            handle = unreflect(m);
+        } catch (IllegalAccessException e) {
             try {
-                return ((Constructor<?>) m).newInstance(params.apply(t));
-            } catch (InstantiationException | IllegalAccessException | IllegalArgumentException
-                     | InvocationTargetException ex) {
-                throw new RuntimeException(ex);
+                ((AccessibleObject) m).setAccessible(true);
+                handle = unreflect(m);
+            } catch (IllegalAccessException | RuntimeException ee) {
+                throw new RuntimeException(e);
             }
-        };
+        }
 
-        Function<Object[], ?> member;
+        boolean isStatic = Modifier.isStatic(m.getModifiers());
 
+        if (m instanceof Field) {
+            if (isStatic)
+                handle = MethodHandles.dropArguments(handle, 0, Object.class);
+            return handle.asType(MethodType.genericMethodType(1));
+        }
+
+        handle = handle.asFixedArity();
+        if (m instanceof Method) {
+            if (isStatic)
+                handle = MethodHandles.dropArguments(handle, 0, Object.class);
+            int arity = ((Method) m).getParameterCount();
+            return handle.asType(MethodType.genericMethodType(arity + 1)).asSpreader(Object[].class, arity);
+        }
+
+        int arity = ((Constructor<?>) m).getParameterCount();
+        return handle.asType(MethodType.genericMethodType(arity)).asSpreader(Object[].class, arity);
+    }
+
+    private static MethodHandle unreflect(Member m) throws IllegalAccessException {
         if (m instanceof Field)
-            member = field;
-        else if (m instanceof Method)
-            member = method;
-        else
-            member = ctor;
+            return lookup.unreflectGetter((Field) m);
+        if (m instanceof Method)
+            return lookup.unreflect((Method) m);
+        return lookup.unreflectConstructor((Constructor<?>) m);
+    }
 
-        return member;// .compose(params);
+    @SuppressWarnings("unchecked")
+    static <E extends Throwable> RuntimeException sneakyThrow(Throwable e) throws E {
+        throw (E) e;
+    }
+
+    @Override
+    public Function<Object[], ?> visit(LoopExpression e) {
+        Predicate<Object[]> test = toPredicate(e.getTest());
+
+        List<Expression> body = e.getBody();
+        int size = body.size();
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        Function<Object[], ?>[] values = new Function[size];
+        int[] slots = new int[size];
+        for (int index = 0; index < size; index++) {
+            values[index] = body.get(index).accept(this);
+            ParameterExpression variable = e.getVariables().get(index);
+            slots[index] = variable != null ? variable.getIndex() : -1;
+        }
+
+        return frame -> {
+            while (test.test(frame)) {
+                for (int index = 0; index < size; index++) {
+                    Object value = values[index].apply(frame);
+                    int slot = slots[index];
+                    if (slot >= 0)
+                        frame[slot] = value;
+                }
+            }
+            return null;
+        };
+    }
+
+    @Override
+    public Function<Object[], ?> visit(SwitchExpression e) {
+        Function<Object[], ?> value = e.getSwitchValue().accept(this);
+
+        List<Expression> cases = e.getCases();
+        List<Function<Object[], ?>> functions = new ArrayList<>(cases.size());
+        Map<Expression, Function<Object[], ?>> shared = new IdentityHashMap<>();
+        for (Expression c : cases)
+            functions.add(shared.computeIfAbsent(c, x -> x.accept(this)));
+
+        IntFunction<Function<Object[], ?>> table = jumpTable(e.getKeys(), functions, e.getDefaultCase().accept(this));
+        return t -> {
+            Object key = value.apply(t);
+            return table.apply(key instanceof Character ? (Character) key : ((Number) key).intValue()).apply(t);
+        };
+    }
+
+    /**
+     * Builds the jump table of a switch: an array indexed by the key offset if the keys are {@link #isDense dense}, a
+     * hash map otherwise.
+     */
+    static <T> IntFunction<T> jumpTable(List<Integer> keys,
+                                        List<T> targets,
+                                        T defaultTarget) {
+        if (keys.isEmpty())
+            return key -> defaultTarget;
+
+        int min = Collections.min(keys);
+        int max = Collections.max(keys);
+        int size = keys.size();
+        if (isDense(min, max, size)) {
+            Object[] table = new Object[max - min + 1];
+            Arrays.fill(table, defaultTarget);
+            for (int i = 0; i < size; i++)
+                table[keys.get(i) - min] = targets.get(i);
+
+            @SuppressWarnings("unchecked")
+            IntFunction<T> dense = key -> {
+                int index = key - min;
+                return (T) (index >= 0 && index < table.length ? table[index] : defaultTarget);
+            };
+            return dense;
+        }
+
+        Map<Integer, T> table = new HashMap<>(size * 2);
+        for (int i = 0; i < size; i++)
+            table.put(keys.get(i), targets.get(i));
+        return key -> table.getOrDefault(key, defaultTarget);
+    }
+
+    /**
+     * Decides whether a table spanning the keys is worth its space, the way javac chooses between
+     * {@code tableswitch} and {@code lookupswitch}.
+     */
+    static boolean isDense(int min,
+                           int max,
+                           int size) {
+        long tableCost = 4 + ((long) max - min + 1) + 3 * 3;
+        long lookupCost = 3 + 2L * size + 3L * size;
+        return tableCost <= lookupCost;
     }
 
     @Override
@@ -377,6 +1072,9 @@ final class Interpreter implements ExpressionVisitor<Function<Object[], ?>> {
     @SuppressWarnings("unchecked")
     @Override
     public Function<Object[], ?> visit(UnaryExpression e) {
+        if (isPredicate(e))
+            return toFunction(toPredicate(e));
+
         final Function<Object[], ?> first = e.getFirst().accept(this);
         switch (e.getExpressionType()) {
             case ExpressionType.ArrayLength:
@@ -428,12 +1126,6 @@ final class Interpreter implements ExpressionVisitor<Function<Object[], ?>> {
                     };
 
                 return first;
-            case ExpressionType.IsNull:
-                return first.andThen(r -> r == null);
-            case ExpressionType.IsNonNull:
-                return first.andThen(r -> r != null);
-            case ExpressionType.LogicalNot:
-                return normalize(not((Function<Object[], Boolean>) first));
             case ExpressionType.Negate:
                 return (Function<Object[], ?>) negate((Function<Object[], Number>) first);
             // case ExpressionType.UnaryPlus:
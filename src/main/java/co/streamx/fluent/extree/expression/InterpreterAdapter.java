@@ -0,0 +1,136 @@
+package co.streamx.fluent.extree.expression;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Implements a functional interface on top of {@link Interpreter}. Used by
+ * {@link LambdaExpression#compileAs(Class)} when {@link BytecodeCompiler} cannot translate the tree, or the generated
+ * class cannot access the interface. Whenever the interface is accessible, the adapter is a generated class that
+ * passes its arguments to the interpreter, so the default methods of the interface are inherited as usual; otherwise
+ * it is a {@link Proxy}.
+ */
+
+final class InterpreterAdapter implements InvocationHandler {
+
+    private static final Object[] emptyArray = new Object[0];
+    private static final Method APPLY;
+
+    static {
+        try {
+            APPLY = Function.class.getMethod("apply", Object.class);
+        } catch (NoSuchMethodException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private final LambdaExpression<?> lambda;
+    private final Method functionalMethod;
+    private final Function<Object[], ?> compiled;
+
+    private InterpreterAdapter(LambdaExpression<?> lambda,
+                               Method functionalMethod) {
+        this.lambda = lambda;
+        this.functionalMethod = functionalMethod;
+        this.compiled = lambda.compile();
+    }
+
+    static <F> F create(LambdaExpression<?> lambda,
+                        Class<F> functionalInterface) {
+        Method functionalMethod = BytecodeCompiler.getFunctionalMethod(functionalInterface);
+        InterpreterAdapter handler = new InterpreterAdapter(lambda, functionalMethod);
+        try {
+            return BytecodeCompiler.compile(handler.delegate(), functionalInterface);
+        } catch (UnsupportedOperationException e) {
+            // the interface is not accessible to the generated class
+        }
+        return functionalInterface.cast(Proxy.newProxyInstance(functionalInterface.getClassLoader(),
+                new Class<?>[] { functionalInterface }, handler));
+    }
+
+    /**
+     * @return a lambda with the parameters of the interpreted one, whose body passes them to {@link #apply(Object[])}.
+     */
+    private LambdaExpression<?> delegate() {
+        List<ParameterExpression> params = lambda.getParameters();
+        List<Expression> args = new ArrayList<>(params.size());
+        for (ParameterExpression p : params)
+            args.add(Expression.convert(p, Object.class));
+
+        Function<Object[], Object> apply = this::apply;
+        Expression body = Expression.invoke(Expression.constant(apply, Function.class), APPLY,
+                Expression.newArrayInit(Object.class, args));
+        return Expression.lambda(Object.class, body, params, Collections.emptyList(), null);
+    }
+
+    private Object apply(Object[] args) {
+        return adapt(compiled.apply(args), functionalMethod.getReturnType());
+    }
+
+    @Override
+    public Object invoke(Object proxy,
+                         Method method,
+                         Object[] args)
+            throws Throwable {
+
+        if (method.getDeclaringClass() == Object.class) {
+            switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            default:
+                return lambda.toString();
+            }
+        }
+
+        if (method.isDefault()) {
+            Class<?> declaring = method.getDeclaringClass();
+            return MethodHandles.privateLookupIn(declaring, MethodHandles.lookup())
+                    .unreflectSpecial(method, declaring)
+                    .bindTo(proxy)
+                    .invokeWithArguments(args);
+        }
+
+        return apply(args != null ? args : emptyArray);
+    }
+
+    /**
+     * The interpreter returns boxed values of the tree node types, the proxy expects the exact wrapper of the method
+     * return type.
+     */
+    static Object adapt(Object result,
+                                Class<?> type) {
+        if (!type.isPrimitive() || result == null)
+            return result;
+
+        if (result instanceof Number) {
+            Number n = (Number) result;
+            if (type == Integer.TYPE)
+                return n.intValue();
+            if (type == Long.TYPE)
+                return n.longValue();
+            if (type == Double.TYPE)
+                return n.doubleValue();
+            if (type == Float.TYPE)
+                return n.floatValue();
+            if (type == Short.TYPE)
+                return n.shortValue();
+            if (type == Byte.TYPE)
+                return n.byteValue();
+            if (type == Character.TYPE)
+                return (char) n.intValue();
+        }
+
+        if (result instanceof Character && type != Character.TYPE)
+            return adapt((int) (Character) result, type);
+
+        return result;
+    }
+}
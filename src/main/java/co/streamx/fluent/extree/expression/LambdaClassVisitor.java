@@ -0,0 +1,232 @@
+package co.streamx.fluent.extree.expression;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Parses all the static lambda methods of a class in a single pass, each with its own {@link ExpressionClassVisitor}.
+ */
+
+final class LambdaClassVisitor extends ClassVisitor {
+
+    private final ClassLoader _loader;
+    private final List<ExpressionClassVisitor> _parsed = new ArrayList<>();
+
+    private int _version;
+    private int _access;
+    private String _name;
+    private String _signature;
+    private String _superName;
+    private String[] _interfaces;
+
+    LambdaClassVisitor(ClassLoader loader) {
+        super(Opcodes.ASM9);
+        _loader = loader;
+    }
+
+    /**
+     * @return visitors of the lambda methods parsed completely.
+     */
+    List<ExpressionClassVisitor> getParsed() {
+        return _parsed;
+    }
+
+    static boolean isLambdaMethod(int access,
+                                  String name) {
+        return (access & (Opcodes.ACC_SYNTHETIC | Opcodes.ACC_STATIC)) == (Opcodes.ACC_SYNTHETIC | Opcodes.ACC_STATIC)
+                && name.startsWith("lambda$");
+    }
+
+    @Override
+    public void visit(int version,
+                      int access,
+                      String name,
+                      String signature,
+                      String superName,
+                      String[] interfaces) {
+        _version = version;
+        _access = access;
+        _name = name;
+        _signature = signature;
+        _superName = superName;
+        _interfaces = interfaces;
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access,
+                                     String name,
+                                     String desc,
+                                     String signature,
+                                     String[] exceptions) {
+        if (!isLambdaMethod(access, name))
+            return null;
+
+        ExpressionClassVisitor visitor = new ExpressionClassVisitor(_loader, null, name, desc, true);
+        visitor.visit(_version, _access, _name, _signature, _superName, _interfaces);
+        try {
+            MethodVisitor mv = visitor.visitMethod(access, name, desc, signature, exceptions);
+            _parsed.add(visitor);
+            return new SkippingMethodVisitor(mv, visitor);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Passes the method to the parser until it fails, e.g. on a construct not supported by the parser. The method is
+     * then discarded and the rest of it is ignored, so the other methods are parsed in the same pass.
+     */
+    private final class SkippingMethodVisitor extends MethodVisitor {
+
+        private final ExpressionClassVisitor _visitor;
+
+        SkippingMethodVisitor(MethodVisitor mv,
+                              ExpressionClassVisitor visitor) {
+            super(Opcodes.ASM9, mv);
+            _visitor = visitor;
+        }
+
+        /**
+         * Runs a visit of the parser, once it failed {@link #mv} is null and the visits do nothing.
+         */
+        private void guard(Runnable visit) {
+            try {
+                visit.run();
+            } catch (RuntimeException e) {
+                mv = null;
+                _parsed.remove(_visitor);
+            }
+        }
+
+        @Override
+        public void visitCode() {
+            guard(super::visitCode);
+        }
+
+        @Override
+        public void visitFrame(int type,
+                               int numLocal,
+                               Object[] local,
+                               int numStack,
+                               Object[] stack) {
+            guard(() -> super.visitFrame(type, numLocal, local, numStack, stack));
+        }
+
+        @Override
+        public void visitInsn(int opcode) {
+            guard(() -> super.visitInsn(opcode));
+        }
+
+        @Override
+        public void visitIntInsn(int opcode,
+                                 int operand) {
+            guard(() -> super.visitIntInsn(opcode, operand));
+        }
+
+        @Override
+        public void visitVarInsn(int opcode,
+                                 int var) {
+            guard(() -> super.visitVarInsn(opcode, var));
+        }
+
+        @Override
+        public void visitTypeInsn(int opcode,
+                                  String type) {
+            guard(() -> super.visitTypeInsn(opcode, type));
+        }
+
+        @Override
+        public void visitFieldInsn(int opcode,
+                                   String owner,
+                                   String name,
+                                   String descriptor) {
+            guard(() -> super.visitFieldInsn(opcode, owner, name, descriptor));
+        }
+
+        @Override
+        public void visitMethodInsn(int opcode,
+                                    String owner,
+                                    String name,
+                                    String descriptor,
+                                    boolean isInterface) {
+            guard(() -> super.visitMethodInsn(opcode, owner, name, descriptor, isInterface));
+        }
+
+        @Override
+        public void visitInvokeDynamicInsn(String name,
+                                           String descriptor,
+                                           Handle bootstrapMethodHandle,
+                                           Object... bootstrapMethodArguments) {
+            guard(() -> super.visitInvokeDynamicInsn(name, descriptor, bootstrapMethodHandle,
+                    bootstrapMethodArguments));
+        }
+
+        @Override
+        public void visitJumpInsn(int opcode,
+                                  Label label) {
+            guard(() -> super.visitJumpInsn(opcode, label));
+        }
+
+        @Override
+        public void visitLabel(Label label) {
+            guard(() -> super.visitLabel(label));
+        }
+
+        @Override
+        public void visitLdcInsn(Object value) {
+            guard(() -> super.visitLdcInsn(value));
+        }
+
+        @Override
+        public void visitIincInsn(int var,
+                                  int increment) {
+            guard(() -> super.visitIincInsn(var, increment));
+        }
+
+        @Override
+        public void visitTableSwitchInsn(int min,
+                                         int max,
+                                         Label dflt,
+                                         Label... labels) {
+            guard(() -> super.visitTableSwitchInsn(min, max, dflt, labels));
+        }
+
+        @Override
+        public void visitLookupSwitchInsn(Label dflt,
+                                          int[] keys,
+                                          Label[] labels) {
+            guard(() -> super.visitLookupSwitchInsn(dflt, keys, labels));
+        }
+
+        @Override
+        public void visitMultiANewArrayInsn(String descriptor,
+                                            int numDimensions) {
+            guard(() -> super.visitMultiANewArrayInsn(descriptor, numDimensions));
+        }
+
+        @Override
+        public void visitTryCatchBlock(Label start,
+                                       Label end,
+                                       Label handler,
+                                       String type) {
+            guard(() -> super.visitTryCatchBlock(start, end, handler, type));
+        }
+
+        @Override
+        public void visitMaxs(int maxStack,
+                              int maxLocals) {
+            guard(() -> super.visitMaxs(maxStack, maxLocals));
+        }
+
+        @Override
+        public void visitEnd() {
+            guard(super::visitEnd);
+        }
+    }
+}
@@ -1,11 +1,25 @@
 package co.streamx.fluent.extree.expression;
 
+import java.io.Serializable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.SerializedLambda;
+import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.function.Supplier;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NonNull;
 
@@ -28,11 +42,28 @@ public final class LambdaExpression<F> extends InvocableExpression {
     private final Object key;
     private final Supplier<LambdaExpression<F>> parser;
 
-    // private static final Map<Class<?>, WeakReference<LambdaExpression<?>>> _cache = Collections
-    // .synchronizedMap(new WeakHashMap<Class<?>, WeakReference<LambdaExpression<?>>>());
+    @Getter(AccessLevel.NONE)
+    private final LambdaExpression<?> template;
+    private final List<Object> captured;
+
+    @Getter(AccessLevel.NONE)
+    private volatile Map<Class<?>, Object> compiledAs;
+
+    private static final ClassValue<ParsedClass> parsedClasses = new ClassValue<ParsedClass>() {
+        @Override
+        protected ParsedClass computeValue(Class<?> type) {
+            return new ParsedClass();
+        }
+    };
 
     LambdaExpression(Class<?> resultType, @NonNull Expression body, List<ParameterExpression> params,
                      @NonNull List<Expression> locals, Object key, Supplier<LambdaExpression<F>> parser) {
+        this(resultType, body, params, locals, key, parser, null, Collections.emptyList());
+    }
+
+    LambdaExpression(Class<?> resultType, @NonNull Expression body, List<ParameterExpression> params,
+                     @NonNull List<Expression> locals, Object key, Supplier<LambdaExpression<F>> parser,
+                     LambdaExpression<?> template, @NonNull List<Object> captured) {
         super(ExpressionType.Lambda, resultType, params);
 
         if (!TypeConverter.isAssignable(resultType, body.getResultType()))
@@ -42,6 +73,8 @@ public final class LambdaExpression<F> extends InvocableExpression {
         this.locals = locals;
         this.key = key;
         this.parser = parser;
+        this.template = template;
+        this.captured = captured;
     }
 
     /**
@@ -65,6 +98,39 @@ public final class LambdaExpression<F> extends InvocableExpression {
         return isMethodRef() ? parser.get() : this;
     }
 
+    /**
+     * Gets the template this lambda expression is bound from. For a lambda capturing values, it is the lambda expression
+     * receiving the captured values as its leading {@link #getCaptured() captured count} parameters, followed by the
+     * parameters of this lambda expression. The template does not depend on the captured values and is shared by all the
+     * lambda expressions parsed from the same lambda, hence can be used as a cache key for a translation where the
+     * captured values become bind parameters. A captured {@code this} is a part of the template.<br>
+     * For a lambda that does not capture values, returns the current lambda expression.
+     * 
+     * @return the template lambda expression.
+     */
+    public LambdaExpression<?> getTemplate() {
+        return template != null ? template : this;
+    }
+
+    /**
+     * Binds the template of this lambda expression to other captured values.
+     * 
+     * @param captured values to bind, in the order of the {@link #getTemplate() template} leading parameters.
+     * @return lambda expression semantically equivalent to this lambda expression capturing the specified values.
+     * @throws IllegalArgumentException if the number of values differs from the size of {@link #getCaptured()}.
+     */
+    @SuppressWarnings("unchecked")
+    public LambdaExpression<F> bind(Object... captured) {
+        if (captured.length != this.captured.size())
+            throw new IllegalArgumentException(
+                    "Expected " + this.captured.size() + " captured values, got: " + captured.length);
+
+        if (template == null)
+            return this;
+
+        return (LambdaExpression<F>) ExpressionClassCracker.get().bind(template, captured, this.captured, key);
+    }
+
     /**
      * Creates {@link LambdaExpression} representing the lambda expression tree.
      * 
@@ -77,21 +143,30 @@ public final class LambdaExpression<F> extends InvocableExpression {
     @SuppressWarnings("unchecked")
     public static <T> LambdaExpression<T> parse(T lambda) {
 
-        LambdaExpression<T> lambdaE;
-        // WeakReference<LambdaExpression<?>> wlambda = _cache.get(lambda.getClass());
-        // if (wlambda != null) {
-        // lambdaE = (LambdaExpression<T>) wlambda.get();
-        // if (lambdaE != null)
-        // return (LambdaExpression<T>) lambdaE.accept(new InstanceReplacer(lambda));
-        // }
+        ParsedClass parsed = parsedClasses.get(lambda.getClass());
+        LambdaExpression<T> lambdaE = (LambdaExpression<T>) parsed.bind(lambda);
+        if (lambdaE != null)
+            return lambdaE;
 
         lambdaE = (LambdaExpression<T>) ExpressionClassCracker.get().lambda(lambda, true);
 
-        // _cache.put(lambda.getClass(), new WeakReference<LambdaExpression<?>>(lambdaE));
+        parsed.record(lambda, lambdaE);
 
         return lambdaE;
     }
 
+    /**
+     * Parses the bodies of all the lambdas declared in the class in a single pass over its class file, so that
+     * subsequent {@link #parse(Object)} calls for these lambdas do not read the class file again. Intended to warm up
+     * classes declaring many lambdas, e.g. at startup. Lambdas capturing {@code this} are parsed on demand.
+     *
+     * @param clazz class declaring the lambdas.
+     * @return number of lambda bodies parsed.
+     */
+    public static int preparseClass(@NonNull Class<?> clazz) {
+        return ExpressionClassCracker.get().preparseClass(clazz);
+    }
+
     /**
      * Creates {@link LambdaExpression} representing the passed method expression tree.
      * 
@@ -133,16 +208,206 @@ public final class LambdaExpression<F> extends InvocableExpression {
     }
 
     /**
-     * Produces a {@link Function} that represents the lambda expression.
+     * Produces a {@link Function} that represents the lambda expression, evaluated by the interpreter. If
+     * {@code -Dco.streamx.fluent.extree.compileThreshold=<n>} is set, the function switches to generated bytecode after
+     * n invocations, see {@link #compileAs(Class)} for the bytecode.
      * 
      * @return {@link Function} that represents the lambda expression.
      */
     public Function<Object[], ?> compile() {
-        final Function<Object[], ?> f = accept(Interpreter.Instance);
-        return (Object[] pp) -> {
-            Function<Object[], ?> f1 = (Function<Object[], ?>) f.apply(pp);
-            return f1.apply(null);
-        };
+        return TieredFunction.create(optimize());
+    }
+
+    /**
+     * Produces a {@link Function} that represents the lambda expression, evaluated by a tree of nodes specialized by the
+     * operand types. Unlike {@link #compile()}, primitive values are passed between the nodes without boxing and the
+     * calls between them stay monomorphic, which suits long running evaluation without bytecode generation.
+     * 
+     * @return {@link Function} that represents the lambda expression.
+     */
+    public Function<Object[], ?> compileSpecialized() {
+        return NodeInterpreter.Instance.compileLambda(optimize());
+    }
+
+    /**
+     * Produces a {@link Predicate} that represents the {@code boolean} lambda expression, e.g. a filter. Logical
+     * operators short-circuit and comparisons of primitives are evaluated without boxing.
+     * 
+     * @return {@link Predicate} that represents the lambda expression.
+     * @throws IllegalArgumentException if the lambda expression does not return {@code boolean}.
+     */
+    public Predicate<Object[]> compilePredicate() {
+        Class<?> type = getBody().getResultType();
+        if (type != Boolean.TYPE && type != Boolean.class)
+            throw new IllegalArgumentException("Not a predicate: " + type);
+        return Interpreter.Instance.compilePredicate(optimize());
+    }
+
+    /**
+     * Simplifies the lambda expression: folds operations and pure method calls (e.g. {@code String} or {@link Math}
+     * methods) on constants, including captured values of immutable types, eliminates conditional branches with a
+     * constant test and collapses lossless numeric conversion chains. {@link #compile()} and {@link #compileAs(Class)}
+     * optimize the lambda before compiling it.
+     *
+     * @return the simplified lambda expression, or this if there is nothing to simplify.
+     */
+    public LambdaExpression<F> optimize() {
+        return ConstantFolder.fold(this);
+    }
+
+    /**
+     * Hoists side effect free subtrees repeated in the lambda body, e.g. a getter chain used by several conditions,
+     * into locals evaluated once per call. Only the getters that just return a field, and the methods of
+     * {@link String}, boxed primitives and {@link Math}, are considered side effect free. Lambdas with side effects
+     * are returned as is.
+     *
+     * @return the lambda expression evaluating the common subexpressions once, or this if there are none.
+     */
+    public LambdaExpression<F> eliminateCommonSubexpressions() {
+        return CommonSubexpressionEliminator.eliminate(this);
+    }
+
+    /**
+     * Compiles the lambda expression to an instance of the specified functional interface, e.g.
+     * {@code Predicate<Customer> p = lambda.compileAs(Predicate.class)}. Unlike {@link #compile()}, the result is called
+     * with the interface signature and, when the tree can be translated to bytecode, invokes the members directly without
+     * allocating an argument array or boxing primitives. Otherwise the result delegates to {@link #compile()}.
+     * <p>
+     * Any interface with a single abstract method is supported, including primitive specializations like
+     * {@code ToIntFunction} and custom interfaces. The result is cached per interface.
+     * </p>
+     *
+     * @param <I>                 type of the functional interface.
+     * @param functionalInterface the functional interface the result implements, e.g. {@code Predicate.class}.
+     * @return an instance of {@code functionalInterface} that evaluates the lambda expression.
+     * @throws IllegalArgumentException if {@code functionalInterface} is not a functional interface, or its method
+     *                                  parameters count differs from the lambda expression.
+     */
+    @SuppressWarnings("unchecked")
+    public <I> I compileAs(@NonNull Class<? super I> functionalInterface) {
+        Map<Class<?>, Object> compiled = compiledAs;
+        if (compiled == null)
+            compiledAs = compiled = new ConcurrentHashMap<>(4);
+
+        Object f = compiled.get(functionalInterface);
+        if (f == null) {
+            f = compileTo(functionalInterface);
+            Object existing = compiled.putIfAbsent(functionalInterface, f);
+            if (existing != null)
+                f = existing;
+        }
+
+        return (I) f;
+    }
+
+    private Object compileTo(Class<?> functionalInterface) {
+        try {
+            return BytecodeCompiler.compile(optimize(), functionalInterface);
+        } catch (UnsupportedOperationException e) {
+            return InterpreterAdapter.create(this, functionalInterface);
+        }
+    }
+
+    /**
+     * Parse result of a lambda class, reused by {@link #parse(Object)} for every instance of that class. Each instance
+     * differs only by the values of the captured fields, which are read directly and bound to the template. Lambdas
+     * capturing {@code this} or other lambdas are parsed every time.
+     */
+    private static final class ParsedClass {
+        private static final MethodHandle[] disabled = new MethodHandle[0];
+
+        private volatile LambdaExpression<?> parsed;
+        private volatile MethodHandle[] capturedFields;
+
+        LambdaExpression<?> bind(Object lambda) {
+            MethodHandle[] getters = capturedFields;
+            if (getters == null || getters == disabled)
+                return null;
+
+            LambdaExpression<?> parsed = this.parsed;
+            if (getters.length == 0)
+                return parsed;
+
+            Object[] captured = new Object[getters.length];
+            try {
+                for (int i = 0; i < getters.length; i++)
+                    captured[i] = (Object) getters[i].invokeExact(lambda);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+
+            return ExpressionClassCracker.get().bind(parsed.template, captured, parsed.captured, parsed.key);
+        }
+
+        void record(Object lambda,
+                    LambdaExpression<?> parsed) {
+            if (capturedFields != null)
+                return;
+
+            MethodHandle[] getters = capturedFields(lambda, parsed);
+            if (getters != disabled)
+                this.parsed = parsed;
+            capturedFields = getters;
+        }
+
+        private static MethodHandle[] capturedFields(Object lambda,
+                                                     LambdaExpression<?> parsed) {
+            Class<?> lambdaClass = lambda.getClass();
+            if (!(lambdaClass.isSynthetic() && Serializable.class.isAssignableFrom(lambdaClass)))
+                return disabled;
+
+            List<Object> captured = parsed.getCaptured();
+            for (Object value : captured)
+                if (value instanceof LambdaExpression)
+                    return disabled;
+
+            List<Field> fields = new ArrayList<>();
+            for (Field f : lambdaClass.getDeclaredFields())
+                if (!Modifier.isStatic(f.getModifiers()))
+                    fields.add(f);
+
+            // a captured 'this' is a field as well, but is a part of the template
+            if (fields.size() != captured.size())
+                return disabled;
+
+            if (captured.isEmpty())
+                return new MethodHandle[0];
+
+            // the JDK names the fields arg$1, arg$2 etc. in the captured order, this is not specified, hence verified
+            // against the serialized form below
+            fields.sort(Comparator.comparing(Field::getName, Comparator.comparingInt(String::length)
+                    .thenComparing(Comparator.naturalOrder())));
+            for (int i = 0; i < fields.size(); i++)
+                if (!fields.get(i).getName().equals("arg$" + (i + 1)))
+                    return disabled;
+
+            MethodHandle[] getters = new MethodHandle[fields.size()];
+            MethodType getterType = MethodType.methodType(Object.class, Object.class);
+            try {
+                for (int i = 0; i < getters.length; i++) {
+                    Field f = fields.get(i);
+                    f.setAccessible(true);
+                    getters[i] = MethodHandles.lookup().unreflectGetter(f).asType(getterType);
+                }
+            } catch (IllegalAccessException | RuntimeException e) {
+                return disabled;
+            }
+
+            SerializedLambda serialized = ExpressionClassCracker.extractSerializedLambda(lambda);
+            if (serialized.getCapturedArgCount() != getters.length)
+                return disabled;
+            try {
+                for (int i = 0; i < getters.length; i++)
+                    if (!Objects.equals((Object) getters[i].invokeExact(lambda), serialized.getCapturedArg(i)))
+                        return disabled;
+            } catch (Throwable e) {
+                return disabled;
+            }
+
+            return getters;
+        }
     }
 
     @Override
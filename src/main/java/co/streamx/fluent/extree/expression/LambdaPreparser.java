@@ -0,0 +1,180 @@
+package co.streamx.fluent.extree.expression;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandleInfo;
+import java.lang.invoke.SerializedLambda;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * Parses serializable lambdas at build time. Scans compiled classes for serializable lambdas that do not capture
+ * {@code this} and writes their expression trees to {@code META-INF/extree/<capturing class>.ext} resources next to
+ * the classes. At runtime, {@link LambdaExpression#parse(Object)} loads the trees from the resource instead of parsing
+ * the bytecode. The resource records a digest of the class file, a resource left from a previous build of the class is
+ * ignored.
+ * <p>
+ * Usage: {@code java co.streamx.fluent.extree.expression.LambdaPreparser <classes directory>...}, with the classes
+ * and their dependencies on the class path. Typically run at the {@code process-classes} phase, see README.
+ * </p>
+ */
+
+public final class LambdaPreparser {
+
+    private final ClassLoader classLoader;
+
+    private LambdaPreparser(ClassLoader classLoader) {
+        this.classLoader = classLoader;
+    }
+
+    /**
+     * Preparses the classes directories.
+     *
+     * @param args the classes directories.
+     * @throws IOException              if a class file cannot be read or a resource cannot be written.
+     * @throws IllegalArgumentException if no directory is specified.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0)
+            throw new IllegalArgumentException("Usage: LambdaPreparser <classes directory>...");
+
+        URL[] urls = new URL[args.length];
+        for (int i = 0; i < args.length; i++)
+            urls[i] = new File(args[i]).toURI().toURL();
+
+        try (URLClassLoader loader = new URLClassLoader(urls, Thread.currentThread().getContextClassLoader())) {
+            LambdaPreparser preparser = new LambdaPreparser(loader);
+            int count = 0;
+            for (String dir : args)
+                count += preparser.preparseDirectory(new File(dir).toPath());
+            System.out.println("Preparsed " + count + " lambdas");
+        }
+    }
+
+    /**
+     * Preparses all the classes in the directory and writes the resources into it.
+     *
+     * @param classesDir root of compiled classes.
+     * @return number of lambdas written.
+     * @throws IOException if a class file cannot be read or a resource cannot be written.
+     */
+    int preparseDirectory(Path classesDir) throws IOException {
+        List<Path> classFiles;
+        try (Stream<Path> files = Files.walk(classesDir)) {
+            classFiles = files.filter(p -> p.toString().endsWith(".class")).collect(Collectors.toList());
+        }
+
+        int count = 0;
+        for (Path classFile : classFiles) {
+            byte[] classBytes = Files.readAllBytes(classFile);
+            ClassReader reader = new ClassReader(classBytes);
+
+            List<LambdaExpression<?>> lambdas = preparseClass(reader);
+            if (lambdas.isEmpty())
+                continue;
+
+            Path resource = classesDir.resolve(ExpressionClassCracker.PREPARSED_RESOURCE_PREFIX
+                    + reader.getClassName() + ExpressionClassCracker.PREPARSED_RESOURCE_SUFFIX);
+            Files.createDirectories(resource.getParent());
+            try (OutputStream out = Files.newOutputStream(resource)) {
+                ExpressionClassCracker.writePreparsedResource(classBytes, lambdas, out);
+            }
+            count += lambdas.size();
+        }
+
+        return count;
+    }
+
+    private List<LambdaExpression<?>> preparseClass(ClassReader reader) {
+        List<SerializedLambda> found = new ArrayList<>();
+        reader.accept(new ClassVisitor(Opcodes.ASM9) {
+            @Override
+            public MethodVisitor visitMethod(int access,
+                                             String name,
+                                             String descriptor,
+                                             String signature,
+                                             String[] exceptions) {
+                // recreates the lambdas declared elsewhere in the class
+                if (name.equals("$deserializeLambda$"))
+                    return null;
+
+                return new MethodVisitor(Opcodes.ASM9) {
+                    @Override
+                    public void visitInvokeDynamicInsn(String name,
+                                                       String descriptor,
+                                                       Handle bootstrapMethodHandle,
+                                                       Object... bootstrapMethodArguments) {
+                        SerializedLambda lambda = toSerializedLambda(reader.getClassName(), name, descriptor,
+                                bootstrapMethodHandle, bootstrapMethodArguments);
+                        if (lambda != null)
+                            found.add(lambda);
+                    }
+                };
+            }
+        }, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+
+        List<LambdaExpression<?>> lambdas = new ArrayList<>(found.size());
+        for (SerializedLambda lambda : found) {
+            // validate the tree can be written before keeping it
+            try {
+                LambdaExpression<?> parsed = ExpressionClassCracker.get().parseStatic(lambda, classLoader);
+                ExpressionCodec.encode(parsed);
+                lambdas.add(parsed);
+            } catch (RuntimeException e) {
+                System.err.println("Skipped " + lambda.getImplClass() + "." + lambda.getImplMethodName() + ": " + e);
+            }
+        }
+
+        return lambdas;
+    }
+
+    /**
+     * Describes a serializable lambda like {@code writeReplace} of the lambda instance would, with place holders for
+     * the captured values. Returns null for lambdas that are not serializable or capture {@code this}.
+     */
+    private SerializedLambda toSerializedLambda(String capturingClass,
+                                                String name,
+                                                String descriptor,
+                                                Handle bootstrapMethodHandle,
+                                                Object[] bootstrapMethodArguments) {
+        if (!bootstrapMethodHandle.getOwner().equals(Type.getInternalName(LambdaMetafactory.class))
+                || !bootstrapMethodHandle.getName().equals("altMetafactory"))
+            return null;
+
+        int flags = (Integer) bootstrapMethodArguments[3];
+        if ((flags & LambdaMetafactory.FLAG_SERIALIZABLE) == 0)
+            return null;
+
+        Handle impl = (Handle) bootstrapMethodArguments[1];
+        if (impl.getTag() != MethodHandleInfo.REF_invokeStatic && impl.getTag() != MethodHandleInfo.REF_newInvokeSpecial)
+            return null;
+
+        Class<?> capturing;
+        try {
+            capturing = Class.forName(Type.getObjectType(capturingClass).getClassName(), false, classLoader);
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+
+        Type indyType = Type.getMethodType(descriptor);
+        return new SerializedLambda(capturing, indyType.getReturnType().getInternalName(), name,
+                ((Type) bootstrapMethodArguments[0]).getDescriptor(), impl.getTag(), impl.getOwner(), impl.getName(),
+                impl.getDesc(), ((Type) bootstrapMethodArguments[2]).getDescriptor(),
+                new Object[indyType.getArgumentTypes().length]);
+    }
+}
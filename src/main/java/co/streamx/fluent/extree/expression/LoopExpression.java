@@ -0,0 +1,56 @@
+package co.streamx.fluent.extree.expression;
+
+import java.util.List;
+
+import lombok.Getter;
+
+/**
+ * Represents a {@code while} loop over the locals of a lambda: while the test holds, the body expressions are
+ * evaluated in order and each is assigned to its variable. A body expression without a variable is evaluated for its
+ * side effects. The loop does not produce a value, the code following it reads the variables.
+ *
+ *
+ */
+
+@Getter
+public final class LoopExpression extends Expression {
+
+    private final Expression test;
+    private final List<ParameterExpression> variables;
+    private final List<Expression> body;
+
+    LoopExpression(Expression test, List<ParameterExpression> variables, List<Expression> body) {
+        super(ExpressionType.Loop, Void.TYPE);
+
+        if (variables.size() != body.size())
+            throw new IllegalArgumentException("Expected " + variables.size() + " body expressions, got: " + body.size());
+
+        this.test = test;
+        this.variables = variables;
+        this.body = body;
+    }
+
+    @Override
+    protected <T> T visit(ExpressionVisitor<T> v) {
+        return v.visit(this);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder();
+        b.append("while (");
+        b.append(test);
+        b.append(") {");
+        for (int i = 0; i < body.size(); i++) {
+            b.append('\n');
+            ParameterExpression variable = variables.get(i);
+            if (variable != null) {
+                b.append(variable);
+                b.append(" = ");
+            }
+            b.append(body.get(i));
+        }
+        b.append("\n}");
+        return b.toString();
+    }
+}
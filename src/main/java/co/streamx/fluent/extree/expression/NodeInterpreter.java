@@ -0,0 +1,1000 @@
+package co.streamx.fluent.extree.expression;
+
+import static co.streamx.fluent.extree.function.Functions.greaterThan;
+import static co.streamx.fluent.extree.function.Functions.greaterThanOrEqual;
+import static co.streamx.fluent.extree.function.Functions.lessThan;
+import static co.streamx.fluent.extree.function.Functions.lessThanOrEqual;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+import co.streamx.fluent.extree.function.math.BinaryOperator;
+
+/**
+ * Evaluates expression trees with a tree of nodes instead of composed functions. Each kind of node is a final class
+ * with typed {@code executeInt}, {@code executeLong}, {@code executeDouble} and {@code executeBoolean} methods, so the
+ * calls between the nodes stay monomorphic per node class and primitive values flow between them without boxing.
+ * <p>
+ * Nodes whose operand types are not known statically specialize themselves on the types they observe at runtime and
+ * fall back to the generic implementation once the observed types change. Node kinds that are not covered, e.g.
+ * nested lambdas or blocks, are evaluated by the {@link Interpreter}.
+ * </p>
+ */
+
+final class NodeInterpreter implements ExpressionVisitor<NodeInterpreter.Node> {
+
+    static final NodeInterpreter Instance = new NodeInterpreter();
+
+    private NodeInterpreter() {
+    }
+
+    /**
+     * Produces the function that evaluates the lambda with the specified arguments, captured values first.
+     */
+    Function<Object[], ?> compileLambda(LambdaExpression<?> e) {
+        List<ParameterExpression> parameters = e.getParameters();
+        if (!Interpreter.isIdentity(parameters))
+            return Interpreter.Instance.compileLambda(e);
+
+        Node body = e.getBody().accept(this);
+        List<Expression> locals = e.getLocals();
+        int size = parameters.size();
+        if (locals.isEmpty())
+            return pp -> body.execute(pp != null && pp.length == size ? pp : Interpreter.toFrame(pp, size, size));
+
+        Node[] localNodes = new Node[locals.size()];
+        for (int index = 0; index < localNodes.length; index++) {
+            Expression local = locals.get(index);
+            localNodes[index] = local != null ? local.accept(this) : null;
+        }
+
+        int frameSize = size + localNodes.length;
+        return pp -> {
+            Object[] frame = Interpreter.toFrame(pp, size, frameSize);
+            for (int index = 0; index < localNodes.length; index++) {
+                Node local = localNodes[index];
+                if (local != null)
+                    frame[size + index] = local.execute(frame);
+            }
+            return body.execute(frame);
+        };
+    }
+
+    private static Node interpreted(Expression e) {
+        return new InterpretedNode(e.accept(Interpreter.Instance));
+    }
+
+    private static int kindOf(Class<?> type) {
+        if (type == Integer.TYPE)
+            return Node.INT;
+        if (type == Long.TYPE)
+            return Node.LONG;
+        if (type == Double.TYPE)
+            return Node.DOUBLE;
+        if (type == Boolean.TYPE)
+            return Node.BOOLEAN;
+        return Node.OBJECT;
+    }
+
+    private static boolean isBoxing(Class<?> from,
+                                    Class<?> to) {
+        if (from.isPrimitive())
+            return !to.isPrimitive() && to == MethodType.methodType(from).wrap().returnType();
+        return to.isPrimitive() && from == MethodType.methodType(to).wrap().returnType();
+    }
+
+    private static boolean isNumber(Class<?> type) {
+        if (type.isPrimitive())
+            return type != Boolean.TYPE && type != Character.TYPE && type != Void.TYPE;
+        return Number.class.isAssignableFrom(type);
+    }
+
+    private static boolean isComparison(int expressionType) {
+        switch (expressionType) {
+            case ExpressionType.Equal:
+            case ExpressionType.NotEqual:
+            case ExpressionType.GreaterThan:
+            case ExpressionType.GreaterThanOrEqual:
+            case ExpressionType.LessThan:
+            case ExpressionType.LessThanOrEqual:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    public Node visit(BinaryExpression e) {
+        int expressionType = e.getExpressionType();
+        switch (expressionType) {
+            case ExpressionType.LogicalAnd:
+                return new AndNode(e.getFirst().accept(this), e.getSecond().accept(this));
+            case ExpressionType.LogicalOr:
+                return new OrNode(e.getFirst().accept(this), e.getSecond().accept(this));
+            case ExpressionType.Conditional:
+                return new ConditionalNode(e.getOperator().accept(this), e.getFirst().accept(this),
+                        e.getSecond().accept(this));
+            default:
+                break;
+        }
+
+        int first = kindOf(e.getFirst().getResultType());
+        int second = kindOf(e.getSecond().getResultType());
+        if (isComparison(expressionType)) {
+            Node left = e.getFirst().accept(this);
+            Node right = e.getSecond().accept(this);
+            if (first == second && first != Node.OBJECT && first != Node.BOOLEAN)
+                return new NumericComparisonNode(expressionType, first, left, right);
+            return new ComparisonNode(expressionType, left, right);
+        }
+
+        int result = kindOf(e.getResultType());
+        if (result == first && (result == Node.INT || result == Node.LONG || result == Node.DOUBLE)
+                && NumericNode.supports(expressionType, result, second))
+            return new NumericNode(expressionType, result, e.getFirst().accept(this), e.getSecond().accept(this));
+
+        if (GenericArithmeticNode.supports(expressionType) && isNumber(e.getResultType()))
+            return new GenericArithmeticNode(expressionType, e.getFirst().accept(this), e.getSecond().accept(this));
+
+        return interpreted(e);
+    }
+
+    @Override
+    public Node visit(ConstantExpression e) {
+        return new ConstantNode(e.getValue());
+    }
+
+    @Override
+    public Node visit(InvocationExpression e) {
+        InvocableExpression target = e.getTarget();
+        switch (target.getExpressionType()) {
+            case ExpressionType.FieldAccess: {
+                MemberExpression m = (MemberExpression) target;
+                if (!(m.getMember() instanceof Field))
+                    break;
+                Node instance = m.getInstance() != null ? m.getInstance().accept(this) : null;
+                return new FieldNode(Interpreter.getMemberHandle(m.getMember()), instance);
+            }
+            case ExpressionType.MethodAccess: {
+                MemberExpression m = (MemberExpression) target;
+                List<Expression> arguments = e.getArguments();
+                if (!(m.getMember() instanceof Method) || !Interpreter.isIdentity(m.getParameters())
+                        || m.getParameters().size() != arguments.size())
+                    break;
+                Node instance = m.getInstance() != null ? m.getInstance().accept(this) : null;
+                Node[] args = new Node[arguments.size()];
+                for (int index = 0; index < args.length; index++)
+                    args[index] = arguments.get(index).accept(this);
+                return new MethodNode(Interpreter.getMemberHandle(m.getMember()), instance, args);
+            }
+            default:
+                break;
+        }
+        return interpreted(e);
+    }
+
+    @Override
+    public Node visit(LambdaExpression<?> e) {
+        return interpreted(e);
+    }
+
+    @Override
+    public Node visit(DelegateExpression e) {
+        return interpreted(e);
+    }
+
+    @Override
+    public Node visit(MemberExpression e) {
+        return interpreted(e);
+    }
+
+    @Override
+    public Node visit(ParameterExpression e) {
+        return new ParameterNode(e.getIndex());
+    }
+
+    @Override
+    public Node visit(UnaryExpression e) {
+        switch (e.getExpressionType()) {
+            case ExpressionType.LogicalNot:
+                return new NotNode(e.getFirst().accept(this));
+            case ExpressionType.IsNull:
+                return new IsNullNode(e.getFirst().accept(this), false);
+            case ExpressionType.IsNonNull:
+                return new IsNullNode(e.getFirst().accept(this), true);
+            case ExpressionType.Negate: {
+                int kind = kindOf(e.getResultType());
+                if (kind == Node.INT || kind == Node.LONG || kind == Node.DOUBLE)
+                    return new NegateNode(kind, e.getFirst().accept(this));
+                break;
+            }
+            case ExpressionType.Convert: {
+                // boxing and unboxing: the nodes produce boxed values and unbox them when executed typed
+                if (isBoxing(e.getFirst().getResultType(), e.getResultType()))
+                    return e.getFirst().accept(this);
+                int from = kindOf(e.getFirst().getResultType());
+                int to = kindOf(e.getResultType());
+                if (from != to && from != Node.OBJECT && from != Node.BOOLEAN && to != Node.OBJECT
+                        && to != Node.BOOLEAN)
+                    return new ConvertNode(to, from, e.getFirst().accept(this));
+                break;
+            }
+            default:
+                break;
+        }
+        return interpreted(e);
+    }
+
+    @Override
+    public Node visit(BlockExpression e) {
+        return interpreted(e);
+    }
+
+    @Override
+    public Node visit(NewArrayInitExpression e) {
+        return interpreted(e);
+    }
+
+    @Override
+    public Node visit(LoopExpression e) {
+        return interpreted(e);
+    }
+
+    @Override
+    public Node visit(SwitchExpression e) {
+        if (kindOf(e.getSwitchValue().getResultType()) != Node.INT)
+            return interpreted(e);
+
+        List<Expression> cases = e.getCases();
+        List<Node> caseNodes = new ArrayList<>(cases.size());
+        Map<Expression, Node> shared = new IdentityHashMap<>();
+        for (Expression c : cases)
+            caseNodes.add(shared.computeIfAbsent(c, x -> x.accept(this)));
+
+        return new SwitchNode(e.getSwitchValue().accept(this),
+                Interpreter.jumpTable(e.getKeys(), caseNodes, e.getDefaultCase().accept(this)));
+    }
+
+    /**
+     * Evaluates a node of the tree. The typed methods are called when the static type of the node is known, the
+     * defaults unbox the result of {@link #execute(Object[])}.
+     */
+    abstract static class Node {
+        static final int OBJECT = 0;
+        static final int INT = 1;
+        static final int LONG = 2;
+        static final int DOUBLE = 3;
+        static final int BOOLEAN = 4;
+
+        abstract Object execute(Object[] frame);
+
+        int executeInt(Object[] frame) {
+            return ((Number) execute(frame)).intValue();
+        }
+
+        long executeLong(Object[] frame) {
+            return ((Number) execute(frame)).longValue();
+        }
+
+        double executeDouble(Object[] frame) {
+            return ((Number) execute(frame)).doubleValue();
+        }
+
+        boolean executeBoolean(Object[] frame) {
+            return (Boolean) execute(frame);
+        }
+    }
+
+    /**
+     * Node producing a {@code boolean}.
+     */
+    abstract static class BooleanNode extends Node {
+        @Override
+        final Object execute(Object[] frame) {
+            return executeBoolean(frame);
+        }
+
+        @Override
+        abstract boolean executeBoolean(Object[] frame);
+    }
+
+    static final class InterpretedNode extends Node {
+        private final Function<Object[], ?> f;
+
+        InterpretedNode(Function<Object[], ?> f) {
+            this.f = f;
+        }
+
+        @Override
+        Object execute(Object[] frame) {
+            return f.apply(frame);
+        }
+    }
+
+    static final class ConstantNode extends Node {
+        private final Object value;
+        private final int intValue;
+        private final long longValue;
+        private final double doubleValue;
+        private final boolean booleanValue;
+
+        ConstantNode(Object value) {
+            this.value = value;
+            Number number = value instanceof Number ? (Number) value : 0;
+            this.intValue = number.intValue();
+            this.longValue = number.longValue();
+            this.doubleValue = number.doubleValue();
+            this.booleanValue = Boolean.TRUE.equals(value);
+        }
+
+        @Override
+        Object execute(Object[] frame) {
+            return value;
+        }
+
+        @Override
+        int executeInt(Object[] frame) {
+            return intValue;
+        }
+
+        @Override
+        long executeLong(Object[] frame) {
+            return longValue;
+        }
+
+        @Override
+        double executeDouble(Object[] frame) {
+            return doubleValue;
+        }
+
+        @Override
+        boolean executeBoolean(Object[] frame) {
+            return booleanValue;
+        }
+    }
+
+    static final class ParameterNode extends Node {
+        private final int index;
+
+        ParameterNode(int index) {
+            this.index = index;
+        }
+
+        @Override
+        Object execute(Object[] frame) {
+            return frame[index];
+        }
+    }
+
+    /**
+     * Arithmetic, bitwise and shift operations over {@code int}, {@code long} or {@code double} operands.
+     */
+    static final class NumericNode extends Node {
+        private final int operation;
+        private final int kind;
+        private final Node first;
+        private final Node second;
+
+        NumericNode(int operation,
+                    int kind,
+                    Node first,
+                    Node second) {
+            this.operation = operation;
+            this.kind = kind;
+            this.first = first;
+            this.second = second;
+        }
+
+        static boolean supports(int operation,
+                                int kind,
+                                int second) {
+            switch (operation) {
+                case ExpressionType.Add:
+                case ExpressionType.Subtract:
+                case ExpressionType.Multiply:
+                case ExpressionType.Divide:
+                case ExpressionType.Modulo:
+                    return second == kind;
+                case ExpressionType.BitwiseAnd:
+                case ExpressionType.BitwiseOr:
+                case ExpressionType.ExclusiveOr:
+                    return second == kind && kind != DOUBLE;
+                case ExpressionType.LeftShift:
+                case ExpressionType.RightShift:
+                    return second == INT && kind != DOUBLE;
+                default:
+                    return false;
+            }
+        }
+
+        @Override
+        Object execute(Object[] frame) {
+            switch (kind) {
+                case INT:
+                    return executeInt(frame);
+                case LONG:
+                    return executeLong(frame);
+                default:
+                    return executeDouble(frame);
+            }
+        }
+
+        @Override
+        int executeInt(Object[] frame) {
+            int a = first.executeInt(frame);
+            int b = second.executeInt(frame);
+            switch (operation) {
+                case ExpressionType.Add:
+                    return a + b;
+                case ExpressionType.Subtract:
+                    return a - b;
+                case ExpressionType.Multiply:
+                    return a * b;
+                case ExpressionType.Divide:
+                    return a / b;
+                case ExpressionType.Modulo:
+                    return a % b;
+                case ExpressionType.BitwiseAnd:
+                    return a & b;
+                case ExpressionType.BitwiseOr:
+                    return a | b;
+                case ExpressionType.ExclusiveOr:
+                    return a ^ b;
+                case ExpressionType.LeftShift:
+                    return a << b;
+                default:
+                    return a >> b;
+            }
+        }
+
+        @Override
+        long executeLong(Object[] frame) {
+            if (kind == INT)
+                return executeInt(frame);
+            long a = first.executeLong(frame);
+            switch (operation) {
+                case ExpressionType.LeftShift:
+                    return a << second.executeInt(frame);
+                case ExpressionType.RightShift:
+                    return a >> second.executeInt(frame);
+                default:
+                    break;
+            }
+            long b = second.executeLong(frame);
+            switch (operation) {
+                case ExpressionType.Add:
+                    return a + b;
+                case ExpressionType.Subtract:
+                    return a - b;
+                case ExpressionType.Multiply:
+                    return a * b;
+                case ExpressionType.Divide:
+                    return a / b;
+                case ExpressionType.Modulo:
+                    return a % b;
+                case ExpressionType.BitwiseAnd:
+                    return a & b;
+                case ExpressionType.BitwiseOr:
+                    return a | b;
+                default:
+                    return a ^ b;
+            }
+        }
+
+        @Override
+        double executeDouble(Object[] frame) {
+            if (kind != DOUBLE)
+                return kind == INT ? executeInt(frame) : executeLong(frame);
+            double a = first.executeDouble(frame);
+            double b = second.executeDouble(frame);
+            switch (operation) {
+                case ExpressionType.Add:
+                    return a + b;
+                case ExpressionType.Subtract:
+                    return a - b;
+                case ExpressionType.Multiply:
+                    return a * b;
+                case ExpressionType.Divide:
+                    return a / b;
+                default:
+                    return a % b;
+            }
+        }
+    }
+
+    /**
+     * Add, subtract or multiply of boxed numbers. Specializes on the first observed operand types and returns to the
+     * generic {@link BinaryOperator} once they change.
+     */
+    static final class GenericArithmeticNode extends Node {
+        private static final byte UNINITIALIZED = 0;
+        private static final byte GENERIC = 1;
+        private static final byte INTEGERS = 2;
+        private static final byte LONGS = 3;
+        private static final byte DOUBLES = 4;
+
+        private final int operation;
+        private final BinaryOperator operator;
+        private final Node first;
+        private final Node second;
+        private byte state;
+
+        GenericArithmeticNode(int operation,
+                              Node first,
+                              Node second) {
+            this.operation = operation;
+            this.operator = operation == ExpressionType.Add ? BinaryOperator.Add
+                    : operation == ExpressionType.Subtract ? BinaryOperator.Subtract : BinaryOperator.Multiply;
+            this.first = first;
+            this.second = second;
+        }
+
+        static boolean supports(int operation) {
+            return operation == ExpressionType.Add || operation == ExpressionType.Subtract
+                    || operation == ExpressionType.Multiply;
+        }
+
+        @Override
+        Object execute(Object[] frame) {
+            Object a = first.execute(frame);
+            Object b = second.execute(frame);
+            switch (state) {
+                case INTEGERS:
+                    if (a instanceof Integer && b instanceof Integer)
+                        return evaluate((Integer) a, (Integer) b);
+                    break;
+                case LONGS:
+                    if (a instanceof Long && b instanceof Long)
+                        return evaluate((Long) a, (Long) b);
+                    break;
+                case DOUBLES:
+                    if (a instanceof Double && b instanceof Double)
+                        return evaluate((Double) a, (Double) b);
+                    break;
+                case UNINITIALIZED:
+                    return specialize(a, b);
+                default:
+                    return operator.eval((Number) a, (Number) b);
+            }
+
+            state = GENERIC;
+            return operator.eval((Number) a, (Number) b);
+        }
+
+        private Object specialize(Object a,
+                                  Object b) {
+            if (a instanceof Integer && b instanceof Integer) {
+                state = INTEGERS;
+                return evaluate((Integer) a, (Integer) b);
+            }
+            if (a instanceof Long && b instanceof Long) {
+                state = LONGS;
+                return evaluate((Long) a, (Long) b);
+            }
+            if (a instanceof Double && b instanceof Double) {
+                state = DOUBLES;
+                return evaluate((Double) a, (Double) b);
+            }
+            state = GENERIC;
+            return operator.eval((Number) a, (Number) b);
+        }
+
+        private int evaluate(int a,
+                             int b) {
+            return operation == ExpressionType.Add ? a + b : operation == ExpressionType.Subtract ? a - b : a * b;
+        }
+
+        private long evaluate(long a,
+                              long b) {
+            return operation == ExpressionType.Add ? a + b : operation == ExpressionType.Subtract ? a - b : a * b;
+        }
+
+        private double evaluate(double a,
+                                double b) {
+            return operation == ExpressionType.Add ? a + b : operation == ExpressionType.Subtract ? a - b : a * b;
+        }
+    }
+
+    static final class NumericComparisonNode extends BooleanNode {
+        private final int operation;
+        private final int kind;
+        private final Node first;
+        private final Node second;
+
+        NumericComparisonNode(int operation,
+                              int kind,
+                              Node first,
+                              Node second) {
+            this.operation = operation;
+            this.kind = kind;
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        boolean executeBoolean(Object[] frame) {
+            int c;
+            switch (kind) {
+                case INT:
+                    c = Integer.compare(first.executeInt(frame), second.executeInt(frame));
+                    break;
+                case LONG:
+                    c = Long.compare(first.executeLong(frame), second.executeLong(frame));
+                    break;
+                default:
+                    double a = first.executeDouble(frame);
+                    double b = second.executeDouble(frame);
+                    // NaN compares false, except for !=
+                    if (a != a || b != b)
+                        return operation == ExpressionType.NotEqual;
+                    c = a < b ? -1 : a > b ? 1 : 0;
+                    break;
+            }
+            switch (operation) {
+                case ExpressionType.Equal:
+                    return c == 0;
+                case ExpressionType.NotEqual:
+                    return c != 0;
+                case ExpressionType.GreaterThan:
+                    return c > 0;
+                case ExpressionType.GreaterThanOrEqual:
+                    return c >= 0;
+                case ExpressionType.LessThan:
+                    return c < 0;
+                default:
+                    return c <= 0;
+            }
+        }
+    }
+
+    /**
+     * Comparison of objects, with the semantics of the {@link Interpreter}.
+     */
+    static final class ComparisonNode extends BooleanNode {
+        private final int operation;
+        private final Node first;
+        private final Node second;
+        private final BiPredicate<Object[], Object[]> comparison;
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        ComparisonNode(int operation,
+                       Node first,
+                       Node second) {
+            this.operation = operation;
+            this.first = first;
+            this.second = second;
+
+            Function<Object[], ?> a = first::execute;
+            Function<Object[], ?> b = second::execute;
+            switch (operation) {
+                case ExpressionType.GreaterThan:
+                    comparison = greaterThan((Function) a, (Function) b);
+                    break;
+                case ExpressionType.GreaterThanOrEqual:
+                    comparison = greaterThanOrEqual((Function) a, (Function) b);
+                    break;
+                case ExpressionType.LessThan:
+                    comparison = lessThan((Function) a, (Function) b);
+                    break;
+                case ExpressionType.LessThanOrEqual:
+                    comparison = lessThanOrEqual((Function) a, (Function) b);
+                    break;
+                default:
+                    comparison = null;
+                    break;
+            }
+        }
+
+        @Override
+        boolean executeBoolean(Object[] frame) {
+            switch (operation) {
+                case ExpressionType.Equal:
+                    return Objects.equals(first.execute(frame), second.execute(frame));
+                case ExpressionType.NotEqual:
+                    return !Objects.equals(first.execute(frame), second.execute(frame));
+                default:
+                    return comparison.test(frame, frame);
+            }
+        }
+    }
+
+    static final class AndNode extends BooleanNode {
+        private final Node first;
+        private final Node second;
+
+        AndNode(Node first,
+                Node second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        boolean executeBoolean(Object[] frame) {
+            return first.executeBoolean(frame) && second.executeBoolean(frame);
+        }
+    }
+
+    static final class OrNode extends BooleanNode {
+        private final Node first;
+        private final Node second;
+
+        OrNode(Node first,
+               Node second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        boolean executeBoolean(Object[] frame) {
+            return first.executeBoolean(frame) || second.executeBoolean(frame);
+        }
+    }
+
+    static final class NotNode extends BooleanNode {
+        private final Node operand;
+
+        NotNode(Node operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        boolean executeBoolean(Object[] frame) {
+            return !operand.executeBoolean(frame);
+        }
+    }
+
+    static final class IsNullNode extends BooleanNode {
+        private final Node operand;
+        private final boolean negated;
+
+        IsNullNode(Node operand,
+                   boolean negated) {
+            this.operand = operand;
+            this.negated = negated;
+        }
+
+        @Override
+        boolean executeBoolean(Object[] frame) {
+            return (operand.execute(frame) == null) ^ negated;
+        }
+    }
+
+    /**
+     * Evaluates the taken branch with the same typed method, so typed values flow through.
+     */
+    static final class ConditionalNode extends Node {
+        private final Node test;
+        private final Node ifTrue;
+        private final Node ifFalse;
+
+        ConditionalNode(Node test,
+                        Node ifTrue,
+                        Node ifFalse) {
+            this.test = test;
+            this.ifTrue = ifTrue;
+            this.ifFalse = ifFalse;
+        }
+
+        @Override
+        Object execute(Object[] frame) {
+            return (test.executeBoolean(frame) ? ifTrue : ifFalse).execute(frame);
+        }
+
+        @Override
+        int executeInt(Object[] frame) {
+            return (test.executeBoolean(frame) ? ifTrue : ifFalse).executeInt(frame);
+        }
+
+        @Override
+        long executeLong(Object[] frame) {
+            return (test.executeBoolean(frame) ? ifTrue : ifFalse).executeLong(frame);
+        }
+
+        @Override
+        double executeDouble(Object[] frame) {
+            return (test.executeBoolean(frame) ? ifTrue : ifFalse).executeDouble(frame);
+        }
+
+        @Override
+        boolean executeBoolean(Object[] frame) {
+            return (test.executeBoolean(frame) ? ifTrue : ifFalse).executeBoolean(frame);
+        }
+    }
+
+    static final class SwitchNode extends Node {
+        private final Node value;
+        private final IntFunction<Node> cases;
+
+        SwitchNode(Node value,
+                   IntFunction<Node> cases) {
+            this.value = value;
+            this.cases = cases;
+        }
+
+        @Override
+        Object execute(Object[] frame) {
+            return cases.apply(value.executeInt(frame)).execute(frame);
+        }
+
+        @Override
+        int executeInt(Object[] frame) {
+            return cases.apply(value.executeInt(frame)).executeInt(frame);
+        }
+
+        @Override
+        long executeLong(Object[] frame) {
+            return cases.apply(value.executeInt(frame)).executeLong(frame);
+        }
+
+        @Override
+        double executeDouble(Object[] frame) {
+            return cases.apply(value.executeInt(frame)).executeDouble(frame);
+        }
+
+        @Override
+        boolean executeBoolean(Object[] frame) {
+            return cases.apply(value.executeInt(frame)).executeBoolean(frame);
+        }
+    }
+
+    static final class NegateNode extends Node {
+        private final int kind;
+        private final Node operand;
+
+        NegateNode(int kind,
+                   Node operand) {
+            this.kind = kind;
+            this.operand = operand;
+        }
+
+        @Override
+        Object execute(Object[] frame) {
+            switch (kind) {
+                case INT:
+                    return -operand.executeInt(frame);
+                case LONG:
+                    return -operand.executeLong(frame);
+                default:
+                    return -operand.executeDouble(frame);
+            }
+        }
+
+        @Override
+        int executeInt(Object[] frame) {
+            return -operand.executeInt(frame);
+        }
+
+        @Override
+        long executeLong(Object[] frame) {
+            return kind == INT ? -operand.executeInt(frame) : -operand.executeLong(frame);
+        }
+
+        @Override
+        double executeDouble(Object[] frame) {
+            return kind == DOUBLE ? -operand.executeDouble(frame) : executeLong(frame);
+        }
+    }
+
+    /**
+     * Conversion between {@code int}, {@code long} and {@code double}.
+     */
+    static final class ConvertNode extends Node {
+        private final int to;
+        private final int from;
+        private final Node operand;
+
+        ConvertNode(int to,
+                    int from,
+                    Node operand) {
+            this.to = to;
+            this.from = from;
+            this.operand = operand;
+        }
+
+        @Override
+        Object execute(Object[] frame) {
+            switch (to) {
+                case INT:
+                    return executeInt(frame);
+                case LONG:
+                    return executeLong(frame);
+                default:
+                    return executeDouble(frame);
+            }
+        }
+
+        @Override
+        int executeInt(Object[] frame) {
+            switch (from) {
+                case INT:
+                    return operand.executeInt(frame);
+                case LONG:
+                    return (int) operand.executeLong(frame);
+                default:
+                    return (int) operand.executeDouble(frame);
+            }
+        }
+
+        @Override
+        long executeLong(Object[] frame) {
+            switch (from) {
+                case INT:
+                    return operand.executeInt(frame);
+                case LONG:
+                    return operand.executeLong(frame);
+                default:
+                    return (long) operand.executeDouble(frame);
+            }
+        }
+
+        @Override
+        double executeDouble(Object[] frame) {
+            switch (from) {
+                case INT:
+                    return operand.executeInt(frame);
+                case LONG:
+                    return operand.executeLong(frame);
+                default:
+                    return operand.executeDouble(frame);
+            }
+        }
+    }
+
+    static final class FieldNode extends Node {
+        private final MethodHandle handle;
+        private final Node instance;
+
+        FieldNode(MethodHandle handle,
+                  Node instance) {
+            this.handle = handle;
+            this.instance = instance;
+        }
+
+        @Override
+        Object execute(Object[] frame) {
+            Object inst = instance == null ? null : instance.execute(frame);
+            try {
+                return (Object) handle.invokeExact(inst);
+            } catch (Throwable ex) {
+                throw Interpreter.sneakyThrow(ex);
+            }
+        }
+    }
+
+    static final class MethodNode extends Node {
+        private final MethodHandle handle;
+        private final Node instance;
+        private final Node[] arguments;
+
+        MethodNode(MethodHandle handle,
+                   Node instance,
+                   Node[] arguments) {
+            this.handle = handle;
+            this.instance = instance;
+            this.arguments = arguments;
+        }
+
+        @Override
+        Object execute(Object[] frame) {
+            Object inst = instance == null ? null : instance.execute(frame);
+            Object[] args = new Object[arguments.length];
+            for (int index = 0; index < args.length; index++)
+                args[index] = arguments[index].execute(frame);
+            try {
+                return (Object) handle.invokeExact(inst, args);
+            } catch (Throwable ex) {
+                throw Interpreter.sneakyThrow(ex);
+            }
+        }
+    }
+}
@@ -220,6 +220,27 @@ public abstract class SimpleExpressionVisitor implements ExpressionVisitor<Expre
         return e;
     }
 
+    @Override
+    public Expression visit(LoopExpression e) {
+        Expression test = e.getTest().accept(this);
+        List<Expression> body = visitExpressionList(e.getBody());
+        if (test != e.getTest() || body != e.getBody())
+            return Expression.loop(test, e.getVariables(), body);
+
+        return e;
+    }
+
+    @Override
+    public Expression visit(SwitchExpression e) {
+        Expression switchValue = e.getSwitchValue().accept(this);
+        List<Expression> cases = visitExpressionList(e.getCases());
+        Expression defaultCase = e.getDefaultCase().accept(this);
+        if (switchValue != e.getSwitchValue() || cases != e.getCases() || defaultCase != e.getDefaultCase())
+            return Expression.switchExpression(e.getResultType(), switchValue, e.getKeys(), cases, defaultCase);
+
+        return e;
+    }
+
     @Override
     public Expression visit(UnaryExpression e) {
         Expression operand = e.getFirst();
@@ -0,0 +1,62 @@
+package co.streamx.fluent.extree.expression;
+
+import java.util.List;
+
+import lombok.Getter;
+
+/**
+ * Represents a {@code switch} over an integral value: evaluates the case whose key equals the value, or the default
+ * case if none does. Cases sharing a label appear once per key, with the very same case expression.
+ * <p>
+ * A {@code switch} over an enum is represented as a switch over its {@link Enum#ordinal() ordinal}, the keys are the
+ * ordinals of the enum constants.
+ * </p>
+ */
+
+@Getter
+public final class SwitchExpression extends Expression {
+
+    private final Expression switchValue;
+    private final List<Integer> keys;
+    private final List<Expression> cases;
+    private final Expression defaultCase;
+
+    SwitchExpression(Class<?> resultType,
+                     Expression switchValue,
+                     List<Integer> keys,
+                     List<Expression> cases,
+                     Expression defaultCase) {
+        super(ExpressionType.Switch, resultType);
+
+        if (keys.size() != cases.size())
+            throw new IllegalArgumentException("Expected " + keys.size() + " cases, got: " + cases.size());
+
+        this.switchValue = switchValue;
+        this.keys = keys;
+        this.cases = cases;
+        this.defaultCase = defaultCase;
+    }
+
+    @Override
+    protected <T> T visit(ExpressionVisitor<T> v) {
+        return v.visit(this);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder();
+        b.append("switch (");
+        b.append(switchValue);
+        b.append(") {");
+        for (int i = 0; i < keys.size(); i++) {
+            b.append("\ncase ");
+            b.append(keys.get(i));
+            b.append(": ");
+            b.append(cases.get(i));
+        }
+        b.append("\ndefault: ");
+        b.append(defaultCase);
+        b.append("\n}");
+        return b.toString();
+    }
+}
@@ -0,0 +1,123 @@
+package co.streamx.fluent.extree.expression;
+
+import java.lang.System.Logger.Level;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Evaluates a lambda expression with the {@link Interpreter} first and switches to the {@link BytecodeCompiler}
+ * output once the lambda is invoked often enough. One-shot lambdas never pay for class generation, while hot ones
+ * reach the speed of generated code. The bytecode is generated in the background, the calls keep being interpreted
+ * meanwhile. Lambdas the compiler cannot translate stay interpreted.
+ * <p>
+ * Tiering is opt-in: {@link LambdaExpression#compile()} uses it only if the number of invocations before compiling is
+ * set with {@code -Dco.streamx.fluent.extree.compileThreshold=<n>}. A failure to compile is logged and kept, see
+ * {@link #getCompileFailure()}.
+ * </p>
+ */
+
+final class TieredFunction implements Function<Object[], Object> {
+
+    static final String THRESHOLD_SYSTEM_PROPERTY = "co.streamx.fluent.extree.compileThreshold";
+    private static final int defaultThreshold = Integer.getInteger(THRESHOLD_SYSTEM_PROPERTY, -1);
+
+    private final LambdaExpression<?> lambda;
+    private final Function<Object[], ?> interpreted;
+    private final int threshold;
+    private final Executor executor;
+
+    private volatile Function<Object[], ?> current;
+    private volatile boolean scheduled;
+    private volatile int invocations; // approximate, races only delay compiling
+    private volatile RuntimeException compileFailure;
+
+    private TieredFunction(LambdaExpression<?> lambda,
+                           Function<Object[], ?> interpreted,
+                           int threshold,
+                           Executor executor) {
+        this.lambda = lambda;
+        this.interpreted = interpreted;
+        this.threshold = threshold;
+        this.executor = executor;
+        this.current = interpreted;
+    }
+
+    /**
+     * @return the tiered function if tiering is enabled, otherwise the interpreted one.
+     */
+    static Function<Object[], ?> create(LambdaExpression<?> lambda) {
+        return create(lambda, defaultThreshold, ForkJoinPool.commonPool());
+    }
+
+    static Function<Object[], ?> create(LambdaExpression<?> lambda,
+                                        int threshold,
+                                        Executor executor) {
+        Function<Object[], ?> interpreted = Interpreter.Instance.compileLambda(lambda);
+        // the compiled lambda is called through Supplier, Function or BiFunction
+        if (threshold < 0 || lambda.getParameters().size() > 2)
+            return interpreted;
+        return new TieredFunction(lambda, interpreted, threshold, executor);
+    }
+
+    /**
+     * @return true once the calls are evaluated by the generated code.
+     */
+    boolean isCompiled() {
+        return current != interpreted;
+    }
+
+    /**
+     * @return the reason the lambda could not be compiled, the calls stay interpreted; null if it was not compiled yet
+     *         or was compiled successfully.
+     */
+    RuntimeException getCompileFailure() {
+        return compileFailure;
+    }
+
+    @Override
+    public Object apply(Object[] pp) {
+        Function<Object[], ?> f = current;
+        if (f == interpreted && !scheduled && invocations++ >= threshold)
+            schedule();
+        return f.apply(pp);
+    }
+
+    private void schedule() {
+        synchronized (this) {
+            if (scheduled)
+                return;
+            scheduled = true;
+        }
+        executor.execute(this::compile);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void compile() {
+        try {
+            switch (lambda.getParameters().size()) {
+                case 0:
+                    Supplier<Object> supplier = BytecodeCompiler.compile(lambda, Supplier.class);
+                    current = pp -> supplier.get();
+                    break;
+                case 1:
+                    Function<Object, Object> function = BytecodeCompiler.compile(lambda, Function.class);
+                    current = pp -> function.apply(pp[0]);
+                    break;
+                default:
+                    BiFunction<Object, Object, Object> biFunction = BytecodeCompiler.compile(lambda,
+                            BiFunction.class);
+                    current = pp -> biFunction.apply(pp[0], pp[1]);
+                    break;
+            }
+        } catch (RuntimeException e) {
+            // keeps interpreting
+            compileFailure = e;
+            System.getLogger(TieredFunction.class.getName())
+                    .log(e instanceof UnsupportedOperationException ? Level.DEBUG : Level.WARNING,
+                            "Cannot compile " + lambda + ", it stays interpreted", e);
+        }
+    }
+}
@@ -108,6 +108,16 @@ final class TypeConverter extends SimpleExpressionVisitor {
 		return Expression.condition(op, first, second);
 	}
 
+	@Override
+	public Expression visit(SwitchExpression e) {
+		if (isAssignable(_to, e.getResultType()))
+			return e;
+		List<Expression> cases = visitExpressionList(e.getCases());
+		Expression defaultCase = e.getDefaultCase().accept(this);
+
+		return Expression.switchExpression(_to, e.getSwitchValue(), e.getKeys(), cases, defaultCase);
+	}
+
 	@Override
 	public Expression visit(ConstantExpression e) {
 		Class<?> resultType = e.getResultType();
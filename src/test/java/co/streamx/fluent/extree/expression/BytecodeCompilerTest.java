@@ -0,0 +1,167 @@
+package co.streamx.fluent.extree.expression;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.Serializable;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import org.danekja.java.util.function.serializable.SerializableBiFunction;
+import org.danekja.java.util.function.serializable.SerializableFunction;
+import org.danekja.java.util.function.serializable.SerializablePredicate;
+import org.danekja.java.util.function.serializable.SerializableSupplier;
+import org.junit.Test;
+
+import co.streamx.fluent.extree.Customer;
+import co.streamx.fluent.extree.Person;
+
+@SuppressWarnings("serial")
+public class BytecodeCompilerTest implements Serializable {
+
+    @Test
+    public void testPredicate() {
+        int minAge = 18;
+        SerializablePredicate<Person> pp = p -> p.getAge() >= minAge && p.getName() != null
+                && (p.getName().startsWith("B") || p.getHeight() > 180);
+
+        Predicate<Person> compiled = compile(pp, Predicate.class);
+
+        Person t = new Person();
+        assertEquals(pp.test(t), compiled.test(t));
+
+        t.setAge(20);
+        t.setName("Bob");
+        assertEquals(pp.test(t), compiled.test(t));
+
+        t.setName("Alice");
+        assertEquals(pp.test(t), compiled.test(t));
+
+        t.setHeight(190);
+        assertEquals(pp.test(t), compiled.test(t));
+    }
+
+    @Test
+    public void testArithmetic() {
+        SerializableBiFunction<Integer, Long, Double> e = (x,
+                                                           y) -> (x * 3 - y % 7) / 2.5 + (x << 2) - (x / 3);
+
+        BiFunction<Integer, Long, Double> compiled = compile(e, BiFunction.class);
+
+        assertEquals(e.apply(17, 12L), compiled.apply(17, 12L));
+        assertEquals(e.apply(-5, 3L), compiled.apply(-5, 3L));
+    }
+
+    @Test
+    public void testSwitch() {
+        SerializableFunction<Character, Integer> e = c -> {
+            switch (c) {
+                case 'a':
+                    return 1;
+                case 'b':
+                case 'c':
+                    return 2;
+                case 'e':
+                    return 3;
+                default:
+                    return -1;
+            }
+        };
+
+        Function<Character, Integer> compiled = compile(e, Function.class);
+
+        for (char c = 'a'; c <= 'f'; c++)
+            assertEquals(e.apply(c), compiled.apply(c));
+    }
+
+    @Test
+    public void testComparable() {
+        Customer c = new Customer(5);
+        SerializablePredicate<Customer> pp = x -> x.compareTo(c) > 0 || x.getData() == 2;
+
+        Predicate<Customer> compiled = compile(pp, Predicate.class);
+
+        for (int i = 0; i < 8; i++)
+            assertEquals(pp.test(new Customer(i)), compiled.test(new Customer(i)));
+    }
+
+    @Test
+    public void testLocals() {
+        SerializablePredicate<Integer> pp = r -> {
+            int x = r - 1;
+            int y = x + 1;
+            return (y < 6 || x > 25) && x < 23;
+        };
+
+        Predicate<Integer> compiled = compile(pp, Predicate.class);
+
+        for (int i : new int[] { 5, 11, 14, 18, 26, 29 })
+            assertEquals(pp.test(i), compiled.test(i));
+    }
+
+    @Test
+    public void testComposition() {
+        SerializablePredicate<Person> predicate1 = person -> person.getAge() > 18;
+        SerializablePredicate<Person> predicate2 = person -> person.getName().equals("Bob");
+        Predicate<Person> p = predicate1.and(predicate2);
+
+        Predicate<Person> compiled = compile(p, Predicate.class);
+
+        Person t = new Person();
+        t.setName("Alice");
+        assertEquals(p.test(t), compiled.test(t));
+
+        t.setName("Bob");
+        assertEquals(p.test(t), compiled.test(t));
+
+        t.setAge(20);
+        assertEquals(p.test(t), compiled.test(t));
+
+        SerializableFunction<String, Integer> e = s -> s.charAt(0) + 1;
+        e = e.andThen(i -> i + 4);
+
+        Function<String, Integer> f = compile(e, Function.class);
+        assertEquals(e.apply("A"), f.apply("A"));
+    }
+
+    @Test
+    public void testNonPublicMembers() {
+        SerializableFunction<String, String> e = s -> twice(s) + new Hidden(s.length()).size;
+
+        Function<String, String> compiled = compile(e, Function.class);
+
+        assertEquals(e.apply("ab"), compiled.apply("ab"));
+    }
+
+    @Test
+    public void testVarargs() {
+        String a = "a";
+        SerializableSupplier<String> p = () -> String.join("-", a, null, "b");
+
+        Supplier<String> compiled = compile(p, Supplier.class);
+
+        assertEquals(p.get(), compiled.get());
+    }
+
+    /**
+     * Compiles like {@link LambdaExpression#compileAs(Class)}, but fails instead of falling back to the interpreter.
+     */
+    @SuppressWarnings("unchecked")
+    private static <I> I compile(Object lambda,
+                                 Class<? super I> functionalInterface) {
+        return (I) BytecodeCompiler.compile(LambdaExpression.parse(lambda).optimize(), functionalInterface);
+    }
+
+    private static String twice(String s) {
+        return s + s;
+    }
+
+    static final class Hidden {
+        private final int size;
+
+        public Hidden(int size) {
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package co.streamx.fluent.extree.expression;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import org.danekja.java.util.function.serializable.SerializableBiFunction;
+import org.danekja.java.util.function.serializable.SerializableFunction;
+import org.danekja.java.util.function.serializable.SerializablePredicate;
+import org.junit.Test;
+import org.objectweb.asm.Type;
+
+import co.streamx.fluent.extree.Person;
+
+@SuppressWarnings("serial")
+public class ExpressionCodecTest implements Serializable {
+
+    private static Expression roundTrip(Expression e) {
+        return ExpressionCodec.decode(ByteBuffer.wrap(ExpressionCodec.encode(e)),
+                ExpressionCodecTest.class.getClassLoader());
+    }
+
+    @Test
+    public void testRoundTrip() {
+        SerializablePredicate<Person> pp = p -> p.getAge() >= 18 && p.getName() != null
+                && (p.getName().startsWith("B") || p.getHeight() > 180);
+
+        LambdaExpression<?> parsed = LambdaExpression.parse(pp);
+        LambdaExpression<?> read = (LambdaExpression<?>) roundTrip(parsed);
+
+        assertEquals(parsed.toString(), read.toString());
+
+        Person t = new Person();
+        t.setAge(20);
+        t.setName("Bob");
+        assertEquals(pp.test(t), read.compile().apply(new Object[] { t }));
+        t.setName("Alice");
+        assertEquals(pp.test(t), read.compile().apply(new Object[] { t }));
+    }
+
+    @Test
+    public void testRoundTripLoop() {
+        SerializableFunction<Integer, Long> e = n -> {
+            long product = 1;
+            for (int i = 1; i <= n; i++)
+                product *= i;
+            return product;
+        };
+
+        LambdaExpression<?> parsed = LambdaExpression.parse(e);
+        LambdaExpression<?> read = (LambdaExpression<?>) roundTrip(parsed);
+
+        assertTrue(ExpressionComparer.equals(parsed, read));
+        assertEquals(e.apply(10), read.compile().apply(new Object[] { 10 }));
+    }
+
+    @Test
+    public void testRoundTripSwitch() {
+        SerializableFunction<Integer, String> e = x -> {
+            switch (x) {
+                case -100000:
+                    return "min";
+                case 0:
+                case 1:
+                    return "low";
+                case 7:
+                    return "seven";
+                default:
+                    return "other";
+            }
+        };
+
+        LambdaExpression<?> parsed = LambdaExpression.parse(e);
+        LambdaExpression<?> read = (LambdaExpression<?>) roundTrip(parsed);
+
+        assertTrue(ExpressionComparer.equals(parsed, read));
+        for (int x : new int[] { -100000, 0, 1, 7, 8 })
+            assertEquals(e.apply(x), read.compile().apply(new Object[] { x }));
+    }
+
+    @Test
+    public void testRoundTripConstantsAndArrays() {
+        SerializableBiFunction<Integer, Long, String> e = (x,
+                                                           y) -> String.join(",", "a" + x, String.valueOf(y * 2.5),
+                                                                   Thread.State.NEW.name(), Integer.class.getName());
+
+        LambdaExpression<?> read = (LambdaExpression<?>) roundTrip(LambdaExpression.parse(e));
+
+        assertEquals(e.apply(3, 4L), read.compile().apply(new Object[] { 3, 4L }));
+    }
+
+    @Test
+    public void testPreparser() throws IOException {
+        Path dir = Files.createTempDirectory("extree");
+        String className = Type.getInternalName(Queries.class);
+        Path classFile = dir.resolve(className + ".class");
+        Files.createDirectories(classFile.getParent());
+        try (InputStream in = Queries.class.getClassLoader().getResourceAsStream(className + ".class")) {
+            Files.copy(in, classFile);
+        }
+
+        LambdaPreparser.main(new String[] { dir.toString() });
+
+        Path resource = dir.resolve(ExpressionClassCracker.PREPARSED_RESOURCE_PREFIX + className
+                + ExpressionClassCracker.PREPARSED_RESOURCE_SUFFIX);
+        assertTrue(Files.exists(resource));
+
+        Person t = new Person();
+        t.setHeight(170);
+
+        byte[] written = Files.readAllBytes(resource);
+        byte[] classBytes = Files.readAllBytes(classFile);
+        List<Expression> lambdas = ExpressionClassCracker.readPreparsedResource(ByteBuffer.wrap(written), classBytes,
+                ExpressionCodecTest.class.getClassLoader());
+        assertEquals(2, lambdas.size());
+
+        // a resource left from a previous build of the class is ignored
+        classBytes[classBytes.length - 1]++;
+        assertNull(ExpressionClassCracker.readPreparsedResource(ByteBuffer.wrap(written), classBytes,
+                ExpressionCodecTest.class.getClassLoader()));
+
+        for (Expression e : lambdas) {
+            LambdaExpression<?> read = (LambdaExpression<?>) e;
+            Function<Object[], ?> f = read.compile();
+            Object result = read.getParameters().size() == 1 ? f.apply(new Object[] { t })
+                    : f.apply(new Object[] { 160, t });
+            assertEquals(true, result);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPreparserUsage() throws IOException {
+        LambdaPreparser.main(new String[0]);
+    }
+
+    @Test
+    public void testSharedSymbols() {
+        SerializablePredicate<Person> p1 = p -> p.getName().startsWith("Bob");
+        SerializablePredicate<Person> p2 = p -> p.getName().endsWith("Bob");
+
+        LambdaExpression<?> parsed1 = LambdaExpression.parse(p1);
+        LambdaExpression<?> parsed2 = LambdaExpression.parse(p2);
+
+        byte[] both = ExpressionCodec.encode(Arrays.asList(parsed1, parsed2));
+        assertTrue(both.length < ExpressionCodec.encode(parsed1).length + ExpressionCodec.encode(parsed2).length);
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(both.length + 1);
+        buffer.put(both).put((byte) 0).flip();
+        List<Expression> read = ExpressionCodec.decodeAll(buffer, ExpressionCodecTest.class.getClassLoader());
+        assertEquals(1, buffer.remaining());
+        assertEquals(parsed1.toString(), read.get(0).toString());
+        assertEquals(parsed2.toString(), read.get(1).toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedVersion() {
+        byte[] encoded = ExpressionCodec.encode(LambdaExpression.parse((SerializablePredicate<Person>) p -> true));
+        encoded[4] = ExpressionCodec.VERSION + 1;
+        ExpressionCodec.decode(ByteBuffer.wrap(encoded), ExpressionCodecTest.class.getClassLoader());
+    }
+
+    static final class Queries {
+        static SerializablePredicate<Person> tallerThan(int height) {
+            return p -> p.getHeight() > height;
+        }
+
+        static SerializableFunction<Person, Boolean> hasHeight() {
+            return p -> p.getHeight() != 0;
+        }
+    }
+}
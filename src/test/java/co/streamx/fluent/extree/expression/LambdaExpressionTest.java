@@ -2,17 +2,26 @@ package co.streamx.fluent.extree.expression;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
+import java.util.function.ToDoubleBiFunction;
+import java.util.function.ToIntFunction;
 import java.util.stream.IntStream;
 
 import lombok.val;
@@ -197,6 +206,73 @@ public class LambdaExpressionTest implements Serializable {
         }
     }
 
+    @Test(expected = NumberFormatException.class)
+    public void testMemberExceptionIsNotWrapped() throws Throwable {
+        SerializableFunction<String, Integer> pp = s -> Integer.parseInt(s);
+        LambdaExpression<Function<String, Integer>> parsed = LambdaExpression.parse(pp);
+        Function<Object[], ?> le = parsed.compile();
+
+        assertEquals(12, le.apply(new Object[] { "12" }));
+        le.apply(new Object[] { "x" });
+    }
+
+    @Test
+    public void testPrimitiveArithmetic() {
+        SerializableBiFunction<Integer, Integer, Integer> ints = (x,
+                                                                  y) -> x / y * 2 + x % y - (x << 3 ^ y);
+        Function<Object[], ?> le = LambdaExpression.parse(ints).compile();
+        assertEquals(ints.apply(7, 2), le.apply(new Object[] { 7, 2 }));
+        assertEquals(ints.apply(-9, 4), le.apply(new Object[] { -9, 4 }));
+
+        SerializableBiFunction<Long, Double, Boolean> mixed = (x,
+                                                               y) -> x * 3 > 10L && -y / 2 <= x - 0.5
+                                                                       && (int) (x >> 1) != 4;
+        le = LambdaExpression.parse(mixed).compile();
+        for (long x = 0; x < 12; x++)
+            assertEquals(mixed.apply(x, 7.5), le.apply(new Object[] { x, 7.5 }));
+    }
+
+    @Test
+    public void testFrames() {
+        int offset = 5;
+        SerializableBiFunction<Integer, Integer, Integer> e = (x,
+                                                               y) -> {
+            int sum = x + y + offset;
+            return sum * sum - Math.max(sum, offset);
+        };
+
+        Function<Object[], ?> le = LambdaExpression.parse(e).compile();
+        for (int i = 0; i < 4; i++) {
+            Object[] args = { i, -i * 2 };
+            assertEquals(e.apply(i, -i * 2), le.apply(args));
+            assertEquals(2, args.length);
+            assertEquals(-i * 2, args[1]);
+        }
+    }
+
+    @Test
+    public void testOptimize() {
+        int limit = 10;
+        String prefix = "ab";
+        boolean byAge = true;
+        SerializablePredicate<Person> pp = p -> (byAge ? p.getAge() > limit * 2 : p.getHeight() > (long) limit)
+                && p.getName().startsWith(prefix.toUpperCase());
+
+        LambdaExpression<Predicate<Person>> parsed = LambdaExpression.parse(pp);
+        LambdaExpression<Predicate<Person>> optimized = parsed.optimize();
+        String body = optimized.getBody().toString();
+        assertTrue(body, body.contains("20") && body.contains("AB"));
+        assertFalse(body, body.contains("getHeight"));
+        assertSame(optimized, optimized.optimize());
+
+        Person t = new Person();
+        t.setAge(21);
+        t.setName("ABC");
+        assertEquals(pp.test(t), optimized.compile().apply(new Object[] { t }));
+        t.setAge(20);
+        assertEquals(pp.test(t), optimized.compile().apply(new Object[] { t }));
+    }
+
     @Test
     public void testParse2() throws Throwable {
         SerializableBiFunction<Float, Float, Boolean> pp = (Float t,
@@ -872,9 +948,770 @@ public class LambdaExpressionTest implements Serializable {
         assertEquals(2, invocations);
     }
 
+    private static LambdaExpression<Predicate<Person>> olderThan(int minAge) {
+        return LambdaExpression.parse((SerializablePredicate<Person>) p -> p.getAge() > minAge);
+    }
+
+    @Test
+    public void testCapturingLambdaTemplateIsCached() {
+        LambdaExpression<Predicate<Person>> older18 = olderThan(18);
+        LambdaExpression<Predicate<Person>> older30 = olderThan(30);
+
+        InvocationExpression body18 = (InvocationExpression) older18.getBody();
+        InvocationExpression body30 = (InvocationExpression) older30.getBody();
+        assertSame(body18.getTarget(), body30.getTarget());
+        assertEquals(18, ((ConstantExpression) body18.getArguments().get(0)).getValue());
+        assertEquals(30, ((ConstantExpression) body30.getArguments().get(0)).getValue());
+
+        Person t = new Person();
+        t.setAge(20);
+        assertTrue((Boolean) older18.compile().apply(new Object[] { t }));
+        assertFalse((Boolean) older30.compile().apply(new Object[] { t }));
+    }
+
+    @Test
+    public void testRepeatParseOfLambdaClass() {
+        Person t = new Person();
+        t.setAge(20);
+
+        for (int age : new int[] { 18, 30, 10, 25 }) {
+            LambdaExpression<Predicate<Person>> parsed = olderThan(age);
+            assertEquals(Arrays.asList(age), parsed.getCaptured());
+            assertEquals(t.getAge() > age, parsed.compile().apply(new Object[] { t }));
+        }
+
+        SerializablePredicate<Person> named = p -> p.getName() != null;
+        for (int age : new int[] { 18, 30 }) {
+            // 'this' of Predicate.and is captured, the lambda is parsed every time
+            Predicate<Person> p = ((SerializablePredicate<Person>) x -> x.getAge() > age).and(named);
+            t.setName("Bob");
+            assertEquals(p.test(t), LambdaExpression.parse(p).compile().apply(new Object[] { t }));
+        }
+    }
+
+    @Test
+    public void testEliminateCommonSubexpressions() {
+        SerializablePredicate<Row> pp = r -> r.getPerson().getAge() > 18 && r.getPerson().getHeight() > 150
+                || r.getPerson().getName() == null;
+
+        LambdaExpression<Predicate<Row>> parsed = LambdaExpression.parse(pp);
+        LambdaExpression<Predicate<Row>> eliminated = parsed.eliminateCommonSubexpressions();
+        assertSame(eliminated, eliminated.eliminateCommonSubexpressions());
+
+        assertEquals(parsed.getLocals().size() + 1, eliminated.getLocals().size());
+
+        Function<Object[], ?> le = eliminated.compile();
+        for (int age : new int[] { 10, 20 }) {
+            Person t = new Person();
+            t.setAge(age);
+            t.setHeight(160);
+            Row row = new Row(t);
+            assertEquals(pp.test(row), le.apply(new Object[] { row }));
+
+            Predicate<Row> compiled = eliminated.compileAs(Predicate.class);
+            assertEquals(pp.test(row), compiled.test(row));
+        }
+    }
+
+    @Test
+    public void testEliminateCommonSubexpressionsKeepsSideEffects() {
+        SerializableFunction<Row, Integer> counted = r -> r.getNext() + r.getNext();
+        LambdaExpression<Function<Row, Integer>> parsed = LambdaExpression.parse(counted);
+        assertSame(parsed, parsed.eliminateCommonSubexpressions());
+
+        Row row = new Row(new Person());
+        assertEquals(3, parsed.eliminateCommonSubexpressions().compile().apply(new Object[] { row }));
+        assertEquals(2, row.reads);
+
+        SerializableFunction<AtomicInteger, Integer> incremented = a -> a.getAndIncrement() + a.getAndIncrement();
+        LambdaExpression<Function<AtomicInteger, Integer>> atomic = LambdaExpression.parse(incremented);
+        assertSame(atomic, atomic.eliminateCommonSubexpressions());
+        assertEquals(1, atomic.eliminateCommonSubexpressions().compile().apply(new Object[] { new AtomicInteger() }));
+    }
+
+    public static final class Row {
+        private final Person person;
+        private int reads;
+
+        Row(Person person) {
+            this.person = person;
+        }
+
+        public Person getPerson() {
+            return person;
+        }
+
+        public int getNext() {
+            return ++reads;
+        }
+    }
+
+    static final class Queries {
+        // not supported by the parser, skipped by preparseClass
+        static SerializableFunction<Integer, Integer> firstSquareOver() {
+            return n -> {
+                int i = 0;
+                while (i < n) {
+                    if (i * i > n)
+                        break;
+                    i++;
+                }
+                return i;
+            };
+        }
+
+        static SerializablePredicate<Person> named(String name) {
+            return p -> name.equals(p.getName());
+        }
+
+        static SerializablePredicate<Person> adult() {
+            return p -> p.getAge() >= 18;
+        }
+
+        static SerializableFunction<Person, Integer> height() {
+            return p -> p.getHeight() * 2;
+        }
+    }
+
+    @Test
+    public void testPreparseClass() {
+        assertEquals(3, LambdaExpression.preparseClass(Queries.class));
+
+        Person t = new Person();
+        t.setName("Bob");
+        t.setAge(20);
+        t.setHeight(180);
+
+        assertEquals(true, LambdaExpression.parse(Queries.named("Bob")).compile().apply(new Object[] { t }));
+        assertEquals(false, LambdaExpression.parse(Queries.named("Alice")).compile().apply(new Object[] { t }));
+        assertEquals(true, LambdaExpression.parse(Queries.adult()).compile().apply(new Object[] { t }));
+        assertEquals(360, LambdaExpression.parse(Queries.height()).compile().apply(new Object[] { t }));
+    }
+
+    @Test
+    public void testTemplateBind() {
+        LambdaExpression<Predicate<Person>> older18 = olderThan(18);
+        LambdaExpression<?> template = older18.getTemplate();
+
+        assertSame(template, olderThan(30).getTemplate());
+        assertEquals(Arrays.asList(18), older18.getCaptured());
+        assertEquals(2, template.getParameters().size());
+        assertEquals(Integer.TYPE, template.getParameters().get(0).getResultType());
+
+        LambdaExpression<Predicate<Person>> older40 = older18.bind(40);
+        assertSame(template, older40.getTemplate());
+        assertEquals(Arrays.asList(40), older40.getCaptured());
+
+        Person t = new Person();
+        t.setAge(35);
+        assertTrue((Boolean) older18.compile().apply(new Object[] { t }));
+        assertFalse((Boolean) older40.compile().apply(new Object[] { t }));
+
+        SerializablePredicate<Person> adult = p -> p.getAge() > 18;
+        LambdaExpression<SerializablePredicate<Person>> parsed = LambdaExpression.parse(adult);
+        assertSame(parsed, parsed.getTemplate());
+        assertSame(parsed, parsed.bind());
+
+        SerializablePredicate<Person> named = p -> p.getName() != null;
+        LambdaExpression<Predicate<Person>> both = LambdaExpression.parse(adult.and(named));
+        // Predicate.and captures 'this', which is a part of the template
+        LambdaExpression<Predicate<Person>> young = both.bind((SerializablePredicate<Person>) p -> p.getAge() < 40);
+
+        assertTrue((Boolean) young.compile().apply(new Object[] { t }));
+        assertFalse((Boolean) both.compile().apply(new Object[] { t }));
+    }
+
+    @FunctionalInterface
+    public interface PersonScore extends Serializable {
+        long score(Person p, int bonus);
+    }
+
+    @FunctionalInterface
+    interface HiddenScore extends Serializable {
+        int score(Person p);
+    }
+
+    @Test
+    public void testCompileAsPrimitive() {
+        SerializableToIntFunction<Person> age = p -> p.getAge() * 2;
+        ToIntFunction<Person> compiledAge = LambdaExpression.parse(age).compileAs(ToIntFunction.class);
+
+        SerializableToDoubleBiFunction<Person, Integer> ratio = (p,
+                                                                 i) -> p.getHeight() / (double) i;
+        ToDoubleBiFunction<Person, Integer> compiledRatio = LambdaExpression.parse(ratio)
+                .compileAs(ToDoubleBiFunction.class);
+
+        Person t = new Person();
+        t.setAge(21);
+        t.setHeight(180);
+
+        assertEquals(age.applyAsInt(t), compiledAge.applyAsInt(t));
+        assertEquals(ratio.applyAsDouble(t, 7), compiledRatio.applyAsDouble(t, 7), 0);
+    }
+
+    @Test
+    public void testCompileAsCustomInterface() {
+        PersonScore score = (p,
+                             bonus) -> p.getAge() + bonus + (p.isAdult() ? 10L : 0L);
+        LambdaExpression<PersonScore> parsed = LambdaExpression.parse(score);
+        PersonScore compiled = parsed.compileAs(PersonScore.class);
+
+        Person t = new Person();
+        t.setAge(30);
+        assertEquals(score.score(t, 5), compiled.score(t, 5));
+        assertSame(compiled, parsed.compileAs(PersonScore.class));
+    }
+
+    @Test
+    public void testCompileAsInterpreterFallback() {
+        HiddenScore score = p -> p.getAge() + 1;
+        HiddenScore compiled = LambdaExpression.parse(score).compileAs(HiddenScore.class);
+
+        Person t = new Person();
+        t.setAge(41);
+        assertEquals(score.score(t), compiled.score(t));
+    }
+
+    @Test
+    public void testCompileAsFallbackDefaultMethods() {
+        SerializablePredicate<Integer> even = n -> {
+            int r = n;
+            while (r >= 2)
+                r -= 2;
+            return r == 0;
+        };
+        Predicate<Integer> compiled = LambdaExpression.parse(even).compileAs(Predicate.class);
+        Predicate<Integer> positive = n -> n > 0;
+
+        for (int n = -3; n < 6; n++) {
+            assertEquals(even.test(n), compiled.test(n));
+            assertEquals(!even.test(n), compiled.negate().test(n));
+            assertEquals(even.test(n) && n > 0, compiled.and(positive).test(n));
+        }
+
+        SerializableFunction<Integer, Integer> triangle = n -> {
+            int sum = 0;
+            for (int i = 1; i <= n; i++)
+                sum += i;
+            return sum;
+        };
+        Function<Integer, Integer> f = LambdaExpression.parse(triangle).compileAs(Function.class);
+        assertEquals("15", f.andThen(String::valueOf).apply(5));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCompileAsWrongInterface() {
+        SerializablePredicate<Person> p = Person::isAdult;
+        LambdaExpression.parse(p).compileAs(BiFunction.class);
+    }
+
+    @Test
+    public void testStructuralEquality() {
+        int limit = 18;
+        SerializablePredicate<Person> same = p -> p.getAge() > limit;
+        SerializablePredicate<Person> other = p -> p.getAge() >= limit;
+
+        LambdaExpression<?> a = olderThan(18);
+        LambdaExpression<?> b = olderThan(21);
+
+        assertNotSame(a, b);
+        assertTrue(ExpressionComparer.equals(a, LambdaExpression.parse(same)));
+        assertEquals(a.structuralHash(), LambdaExpression.parse(same).structuralHash());
+
+        assertFalse(ExpressionComparer.equals(a, b));
+        assertTrue(ExpressionComparer.equals(a, b, true));
+        assertEquals(a.structuralHash(true), b.structuralHash(true));
+        assertNotEquals(a.structuralHash(), b.structuralHash());
+
+        assertFalse(ExpressionComparer.equals(a, LambdaExpression.parse(other), true));
+        assertNotEquals(a.structuralHash(true), LambdaExpression.parse(other).structuralHash(true));
+    }
+
+    @Test
+    public void testInterning() {
+        boolean enabled = ExpressionInterner.isEnabled();
+        ExpressionInterner.setEnabled(true);
+        try {
+            SerializablePredicate<Person> a = p -> p.getAge() > 18 && p.getName() != null;
+            SerializablePredicate<Person> b = p -> p.getAge() > 18 && p.getName() != null;
+            SerializablePredicate<Person> c = p -> p.getAge() > 21 && p.getName() != null;
+
+            Expression bodyA = LambdaExpression.parse(a).getBody();
+            Expression bodyC = LambdaExpression.parse(c).getBody();
+            assertSame(bodyA, LambdaExpression.parse(b).getBody());
+            assertNotSame(bodyA, bodyC);
+            assertSame(((BinaryExpression) bodyA).getSecond(), ((BinaryExpression) bodyC).getSecond());
+
+            List<String> list = new ArrayList<>();
+            assertNotSame(Expression.constant(list), Expression.constant(new ArrayList<>()));
+        } finally {
+            ExpressionInterner.setEnabled(enabled);
+        }
+    }
+
+    @Test
+    public void testCompilePredicate() {
+        int limit = 18;
+        SerializablePredicate<Person> pp = p -> p.getAge() >= limit && p.getName() != null
+                && (p.getName().startsWith("B") || !(p.getHeight() > 180.5));
+
+        Predicate<Object[]> compiled = LambdaExpression.parse(pp).compilePredicate();
+
+        Person t = new Person();
+        t.setAge(20);
+        assertEquals(pp.test(t), compiled.test(new Object[] { t })); // short-circuits before the null name
+        t.setName("Bob");
+        assertEquals(pp.test(t), compiled.test(new Object[] { t }));
+        t.setName("Alice");
+        t.setHeight(190);
+        assertEquals(pp.test(t), compiled.test(new Object[] { t }));
+        t.setHeight(170);
+        assertEquals(pp.test(t), compiled.test(new Object[] { t }));
+        t.setAge(17);
+        assertEquals(pp.test(t), compiled.test(new Object[] { t }));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCompilePredicateNotBoolean() {
+        SerializableFunction<Person, String> name = Person::getName;
+        LambdaExpression.parse(name).compilePredicate();
+    }
+
+    @Test
+    public void testCompileSpecialized() {
+        int limit = 18;
+        SerializablePredicate<Person> pp = p -> p.getAge() >= limit && p.getName() != null
+                && (p.getName().startsWith("B") || !(p.getHeight() > 180.5));
+        SerializableFunction<Person, Long> score = p -> (p.isAdult() ? p.getAge() * 3L : -p.getAge())
+                + (long) (p.getHeight() / 2.0) % 7 + (p.getAge() << 2);
+        SerializableBiFunction<Float, Integer, Float> scale = (f,
+                                                               i) -> f * i - 1;
+
+        Function<Object[], ?> predicate = LambdaExpression.parse(pp).compileSpecialized();
+        Function<Object[], ?> scoring = LambdaExpression.parse(score).compileSpecialized();
+        Function<Object[], ?> scaling = LambdaExpression.parse(scale).compileSpecialized();
+
+        Person t = new Person();
+        for (int age : new int[] { 12, 20, 40 }) {
+            t.setAge(age);
+            t.setName(age > 30 ? "Bob" : age > 15 ? "Alice" : null);
+            t.setHeight(150 + age * 2);
+            assertEquals(pp.test(t), predicate.apply(new Object[] { t }));
+            assertEquals(score.apply(t), scoring.apply(new Object[] { t }));
+            assertEquals(scale.apply(1.5f * age, age), scaling.apply(new Object[] { 1.5f * age, age }));
+        }
+    }
+
+    @Test
+    public void testTieredCompile() {
+        SerializableBiFunction<Person, Integer, Boolean> older = (p,
+                                                                  years) -> p.getAge() + years > 30;
+        TieredFunction f = (TieredFunction) TieredFunction.create(LambdaExpression.parse(older), 2, Runnable::run);
+
+        Person t = new Person();
+        for (int age = 25; age < 35; age++) {
+            t.setAge(age);
+            assertEquals(older.apply(t, 3), f.apply(new Object[] { t, 3 }));
+            assertEquals(age > 26, f.isCompiled());
+        }
+    }
+
+    @Test
+    public void testTieredCompileFailure() {
+        SerializableFunction<Integer, Integer> squares = n -> {
+            int sum = 0;
+            for (int i = 0; i < n; i++)
+                sum += i * i;
+            return sum;
+        };
+        // loops are not translated to bytecode
+        TieredFunction f = (TieredFunction) TieredFunction.create(LambdaExpression.parse(squares), 2, Runnable::run);
+
+        for (int n = 0; n < 5; n++)
+            assertEquals(squares.apply(n), f.apply(new Object[] { n }));
+        assertFalse(f.isCompiled());
+        assertTrue(f.getCompileFailure() instanceof UnsupportedOperationException);
+    }
+
+    @Test
+    public void testCompileIsInterpreted() {
+        assumeTrue(System.getProperty(TieredFunction.THRESHOLD_SYSTEM_PROPERTY) == null);
+        SerializablePredicate<Person> adult = p -> p.getAge() >= 18;
+        assertFalse(LambdaExpression.parse(adult).compile() instanceof TieredFunction);
+    }
+
+    @Test(timeout = 10000)
+    public void testManyConditions() {
+        SerializablePredicate<Integer> many = x -> x != 1 && x != 2 || x == 21 && x != 4 && x != 5 || x == 42
+                && x != 7 && x != 8 || x == 63 && x != 10 && x != 11 || x == 84 && x != 13 && x != 14 || x == 105
+                && x != 16 && x != 17 || x == 126 && x != 19 && x != 20 || x == 147 && x != 22 && x != 23 || x == 168
+                && x != 25 && x != 26 || x == 189 && x != 28 && x != 29 || x == 210 && x != 31 && x != 32 || x == 231
+                && x != 34 && x != 35 || x == 252 && x != 37 && x != 38 || x == 273 && x != 40 && x != 41 || x == 294
+                && x != 43 && x != 44 || x == 315 && x != 46 && x != 47 || x == 336 && x != 49 && x != 50 || x == 357
+                && x != 52 && x != 53 || x == 378 && x != 55 && x != 56 || x == 399 && x != 58 && x != 59 || x == 420
+                && x != 61 && x != 62 || x == 441 && x != 64 && x != 65 || x == 462 && x != 67 && x != 68 || x == 483
+                && x != 70 && x != 71 || x == 504 && x != 73 && x != 74 || x == 525 && x != 76 && x != 77 || x == 546
+                && x != 79 && x != 80 || x == 567 && x != 82 && x != 83 || x == 588 && x != 85 && x != 86 || x == 609
+                && x != 88 && x != 89 || x == 630 && x != 91 && x != 92 || x == 651 && x != 94 && x != 95 || x == 672
+                && x != 97 && x != 98 || x == 693 && x != 100 && x != 101 || x == 714 && x != 103 && x != 104
+                || x == 735 && x != 106 && x != 107 || x == 756 && x != 109 && x != 110 || x == 777 && x != 112
+                && x != 113 || x == 798 && x != 115 && x != 116 || x == 819 && x != 118 && x != 119 || x == 840;
+        SerializableFunction<Integer, Integer> squares = x -> x == 0 ? 0 : x == 1 ? 1 : x == 2 ? 4 : x == 3 ? 9
+                : x == 4 ? 16 : x == 5 ? 25 : x == 6 ? 36 : x == 7 ? 49 : x == 8 ? 64 : x == 9 ? 81 : x == 10 ? 100
+                : x == 11 ? 121 : x == 12 ? 144 : x == 13 ? 169 : x == 14 ? 196 : x == 15 ? 225 : x == 16 ? 256
+                : x == 17 ? 289 : x == 18 ? 324 : x == 19 ? 361 : x == 20 ? 400 : x == 21 ? 441 : x == 22 ? 484
+                : x == 23 ? 529 : x == 24 ? 576 : x == 25 ? 625 : x == 26 ? 676 : x == 27 ? 729 : x == 28 ? 784
+                : x == 29 ? 841 : x == 30 ? 900 : x == 31 ? 961 : x == 32 ? 1024 : x == 33 ? 1089 : x == 34 ? 1156
+                : x == 35 ? 1225 : x == 36 ? 1296 : x == 37 ? 1369 : x == 38 ? 1444 : x == 39 ? 1521 : x == 40 ? 1600
+                : x == 41 ? 1681 : x == 42 ? 1764 : x == 43 ? 1849 : x == 44 ? 1936 : x == 45 ? 2025 : x == 46 ? 2116
+                : x == 47 ? 2209 : x == 48 ? 2304 : x == 49 ? 2401 : x == 50 ? 2500 : x == 51 ? 2601 : x == 52 ? 2704
+                : x == 53 ? 2809 : x == 54 ? 2916 : x == 55 ? 3025 : x == 56 ? 3136 : x == 57 ? 3249 : x == 58 ? 3364
+                : x == 59 ? 3481 : -1;
+
+        Function<Object[], ?> manyCompiled = LambdaExpression.parse(many).compile();
+        Function<Object[], ?> squaresCompiled = LambdaExpression.parse(squares).compile();
+        for (int x = -2; x < 900; x++) {
+            assertEquals(many.test(x), manyCompiled.apply(new Object[] { x }));
+            assertEquals(squares.apply(x), squaresCompiled.apply(new Object[] { x }));
+        }
+    }
+
     // @Test
     // public void testGetResultType() {
     // fail("Not yet implemented");
     // }
 
+    @Test
+    public void testLoop() {
+        SerializableFunction<Integer, Integer> squares = n -> {
+            int sum = 0;
+            for (int i = 0; i < n; i++)
+                sum += i * i;
+            return sum;
+        };
+
+        LambdaExpression<Function<Integer, Integer>> parsed = LambdaExpression.parse(squares);
+        assertTrue(parsed.getBody() instanceof BlockExpression);
+        Expression loop = ((BlockExpression) parsed.getBody()).getExpressions().get(0);
+        assertEquals(ExpressionType.Loop, loop.getExpressionType());
+
+        Function<Object[], ?> compiled = parsed.compile();
+        Function<Object[], ?> specialized = parsed.compileSpecialized();
+        for (int n = 0; n < 10; n++) {
+            assertEquals(squares.apply(n), compiled.apply(new Object[] { n }));
+            assertEquals(squares.apply(n), specialized.apply(new Object[] { n }));
+        }
+    }
+
+    @Test
+    public void testLoopOverCollection() {
+        SerializableFunction<List<Person>, String> names = people -> {
+            int adultYears = 0;
+            StringBuilder b = new StringBuilder();
+            for (Person p : people) {
+                int age = p.getAge();
+                adultYears += age >= 18 ? age : 0;
+                for (int i = 0; i < age && i < 2; i++)
+                    b.append(p.getName());
+            }
+            return b.append(adultYears).toString();
+        };
+
+        LambdaExpression<Function<List<Person>, String>> parsed = LambdaExpression.parse(names);
+
+        List<Person> people = new ArrayList<>();
+        for (int age = 0; age < 4; age++) {
+            Person p = new Person();
+            p.setName("p" + age);
+            p.setAge(age * 10);
+            people.add(p);
+        }
+
+        Function<Object[], ?> compiled = parsed.compile();
+        assertEquals(names.apply(people), compiled.apply(new Object[] { people }));
+        assertEquals(names.apply(Collections.emptyList()), compiled.apply(new Object[] { Collections.emptyList() }));
+    }
+
+    @Test
+    public void testLoopAfterEarlyReturn() {
+        SerializableFunction<Integer, Integer> triangle = x -> {
+            if (x < 0)
+                return -1;
+            int s = 0;
+            for (int i = 0; i < x; i++)
+                s += i;
+            return s;
+        };
+
+        LambdaExpression<Function<Integer, Integer>> parsed = LambdaExpression.parse(triangle);
+        assertEquals(ExpressionType.Conditional, parsed.getBody().getExpressionType());
+
+        Function<Object[], ?> compiled = parsed.compile();
+        Function<Object[], ?> specialized = parsed.compileSpecialized();
+        for (int x = -2; x < 8; x++) {
+            assertEquals(triangle.apply(x), compiled.apply(new Object[] { x }));
+            assertEquals(triangle.apply(x), specialized.apply(new Object[] { x }));
+        }
+    }
+
+    @Test
+    public void testSequentialLoops() {
+        SerializableFunction<Integer, Integer> sums = n -> {
+            int sum = 0;
+            int i = 0;
+            int j = 0;
+            while (i < n) {
+                sum += i;
+                i++;
+            }
+            while (j < n) {
+                sum += j * j;
+                j++;
+            }
+            return sum;
+        };
+
+        LambdaExpression<Function<Integer, Integer>> parsed = LambdaExpression.parse(sums);
+        Function<Object[], ?> compiled = parsed.compile();
+        Function<Object[], ?> specialized = parsed.compileSpecialized();
+        for (int n = 0; n < 6; n++) {
+            assertEquals(sums.apply(n), compiled.apply(new Object[] { n }));
+            assertEquals(sums.apply(n), specialized.apply(new Object[] { n }));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSequentialLoopsReusingCounter() {
+        // javac stores j in the slot of i, which is reassigned after the first loop
+        SerializableFunction<Integer, Integer> sums = n -> {
+            int sum = 0;
+            for (int i = 0; i < n; i++)
+                sum += i;
+            for (int j = 0; j < n; j++)
+                sum += j * j;
+            return sum;
+        };
+
+        LambdaExpression.parse(sums);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLoopWithPostIncrement() {
+        SerializableFunction<Integer, Integer> sum = n -> {
+            int s = 0;
+            int i = 0;
+            while (i < n)
+                s += i++;
+            return s;
+        };
+
+        LambdaExpression.parse(sum);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLoopWithBreak() {
+        SerializableFunction<Integer, Integer> firstSquareOver = n -> {
+            int i = 0;
+            while (i < n) {
+                if (i * i > n)
+                    break;
+                i++;
+            }
+            return i;
+        };
+
+        LambdaExpression.parse(firstSquareOver);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConditionalAssignment() {
+        SerializableFunction<Integer, Integer> select = n -> {
+            int r;
+            if (n == 1)
+                r = 10;
+            else
+                r = 20;
+            return r;
+        };
+
+        LambdaExpression.parse(select);
+    }
+
+    enum Status {
+        NEW, ACTIVE, SUSPENDED, CLOSED, ARCHIVED
+    }
+
+    @Test
+    public void testSwitch() {
+        SerializableFunction<Integer, String> label = code -> {
+            switch (code) {
+                case 1:
+                    return "one";
+                case 10:
+                case 20:
+                    return "tens";
+                case 1000:
+                    return "thousand";
+                default:
+                    return "other";
+            }
+        };
+
+        LambdaExpression<Function<Integer, String>> parsed = LambdaExpression.parse(label);
+        assertEquals(ExpressionType.Switch, parsed.getBody().getExpressionType());
+        SwitchExpression switchExpression = (SwitchExpression) parsed.getBody();
+        assertEquals(Arrays.asList(1, 10, 20, 1000), switchExpression.getKeys());
+        assertSame(switchExpression.getCases().get(1), switchExpression.getCases().get(2));
+
+        Function<Object[], ?> compiled = parsed.compile();
+        Function<Object[], ?> specialized = parsed.compileSpecialized();
+        for (int code : new int[] { 0, 1, 10, 20, 999, 1000, -1 }) {
+            assertEquals(label.apply(code), compiled.apply(new Object[] { code }));
+            assertEquals(label.apply(code), specialized.apply(new Object[] { code }));
+        }
+    }
+
+    @Test
+    public void testSwitchOnEnum() {
+        SerializableFunction<Status, Integer> priority = s -> {
+            switch (s) {
+                case NEW:
+                    return 30;
+                case ACTIVE:
+                    return 10;
+                case SUSPENDED:
+                case CLOSED:
+                    return 20;
+                default:
+                    return -1;
+            }
+        };
+
+        LambdaExpression<Function<Status, Integer>> parsed = LambdaExpression.parse(priority);
+        assertEquals(ExpressionType.Switch, parsed.getBody().getExpressionType());
+        SwitchExpression switchExpression = (SwitchExpression) parsed.getBody();
+        assertEquals(Arrays.asList(Status.NEW.ordinal(), Status.ACTIVE.ordinal(), Status.SUSPENDED.ordinal(),
+                Status.CLOSED.ordinal()), switchExpression.getKeys());
+
+        Function<Object[], ?> compiled = parsed.compile();
+        Function<Object[], ?> specialized = parsed.compileSpecialized();
+        for (Status s : Status.values()) {
+            assertEquals(priority.apply(s), compiled.apply(new Object[] { s }));
+            assertEquals(priority.apply(s), specialized.apply(new Object[] { s }));
+        }
+    }
+
+    enum Priority {
+        LOW, NORMAL, HIGH, URGENT
+    }
+
+    @Test
+    public void testSwitchOnEnumOutOfOrder() {
+        SerializableFunction<Priority, Integer> hours = p -> {
+            switch (p) {
+                case URGENT:
+                    return 1;
+                case LOW:
+                    return 72;
+                case HIGH:
+                    return 8;
+                default:
+                    return 24;
+            }
+        };
+
+        LambdaExpression<Function<Priority, Integer>> parsed = LambdaExpression.parse(hours);
+        assertEquals(ExpressionType.Switch, parsed.getBody().getExpressionType());
+        SwitchExpression switchExpression = (SwitchExpression) parsed.getBody();
+        assertEquals(Arrays.asList(Priority.URGENT.ordinal(), Priority.LOW.ordinal(), Priority.HIGH.ordinal()),
+                switchExpression.getKeys());
+
+        Function<Object[], ?> compiled = parsed.compile();
+        Function<Object[], ?> specialized = parsed.compileSpecialized();
+        for (Priority p : Priority.values()) {
+            assertEquals(hours.apply(p), compiled.apply(new Object[] { p }));
+            assertEquals(hours.apply(p), specialized.apply(new Object[] { p }));
+        }
+    }
+
+    @Test
+    public void testNestedSwitchWithConditional() {
+        SerializableFunction<Integer, Integer> select = n -> {
+            switch (n) {
+                case 1:
+                    return n > 0 ? 1 : 2;
+                case 2:
+                    switch (n + 1) {
+                        case 3:
+                            return 7;
+                        default:
+                            return 8;
+                    }
+                default:
+                    return 0;
+            }
+        };
+
+        LambdaExpression<Function<Integer, Integer>> parsed = LambdaExpression.parse(select);
+        assertEquals(ExpressionType.Switch, parsed.getBody().getExpressionType());
+        SwitchExpression switchExpression = (SwitchExpression) parsed.getBody();
+        assertEquals(ExpressionType.Switch, switchExpression.getCases().get(1).getExpressionType());
+
+        Function<Object[], ?> compiled = parsed.compile();
+        Function<Object[], ?> specialized = parsed.compileSpecialized();
+        for (int n = -1; n < 4; n++) {
+            assertEquals(select.apply(n), compiled.apply(new Object[] { n }));
+            assertEquals(select.apply(n), specialized.apply(new Object[] { n }));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSwitchWithDefaultFirst() {
+        SerializableFunction<Integer, String> label = code -> {
+            switch (code) {
+                default:
+                    return "other";
+                case 1:
+                    return "one";
+            }
+        };
+
+        LambdaExpression.parse(label);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSwitchStatement() {
+        SerializableFunction<Integer, Integer> select = n -> {
+            int r;
+            switch (n) {
+                case 1:
+                    r = 10;
+                    break;
+                case 2:
+                    r = 20;
+                    break;
+                default:
+                    r = 0;
+            }
+            return r;
+        };
+
+        LambdaExpression.parse(select);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSwitchOnString() {
+        SerializableFunction<String, Integer> code = s -> {
+            switch (s) {
+                case "one":
+                    return 1;
+                case "two":
+                    return 2;
+                default:
+                    return 0;
+            }
+        };
+
+        LambdaExpression.parse(code);
+    }
 }